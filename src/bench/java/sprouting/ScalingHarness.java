@@ -0,0 +1,267 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.Prefs;
+import ij.measure.ResultsTable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * End-to-end throughput and accuracy of the Sprout Analyzer on synthetic
+ * plates, for a range of image sizes and thread counts.
+ *
+ * For every image size, a set of plates (one per seed) is analyzed with the
+ * default parameters, with 1, 2, 4... threads each analyzing one plate at a
+ * time (running its stages one after the other), like the batch analyzer does. Plates up to the tiling limit are
+ * rendered and analyzed as a whole (the rendering stands in for opening the
+ * file); larger plates are analyzed tile by tile, reading the tiles from the
+ * generator. Each run reports:
+ * <ul>
+ * <li>the throughput in images per second</li>
+ * <li>the peak heap usage during the run</li>
+ * <li>the mean relative error of the bead count, sprout count, network length
+ * and cell count against the geometry of the plates</li>
+ * <li>the number of plates whose results differ from the first run of the
+ * same size, which must always be zero</li>
+ * <li>the number of plates whose values of the error metrics differ from the
+ * committed baseline (src/bench/resources/scaling-baseline.tsv), which must
+ * also be zero; plates that are not in the baseline are not compared</li>
+ * </ul>
+ * The process exits with status 1 if any result changed between runs or
+ * differs from the baseline. With -Dscaling.update=true, the metrics of the
+ * plates are written to the baseline instead, e.g. after a deliberate change
+ * of the results.
+ *
+ * Usage (all arguments are optional, lists are comma-separated):
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec@scaling -Dscaling.args="sizes threads plates tilingLimit tileSize"
+ * </pre>
+ * e.g. "1024,4096,16384,40000 1,2,4,8,16,32,64 8 8192 4096" (the defaults are
+ * "1024,2048,4096 1,2,4,8 8 8192 4096"). The baseline covers the default
+ * plates, and tiled 2048 pixel plates ("2048 1 8 1024 1024"). A 40000 pixel
+ * plate needs a heap of several GB even when tiled (-Dscaling.heap=16g).
+ *
+ * The network length is measured from the edge of the dilated bead mask, so
+ * its error includes a constant offset of about the bead dilation per sprout.
+ * Cell numbers are not available in tiled mode, so tiled plates are analyzed
+ * without the cell measurements (NaN).
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class ScalingHarness {
+	private static final int SPROUTS_PER_BEAD = 4;
+
+	private static final String[] METRICS = { "n(beads)", "n(sprouts)", "Total network length", "n(cells)" };
+	private static final SproutParameters TILED = SproutParameters.DEFAULTS.toBuilder()
+			.measure(Measurement.CELL_COUNT, false).measure(Measurement.CELL_DENSITY, false).measure(Measurement.EC_COUNT, false).build();
+
+	/* Relative difference from the baseline that is still the same value, for libraries rounding differently */
+	private static final double BASELINE_TOLERANCE = 1e-9;
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = parse(args, 0, "1024,2048,4096");
+		int[] threads = parse(args, 1, "1,2,4,8");
+		int plates = parse(args, 2, "8")[0];
+		int tilingLimit = parse(args, 3, "8192")[0];
+		int tileSize = parse(args, 4, "4096")[0];
+
+		Path baselineFile = Paths.get(System.getProperty("scaling.baseline", "src/bench/resources/scaling-baseline.tsv"));
+		boolean update = Boolean.getBoolean("scaling.update");
+		Map<String, double[]> baseline = Files.exists(baselineFile) ? readBaseline(baselineFile) : new TreeMap<String, double[]>();
+
+		boolean changed = false;
+		System.out.println("Size\tThreads\tPlates\tTiled\tImages/s\tPeak heap (MB)\tError " + String.join(" (%)\tError ", METRICS) + " (%)\tChanged\tBaseline");
+		for (int size : sizes) {
+			Map<Integer, double[]> reference = new HashMap<Integer, double[]>();
+			for (int nThreads : threads) {
+				Prefs.setThreads(nThreads);
+				boolean tiled = size > tilingLimit;
+				System.gc();
+				for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+					pool.resetPeakUsage();
+
+				long start = System.nanoTime();
+				ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+				List<SyntheticPlate> generated = new ArrayList<SyntheticPlate>();
+				List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+				for (int p = 1; p <= plates; p++) {
+					final SyntheticPlate plate = SyntheticPlate.make(size, size, SPROUTS_PER_BEAD, p);
+					generated.add(plate);
+					futures.add(executor.submit(() -> analyze(plate, tiled, tileSize)));
+				}
+				double[] error = new double[METRICS.length];
+				int nChanged = 0, nDifferent = 0;
+				for (int p = 1; p <= plates; p++) {
+					double[] result = futures.get(p - 1).get();
+					SyntheticPlate plate = generated.get(p - 1);
+					double[] truth = { plate.getBeadCount(), plate.getSproutCount(), plate.getNetworkLength(), plate.getNucleusCount() };
+					for (int m = 0; m < METRICS.length; m++)
+						error[m] += Math.abs(result[m] - truth[m]) / truth[m] / plates;
+					double[] previous = reference.putIfAbsent(p, result);
+					if (previous != null && !Arrays.equals(previous, result))
+						nChanged++;
+					String key = size + "\t" + p + "\t" + tiled;
+					double[] metrics = Arrays.copyOf(result, METRICS.length);
+					if (update)
+						baseline.put(key, metrics);
+					else if (baseline.containsKey(key) && !matches(baseline.get(key), metrics))
+						nDifferent++;
+				}
+				executor.shutdown();
+				double seconds = (System.nanoTime() - start) / 1e9;
+
+				long peak = 0;
+				for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+					if (pool.getType() == MemoryType.HEAP)
+						peak += pool.getPeakUsage().getUsed();
+				StringBuilder line = new StringBuilder();
+				line.append(size).append('\t').append(nThreads).append('\t').append(plates).append('\t').append(tiled);
+				line.append('\t').append(String.format("%.3f", plates / seconds));
+				line.append('\t').append(peak / 1048576);
+				for (double e : error)
+					line.append('\t').append(String.format("%.2f", 100 * e));
+				line.append('\t').append(nChanged);
+				line.append('\t').append(update ? "updated" : String.valueOf(nDifferent));
+				System.out.println(line);
+				changed |= nChanged > 0 || nDifferent > 0;
+			}
+		}
+		if (update)
+			writeBaseline(baselineFile, baseline);
+		if (changed)
+			System.err.println("Results changed between runs or differ from the baseline");
+		System.exit(changed ? 1 : 0); // the worker threads of ImageJ's ThreadUtil are not daemons
+	}
+
+	/**
+	 * Analyze a plate with the default parameters and return all values of
+	 * its result row, starting with the values of METRICS (NaN if not measured).
+	 */
+	private static double[] analyze(SyntheticPlate plate, boolean tiled, int tileSize) throws Exception {
+		ResultsTable row = new ResultsTable();
+		if (tiled) {
+			Sprout_Analyzer analyzer = new Sprout_Analyzer();
+			analyzer.init(plate);
+			analyzer.setParameters(TILED);
+			analyzer.analyzeTiled(plate, tileSize);
+			analyzer.addResults(row);
+		} else {
+			SproutAnalysis.analyze(plate.getImage(), 1, SproutParameters.DEFAULTS, StageScheduler.CALLER).addTo(row);
+		}
+		List<Double> values = new ArrayList<Double>();
+		for (String metric : METRICS) {
+			double value = Double.NaN;
+			for (int col = 0; col <= row.getLastColumn(); col++)
+				if (row.columnExists(col) && row.getColumnHeading(col).startsWith(metric))
+					value = row.getValueAsDouble(col, 0);
+			values.add(value);
+		}
+		for (int col = 0; col <= row.getLastColumn(); col++)
+			if (row.columnExists(col))
+				values.add(row.getValueAsDouble(col, 0));
+		double[] result = new double[values.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = values.get(i);
+		return result;
+	}
+
+	/**
+	 * Whether the metrics of a plate equal those of the baseline, up to BASELINE_TOLERANCE.
+	 */
+	private static boolean matches(double[] expected, double[] actual) {
+		for (int m = 0; m < METRICS.length; m++) {
+			if (Double.isNaN(expected[m]) || Double.isNaN(actual[m])) {
+				if (Double.isNaN(expected[m]) != Double.isNaN(actual[m]))
+					return false;
+			} else if (Math.abs(actual[m] - expected[m]) > BASELINE_TOLERANCE * Math.max(1, Math.abs(expected[m]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Metrics of each plate in a baseline file, by size, seed and tiling.
+	 */
+	private static Map<String, double[]> readBaseline(Path file) throws IOException {
+		Map<String, double[]> baseline = new TreeMap<String, double[]>();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			String[] items = line.split("\t");
+			double[] metrics = new double[METRICS.length];
+			for (int m = 0; m < METRICS.length; m++)
+				metrics[m] = Double.parseDouble(items[3 + m]);
+			baseline.put(items[0] + "\t" + items[1] + "\t" + items[2], metrics);
+		}
+		return baseline;
+	}
+
+	/**
+	 * Write the metrics of each plate to a baseline file.
+	 */
+	private static void writeBaseline(Path file, Map<String, double[]> baseline) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		lines.add("# Size\tSeed\tTiled\t" + String.join("\t", METRICS));
+		for (Map.Entry<String, double[]> entry : baseline.entrySet()) {
+			StringBuilder line = new StringBuilder(entry.getKey());
+			for (double value : entry.getValue())
+				line.append('\t').append(value);
+			lines.add(line.toString());
+		}
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Comma-separated integers of an argument, or of its default.
+	 */
+	private static int[] parse(String[] args, int index, String defaultValue) {
+		String[] items = (index < args.length ? args[index] : defaultValue).split(",");
+		int[] values = new int[items.length];
+		for (int i = 0; i < items.length; i++)
+			values[i] = Integer.parseInt(items[i].trim());
+		return values;
+	}
+}
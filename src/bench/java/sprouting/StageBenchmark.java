@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.ImagePlus;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import morphology.BinaryReconstruct_;
+import morphology.BitMask;
+import morphology.ConnectedComponents;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the pipeline stages on synthetic images of several sizes.
+ *
+ * Every benchmark runs one stage on the outputs of the previous stages,
+ * which are computed once per trial. The stage cache of the analyzer is
+ * disabled, so that every operation computes its stage (including the
+ * background subtraction and the blurs) instead of copying a cached result.
+ * Run them with the GC profiler (which reports the allocation rate and GC
+ * count per operation) using
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec
+ * </pre>
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class StageBenchmark {
+	private static final int CH_BEADS = 1, CH_SPROUTS = 2, CH_NUCLEI = 1, CH_EC = 3, CH_PERICYTES = 4;
+
+	/** Edge length of the square test image (pixels) */
+	@Param({ "1024", "2048", "4096" })
+	public int size;
+
+	private Sprout_Analyzer analyzer;
+	private ImagePlus imp, nuclei, bead_imp, sprout_imp;
+	private BitMask beads, sprouts, skeleton, ssp_mask;
+	private List<?> bead_key;
+	private int[] bead_starts;
+	private BinaryReconstruct_ br;
+
+	@Setup
+	public void setup() {
+		imp = SyntheticPlate.make(size, size, 4, 1).getImage();
+		analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.setParameters(SproutParameters.DEFAULTS);
+		analyzer.setCaching(false);
+		bead_key = analyzer.beadKey(CH_BEADS, false);
+		beads = analyzer.findBeads(imp, CH_BEADS, false);
+		sprouts = analyzer.findSprouts(imp, CH_SPROUTS, beads, bead_key, false);
+		ssp_mask = sprouts.copy().or(beads);
+		bead_starts = Sprout_Analyzer.firstPixels(ConnectedComponents.label(beads.toByteProcessor(), false));
+		skeleton = analyzer.getCleanSkeleton(ssp_mask);
+		nuclei = analyzer.getNucleusMask(imp, sprouts, null, CH_NUCLEI);
+		bead_imp = new ImagePlus("Beads", beads.toByteProcessor());
+		sprout_imp = new ImagePlus("Sprouts", sprouts.toByteProcessor());
+		br = new BinaryReconstruct_();
+	}
+
+	@Benchmark
+	public BitMask findBeads() {
+		return analyzer.findBeads(imp, CH_BEADS, false);
+	}
+
+	@Benchmark
+	public BitMask findSprouts() {
+		return analyzer.findSprouts(imp, CH_SPROUTS, beads, bead_key, false);
+	}
+
+	@Benchmark
+	public BitMask getCleanSkeleton() {
+		return analyzer.getCleanSkeleton(ssp_mask);
+	}
+
+	@Benchmark
+	public boolean analyzeSproutSkeleton() {
+		return analyzer.analyzeSproutSkeleton(skeleton, beads, bead_starts);
+	}
+
+	@Benchmark
+	public ImagePlus getNucleusMask() {
+		return analyzer.getNucleusMask(imp, sprouts, null, CH_NUCLEI);
+	}
+
+	@Benchmark
+	public ImagePlus classifyEC() {
+		return analyzer.classifyEC(imp, nuclei, CH_EC);
+	}
+
+	@Benchmark
+	public BitMask getPericyteArea() {
+		return analyzer.getPericyteArea(imp, sprouts, CH_PERICYTES);
+	}
+
+	/** Reconstruction of the sprouts from the beads, on a copy of the seeds */
+	@Benchmark
+	public Object binaryReconstruct() {
+		return br.exec(sprout_imp, bead_imp, null, true, true, false)[1];
+	}
+}
@@ -0,0 +1,196 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Binary erosion and dilation with circular structuring elements, in time
+ * independent of the radius.
+ *
+ * A pixel is dilated if its Euclidean distance to the nearest foreground pixel
+ * is within the radius (and eroded if its distance to the nearest background
+ * pixel is). The distance is evaluated separably: each column keeps track of
+ * its nearest source pixel above and below the current row, and each source
+ * column then covers an interval of the current row whose half-width follows
+ * from the circle equation. Both steps are linear in the number of pixels.
+ *
+ * The structuring element is the same as the one of RankFilters (including its
+ * rounding of the radius), and pixels outside the image are ignored, which is
+ * equivalent to the edge padding of RankFilters. So for 8-bit binary images,
+ * erode() and dilate() give the same result as RankFilters MIN and MAX.
+ *
+ * Foreground is any non-zero value; the result is 255 (foreground) or 0.
+ *
+ * Packed masks are processed tile by tile, each tile with a halo of the
+ * kernel radius, so that only one tile is unpacked to 8-bit at a time.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class BinaryMorphology {
+
+	private BinaryMorphology() {
+	}
+
+	/**
+	 * Dilate the foreground of a binary 8-bit image with a disk of the given radius (pixels).
+	 *
+	 * @param ip
+	 * @param radius
+	 */
+	public static void dilate(ImageProcessor ip, double radius) {
+		grow((byte[]) ip.getPixels(), ip.getWidth(), ip.getHeight(), radius, true);
+	}
+
+	/**
+	 * Erode the foreground of a binary 8-bit image with a disk of the given radius (pixels).
+	 *
+	 * @param ip
+	 * @param radius
+	 */
+	public static void erode(ImageProcessor ip, double radius) {
+		grow((byte[]) ip.getPixels(), ip.getWidth(), ip.getHeight(), radius, false);
+	}
+
+	/**
+	 * Dilate a packed mask tile by tile with a disk of the given radius (pixels).
+	 *
+	 * @param mask
+	 * @param radius
+	 * @param tileSize
+	 * @return new mask
+	 */
+	public static BitMask dilate(BitMask mask, double radius, int tileSize) {
+		return grow(mask, radius, true, tileSize);
+	}
+
+	/**
+	 * Erode a packed mask tile by tile with a disk of the given radius (pixels).
+	 *
+	 * @param mask
+	 * @param radius
+	 * @param tileSize
+	 * @return new mask
+	 */
+	public static BitMask erode(BitMask mask, double radius, int tileSize) {
+		return grow(mask, radius, false, tileSize);
+	}
+
+	/**
+	 * Half-widths of the rows of the circular kernel, indexed by the vertical
+	 * distance from its center. Same geometry as RankFilters.makeLineRadii().
+	 *
+	 * @param radius
+	 */
+	static int[] kernelHalfWidths(double radius) {
+		if (radius >= 1.5 && radius < 1.75)
+			radius = 1.75;
+		else if (radius >= 2.5 && radius < 2.85)
+			radius = 2.85;
+		int r2 = (int) (radius * radius) + 1;
+		int kRadius = (int) (Math.sqrt(r2 + 1e-10));
+		int[] dx = new int[kRadius + 1];
+		for (int y = 0; y <= kRadius; y++)
+			dx[y] = (int) (Math.sqrt(r2 - y * y + 1e-10));
+		return dx;
+	}
+
+	/**
+	 * Number of pixels the kernel of the given radius reaches beyond its center.
+	 *
+	 * @param radius
+	 */
+	public static int kernelRadius(double radius) {
+		return kernelHalfWidths(radius).length - 1;
+	}
+
+	private static BitMask grow(BitMask mask, double radius, boolean foreground, int tileSize) {
+		int width = mask.getWidth(), height = mask.getHeight();
+		int halo = kernelRadius(radius);
+		BitMask output = new BitMask(width, height);
+		for (int y = 0; y < height; y += tileSize) {
+			for (int x = 0; x < width; x += tileSize) {
+				Rectangle core = new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+				Rectangle region = new Rectangle(core);
+				region.grow(halo, halo);
+				region = region.intersection(new Rectangle(width, height));
+				ByteProcessor ip = mask.getRegion(region);
+				grow((byte[]) ip.getPixels(), region.width, region.height, radius, foreground);
+				output.setRegion(ip, region.x, region.y, core);
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Paint every pixel within the kernel of a source pixel with the source value.
+	 *
+	 * @param pixels binary image, modified in place
+	 * @param width
+	 * @param height
+	 * @param radius
+	 * @param foreground true to grow the foreground (dilation), false to grow the background (erosion)
+	 */
+	private static void grow(byte[] pixels, int width, int height, double radius, boolean foreground) {
+		int[] dx = kernelHalfWidths(radius);
+		int kRadius = dx.length - 1;
+		byte value = foreground ? (byte) 255 : (byte) 0;
+		byte other = foreground ? (byte) 0 : (byte) 255;
+		int[] above = new int[width];	// row of the last source pixel at or above the current row
+		int[] below = new int[width];	// row of the next source pixel at or below the current row
+		int[] cover = new int[width + 1];	// difference array of the covered intervals
+		Arrays.fill(above, Integer.MIN_VALUE / 2);
+		Arrays.fill(below, -1);
+
+		for (int y = 0; y < height; y++) {
+			int offset = y * width;
+			Arrays.fill(cover, 0);
+			for (int x = 0; x < width; x++) {
+				if ((pixels[offset + x] != 0) == foreground)
+					above[x] = y;
+				if (below[x] < y) { // find the next source pixel in this column (each pixel is visited once)
+					int yy = y;
+					while (yy < height && (pixels[yy * width + x] != 0) != foreground)
+						yy++;
+					below[x] = yy;
+				}
+				int d = Math.min(y - above[x], below[x] < height ? below[x] - y : Integer.MAX_VALUE);
+				if (d <= kRadius) {
+					cover[Math.max(0, x - dx[d])]++;
+					cover[Math.min(width, x + dx[d] + 1)]--;
+				}
+			}
+			int n = 0;
+			for (int x = 0; x < width; x++) {
+				n += cover[x];
+				pixels[offset + x] = n > 0 ? value : other; // source pixels always cover themselves
+			}
+		}
+	}
+}
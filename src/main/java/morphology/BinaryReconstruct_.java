@@ -4,6 +4,10 @@ import ij.*;
 import ij.plugin.*;
 import ij.gui.*;
 import ij.process.*; 
+import ij.util.ThreadUtil;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
 
 /** Binary reconstruction, by G.Landini. 22/Oct/2003 for ImageJ
 
@@ -38,6 +42,12 @@ v2.0 22/12/2008 Rewrite following the guidelines at http://pacific.mpi-cbg.de/wi
   It cannot process stacks anymore, but its use was very limited anyway.
 v2.1 4/5/2009 4-connected option
 v2.2 25/5/2009  almost 1.5x speedup by using 1D arrays
+v2.3 queue-based reconstruction on caller-provided buffers (no per-call allocation, no 127 marking
+  and cleaning passes). Stacks are supported again: a stack of seeds can be reconstructed in a single
+  mask or in a mask stack of the same size, optionally processing the slices in parallel.
+v2.4 parallel reconstruction of large single images: the mask is labelled in horizontal tiles, the tiles
+  are merged across their seams with a concurrent union-find and every component containing a seed pixel
+  is kept. The result is identical to the serial reconstruction, for both connectivities.
 
   To call this plugin from another without having to display the images use for example:
 
@@ -49,8 +59,20 @@ v2.2 25/5/2009  almost 1.5x speedup by using 1D arrays
       ImagePlus recons = (ImagePlus) result[1];
     }
 
+  or, to reconstruct in place in the seed pixels, reusing the same queue buffer for every call:
+
+    int[] queue = new int[width * height];
+    BinaryReconstruct_.reconstruct(maskPixels, seedPixels, width, height, true, false, queue);
+
 */
 public class BinaryReconstruct_ implements PlugIn {
+	private int[][] queues = new int[0][]; // work buffers of exec(), reused between calls
+	private AtomicIntegerArray parents = new AtomicIntegerArray(0);
+	/** Single images of at least this many pixels are reconstructed in parallel by exec() */
+	private static final int PARALLEL_MIN_PIXELS = 1 << 21;
+
+	private static final int BACKGROUND = -1, SEEDED = -2; // parent values that are not pixel indices
+
         /** Ask for parameters and then execute.*/
         public void run(String arg) {
 		
@@ -72,7 +94,7 @@ public class BinaryReconstruct_ implements PlugIn {
                 // 2 - Ask for parameters:
 		boolean createWindow = true, whiteParticles =Prefs.blackBackground, connect4=false;
 		GenericDialog gd = new GenericDialog("Binary Reconstruction");
-		gd.addMessage("Binary Reconstruction v 2.2");
+		gd.addMessage("Binary Reconstruction v 2.3");
 		gd.addChoice("mask :", titles, titles[0]);
 		gd.addChoice("seed :", titles, titles[1]);
 		gd.addCheckbox("Create New Window", createWindow);
@@ -90,8 +112,8 @@ public class BinaryReconstruct_ implements PlugIn {
 		ImagePlus imp1 = WindowManager.getImage(wList[i1Index]);
 		ImagePlus imp2 = WindowManager.getImage(wList[i2Index]);
 
-		if (imp1.getStackSize()>1 || imp2.getStackSize()>1) {
-			IJ.showMessage("Error", "Stacks not supported");
+		if (imp1.getStackSize()>1 && imp1.getStackSize()!=imp2.getStackSize()) {
+			IJ.showMessage("Error", "The mask must be a single image or have as many slices as the seed");
 			return;
 		}
 		if (imp1.getBitDepth()!=8 || imp2.getBitDepth()!=8) {
@@ -103,12 +125,12 @@ public class BinaryReconstruct_ implements PlugIn {
 
 		// Check images are binary. You must check this before calling the exec method.
 		// 
-		stats = imp1.getStatistics();
+		stats = new StackStatistics(imp1);
 		if (stats.histogram[0] + stats.histogram[255] != stats.pixelCount){
 			IJ.error("8-bit binary mask image (0 and 255) required.");
 			return;
 		}
-		stats = imp2.getStatistics();
+		stats = new StackStatistics(imp2);
 			if (stats.histogram[0] + stats.histogram[255] != stats.pixelCount){
 			IJ.error("8-bit binary seed image (0 and 255) required.");
 			return;
@@ -129,7 +151,7 @@ public class BinaryReconstruct_ implements PlugIn {
 			if(createWindow)
 				resultImage.show();
 			else
-				imp2.getProcessor().insert(resultImage.getProcessor(),0,0);
+				imp2.updateAndDraw();
 		}
 	}
  
@@ -148,82 +170,214 @@ public class BinaryReconstruct_ implements PlugIn {
 		int width  = imp1.getWidth();
 		int height = imp1.getHeight();
 		int size = width * height;
-		ImageProcessor ip1, ip3;
 		ImagePlus imp3;
 
-		int x, y, offset, pointer;
-		int foreground = 255, background = 0;
-		byte bf =  (byte) 0xff, bb = (byte) 0, b127= (byte) (127 & 0xff);
-
 		IJ.showStatus("Binary Reconstruction...");
 
-		ip1 = imp1.getProcessor();
-
 		// 1 - Perform the magic
-		if(createWindow){
-			imp3 = new ImagePlus(new_name,imp2.getProcessor().duplicate());
-			ip3 = imp3.getProcessor();
-		}
-		else {
+		if(createWindow)
+			imp3 = new ImagePlus(new_name,imp2.getStack().duplicate());
+		else
 			imp3 = imp2;
-			ip3 = imp2.getProcessor();
+
+		if (imp3.getStackSize()==1 && size>=PARALLEL_MIN_PIXELS && Prefs.getThreads()>1) {
+			if (parents.length()<size)
+				parents = new AtomicIntegerArray(size);
+			byte[] seed = (byte[]) imp3.getProcessor().getPixels();
+			reconstruct((byte[]) imp1.getProcessor().getPixels(), seed, width, height, whiteParticles, connect4, parents, Prefs.getThreads());
+			imp3.updateAndDraw();
+			return new Object[]{new_name, imp3};
 		}
 
-		if (!whiteParticles) { 
-			foreground = 0;
-			background = 255;
-			bf= (byte) 0;
-			bb=(byte) 0xff;
+		int nThreads = imp3.getStackSize()>1 ? Math.min(imp3.getStackSize(), Prefs.getThreads()) : 1;
+		if (queues.length<nThreads || queues[0].length<size) {
+			queues = new int[nThreads][];
+			for (int t=0; t<nThreads; t++)
+				queues[t] = new int[size];
 		}
+		reconstruct(imp1.getStack(), imp3.getStack(), whiteParticles, connect4, queues);
+
+		imp3.updateAndDraw();
 
-		byte[] pixel =(byte []) ip1.getPixels();
-		byte[] seed = new byte[size];
-		byte[] res = (byte[]) ip3.getPixels();
+		// 2 - Return the new name and the image
+		return new Object[]{new_name, imp3};
+        }
 
-		for(y=0;y<size;y++) {
-			seed[y] = res[y] ;
-			if ((int) (pixel[y] & 0xff) == foreground)
-				res [y] =b127 ; //put mask as 127
+	/** Reconstruct a binary image in place, from the seed pixels within the mask pixels.
+	* Every mask particle that contains at least one seed pixel is copied to the seed array,
+	* everything else is set to background. Seed pixels outside of the mask are removed.
+	* The particles are grown from the seed pixels with a queue, so every pixel is visited once.
+	* @param mask mask pixels, not modified
+	* @param seed seed pixels, replaced by the reconstruction
+	* @param queue work buffer of at least width*height elements; it can be reused between calls
+	* Both images must be binary (0 and 255), this is not checked. */
+	public static void reconstruct(byte[] mask, byte[] seed, int width, int height, boolean whiteParticles, boolean connect4, int[] queue) {
+		int size = width * height;
+		byte bf = whiteParticles ? (byte) 0xff : (byte) 0;
+		byte bb = whiteParticles ? (byte) 0 : (byte) 0xff;
+		int head = 0, tail = 0;
+
+		// seed pixels within the mask start the reconstruction
+		for (int i=0; i<size; i++) {
+			if (seed[i]==bf && mask[i]==bf)
+				queue[tail++] = i;
 			else
-				res [y] = bb; //put background
+				seed[i] = bb;
+		}
+
+		// each mask pixel enters the queue at most once, when it is first reached
+		while (head<tail) {
+			int i = queue[head++];
+			int x = i % width;
+			int y = i / width;
+			boolean left = x>0, right = x<width-1, up = y>0, down = y<height-1;
+			if (left && seed[i-1]!=bf && mask[i-1]==bf) { seed[i-1] = bf; queue[tail++] = i-1; }
+			if (right && seed[i+1]!=bf && mask[i+1]==bf) { seed[i+1] = bf; queue[tail++] = i+1; }
+			if (up && seed[i-width]!=bf && mask[i-width]==bf) { seed[i-width] = bf; queue[tail++] = i-width; }
+			if (down && seed[i+width]!=bf && mask[i+width]==bf) { seed[i+width] = bf; queue[tail++] = i+width; }
+			if (!connect4) {
+				if (up && left && seed[i-width-1]!=bf && mask[i-width-1]==bf) { seed[i-width-1] = bf; queue[tail++] = i-width-1; }
+				if (up && right && seed[i-width+1]!=bf && mask[i-width+1]==bf) { seed[i-width+1] = bf; queue[tail++] = i-width+1; }
+				if (down && left && seed[i+width-1]!=bf && mask[i+width-1]==bf) { seed[i+width-1] = bf; queue[tail++] = i+width-1; }
+				if (down && right && seed[i+width+1]!=bf && mask[i+width+1]==bf) { seed[i+width+1] = bf; queue[tail++] = i+width+1; }
+			}
 		}
+	}
 
-		FloodFiller ff = new FloodFiller(ip3);
-		ip3.setColor(foreground);
-
-		if (connect4){
-			for(y=0; y<height; y++) {
-				offset=y*width;
-				for(x=0; x<width; x++){
-					pointer = offset + x;
-					if ((int) (seed[pointer] & 0xff) == foreground) {
-						if ((int) (res[pointer] & 0xff) == 127)
-							ff.fill(x, y);
+	/** Reconstruct every slice of a seed stack in place, in a single mask or in the corresponding
+	* slice of a mask stack of the same size. One thread is used per queue buffer, so passing
+	* several buffers processes the slices in parallel.
+	* @param queues work buffers of at least width*height elements each, one per thread */
+	public static void reconstruct(final ImageStack mask, final ImageStack seed, final boolean whiteParticles, final boolean connect4, final int[][] queues) {
+		final int width = seed.getWidth();
+		final int height = seed.getHeight();
+		final int nSlices = seed.getSize();
+		final int nThreads = Math.min(queues.length, nSlices);
+		final AtomicInteger nextSlice = new AtomicInteger(1);
+		Thread[] threads = new Thread[nThreads];
+		for (int t=0; t<nThreads; t++) {
+			final int[] queue = queues[t];
+			threads[t] = new Thread("BinaryReconstruct-"+t) {
+				public void run() {
+					for (int n=nextSlice.getAndIncrement(); n<=nSlices; n=nextSlice.getAndIncrement()) {
+						byte[] maskPixels = (byte[]) mask.getPixels(mask.getSize()==1 ? 1 : n);
+						reconstruct(maskPixels, (byte[]) seed.getPixels(n), width, height, whiteParticles, connect4, queue);
 					}
 				}
-			}
+			};
 		}
-		else { //8
-			for(y=0; y<height; y++) {
-				offset=y*width;
-				for(x=0; x<width; x++){
-					pointer = offset + x;
-					if ((int) (seed[pointer] & 0xff) == foreground) {
-						if ((int) (res[pointer] & 0xff) == 127)
-							ff.fill8(x, y);
+		if (nThreads==1)
+			threads[0].run();
+		else
+			ThreadUtil.startAndJoin(threads);
+	}
+
+	/** Reconstruct a binary image in place on several threads. Same result as the serial
+	* reconstruct(), for large images.
+	* The image is cut into horizontal tiles, one per thread. Each tile is labelled independently
+	* with a union-find forest stored in the parents array (the parent of a pixel is a pixel index),
+	* then the tiles are joined across their seams, concurrently, with lock-free unions.
+	* Finally the roots of all components that contain a seed pixel are marked, and only their
+	* pixels are kept.
+	* @param parents work buffer of at least width*height elements; it can be reused between calls */
+	public static void reconstruct(final byte[] mask, final byte[] seed, final int width, final int height, final boolean whiteParticles, final boolean connect4, final AtomicIntegerArray parents, int nThreads) {
+		final byte bf = whiteParticles ? (byte) 0xff : (byte) 0;
+		final byte bb = whiteParticles ? (byte) 0 : (byte) 0xff;
+		final int nTiles = Math.max(1, Math.min(nThreads, height));
+		final int[] tileStart = new int[nTiles+1];
+		for (int t=0; t<=nTiles; t++)
+			tileStart[t] = (int) ((long) height * t / nTiles);
+
+		// 1 - label each tile, linking every pixel to its already visited neighbours
+		runTiles(nTiles, t -> {
+			for (int y=tileStart[t]; y<tileStart[t+1]; y++) {
+				for (int x=0, i=y*width; x<width; x++, i++) {
+					if (mask[i]!=bf) {
+						parents.lazySet(i, BACKGROUND);
+						continue;
+					}
+					parents.lazySet(i, i);
+					boolean up = y>tileStart[t];
+					if (x>0 && mask[i-1]==bf) union(parents, i, i-1);
+					if (up && mask[i-width]==bf) union(parents, i, i-width);
+					if (!connect4 && up) {
+						if (x>0 && mask[i-width-1]==bf) union(parents, i, i-width-1);
+						if (x<width-1 && mask[i-width+1]==bf) union(parents, i, i-width+1);
 					}
 				}
 			}
+		});
+
+		// 2 - join the tiles across the seams; components may span several seams, hence the concurrent unions
+		runTiles(nTiles-1, s -> {
+			int y = tileStart[s+1];
+			for (int x=0, i=y*width; x<width; x++, i++) {
+				if (mask[i]!=bf) continue;
+				if (mask[i-width]==bf) union(parents, i, i-width);
+				if (!connect4) {
+					if (x>0 && mask[i-width-1]==bf) union(parents, i, i-width-1);
+					if (x<width-1 && mask[i-width+1]==bf) union(parents, i, i-width+1);
+				}
+			}
+		});
+
+		// 3 - mark the components that contain a seed pixel
+		runTiles(nTiles, t -> {
+			for (int i=tileStart[t]*width; i<tileStart[t+1]*width; i++) {
+				if (seed[i]==bf && mask[i]==bf)
+					parents.set(find(parents, i), SEEDED);
+			}
+		});
+
+		// 4 - keep the marked components
+		runTiles(nTiles, t -> {
+			for (int i=tileStart[t]*width; i<tileStart[t+1]*width; i++) {
+				if (mask[i]==bf && parents.get(find(parents, i))==SEEDED)
+					seed[i] = bf;
+				else
+					seed[i] = bb;
+			}
+		});
+	}
+
+	/** Root of the tree of pixel i, halving the path on the way */
+	private static int find(AtomicIntegerArray parents, int i) {
+		while (true) {
+			int p = parents.get(i);
+			if (p==i || p<0) return i;
+			int gp = parents.get(p);
+			if (gp==p || gp<0) return p;
+			parents.compareAndSet(i, p, gp); // only ever points a pixel further up its own tree
+			i = gp;
 		}
-		// clean not seeded mask
-		for(y=0; y<size; y++) {
-			if ((int) (res[y] & 0xff) == 127)
-				res[y]= bb; //erase mask
-		}
+	}
 
-		imp3.updateAndDraw();
+	/** Merge the trees of pixels a and b; the root with the larger index is linked to the other one */
+	private static void union(AtomicIntegerArray parents, int a, int b) {
+		while (true) {
+			a = find(parents, a);
+			b = find(parents, b);
+			if (a==b) return;
+			if (a<b) { int tmp = a; a = b; b = tmp; }
+			if (parents.compareAndSet(a, a, b)) return; // fails if a stopped being a root meanwhile
+		}
+	}
 
-		// 2 - Return the new name and the image
-		return new Object[]{new_name, imp3};
-        }
+	/** Run a task for each tile index on its own thread and wait for all of them */
+	private static void runTiles(int nTiles, final IntConsumer task) {
+		if (nTiles<=0) return;
+		Thread[] threads = new Thread[nTiles];
+		for (int t=0; t<nTiles; t++) {
+			final int tile = t;
+			threads[t] = new Thread("BinaryReconstruct-"+t) {
+				public void run() {
+					task.accept(tile);
+				}
+			};
+		}
+		if (nTiles==1)
+			threads[0].run();
+		else
+			ThreadUtil.startAndJoin(threads);
+	}
 }
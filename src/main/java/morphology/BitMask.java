@@ -0,0 +1,232 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+
+/**
+ * Binary mask packed into 64 pixels per long.
+ *
+ * Every row starts at a new word, so that rows can be shifted independently;
+ * the unused bits at the end of each row are always zero. Pixel x of a row is
+ * bit (x % 64) of word (x / 64) of that row.
+ *
+ * The boolean operations work in place, word by word, and return this mask so
+ * that they can be chained. Conversion from and to 8-bit images is meant for
+ * the edges of the pipeline, where ImageJ functions need a ByteProcessor.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class BitMask {
+
+	private final int width, height, wordsPerRow;
+	private final long[] words;
+
+	/**
+	 * Create an empty mask.
+	 *
+	 * @param width
+	 * @param height
+	 */
+	public BitMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.words = new long[wordsPerRow * height];
+	}
+
+	/**
+	 * Pack the non-zero pixels of an 8-bit image.
+	 *
+	 * @param ip
+	 */
+	public static BitMask of(ImageProcessor ip) {
+		BitMask mask = new BitMask(ip.getWidth(), ip.getHeight());
+		byte[] pixels = (byte[]) ip.getPixels();
+		for (int y = 0; y < mask.height; y++) {
+			int offset = y * mask.width;
+			int row = y * mask.wordsPerRow;
+			for (int x = 0; x < mask.width; x++) {
+				if (pixels[offset + x] != 0)
+					mask.words[row + (x >>> 6)] |= 1L << x;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Unpack into a new 8-bit image (255 for set pixels, 0 otherwise).
+	 */
+	public ByteProcessor toByteProcessor() {
+		ByteProcessor ip = new ByteProcessor(width, height);
+		writeTo(ip);
+		return ip;
+	}
+
+	/**
+	 * Unpack into an existing 8-bit image of the same size (255 for set pixels, 0 otherwise).
+	 *
+	 * @param ip
+	 */
+	public void writeTo(ImageProcessor ip) {
+		byte[] pixels = (byte[]) ip.getPixels();
+		for (int y = 0; y < height; y++) {
+			int offset = y * width;
+			int row = y * wordsPerRow;
+			for (int x = 0; x < width; x++)
+				pixels[offset + x] = (words[row + (x >>> 6)] & (1L << x)) != 0 ? (byte) 255 : 0;
+		}
+	}
+
+	/**
+	 * Clear the pixels of an 8-bit image of the same size that are not set in
+	 * this mask (like a binary AND of the image with the mask).
+	 *
+	 * @param ip
+	 */
+	public void clearOutside(ImageProcessor ip) {
+		byte[] pixels = (byte[]) ip.getPixels();
+		for (int y = 0; y < height; y++) {
+			int offset = y * width;
+			int row = y * wordsPerRow;
+			for (int x = 0; x < width; x++)
+				if ((words[row + (x >>> 6)] & (1L << x)) == 0)
+					pixels[offset + x] = 0;
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean get(int x, int y) {
+		return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	public void set(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+	}
+
+	public void clear(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+	}
+
+	/**
+	 * Unpack a rectangle of the mask into a new 8-bit image (255 for set pixels, 0 otherwise).
+	 *
+	 * @param r rectangle within the mask
+	 */
+	public ByteProcessor getRegion(Rectangle r) {
+		ByteProcessor ip = new ByteProcessor(r.width, r.height);
+		byte[] pixels = (byte[]) ip.getPixels();
+		for (int y = 0; y < r.height; y++) {
+			int row = (r.y + y) * wordsPerRow;
+			for (int x = 0, i = y * r.width; x < r.width; x++, i++) {
+				int xx = r.x + x;
+				if ((words[row + (xx >>> 6)] & (1L << xx)) != 0)
+					pixels[i] = (byte) 255;
+			}
+		}
+		return ip;
+	}
+
+	/**
+	 * Pack a rectangle of an 8-bit image into this mask (non-zero pixels are set, the others cleared).
+	 *
+	 * @param ip 8-bit image, whose top left corner is at (xOffset, yOffset) in the mask
+	 * @param xOffset
+	 * @param yOffset
+	 * @param r rectangle of the mask to be written, in mask coordinates
+	 */
+	public void setRegion(ImageProcessor ip, int xOffset, int yOffset, Rectangle r) {
+		byte[] pixels = (byte[]) ip.getPixels();
+		int ipWidth = ip.getWidth();
+		for (int y = r.y; y < r.y + r.height; y++) {
+			int row = y * wordsPerRow;
+			int offset = (y - yOffset) * ipWidth - xOffset;
+			for (int x = r.x; x < r.x + r.width; x++) {
+				if (pixels[offset + x] != 0)
+					words[row + (x >>> 6)] |= 1L << x;
+				else
+					words[row + (x >>> 6)] &= ~(1L << x);
+			}
+		}
+	}
+
+	/**
+	 * Independent copy of this mask.
+	 */
+	public BitMask copy() {
+		BitMask copy = new BitMask(width, height);
+		System.arraycopy(words, 0, copy.words, 0, words.length);
+		return copy;
+	}
+
+	public BitMask and(BitMask other) {
+		for (int i = 0; i < words.length; i++)
+			words[i] &= other.words[i];
+		return this;
+	}
+
+	public BitMask or(BitMask other) {
+		for (int i = 0; i < words.length; i++)
+			words[i] |= other.words[i];
+		return this;
+	}
+
+	public BitMask xor(BitMask other) {
+		for (int i = 0; i < words.length; i++)
+			words[i] ^= other.words[i];
+		return this;
+	}
+
+	/**
+	 * Clear the pixels that are set in another mask (like a binary Subtract).
+	 *
+	 * @param other
+	 */
+	public BitMask andNot(BitMask other) {
+		for (int i = 0; i < words.length; i++)
+			words[i] &= ~other.words[i];
+		return this;
+	}
+
+	/**
+	 * Number of set pixels.
+	 */
+	public long cardinality() {
+		long n = 0;
+		for (long word : words)
+			n += Long.bitCount(word);
+		return n;
+	}
+}
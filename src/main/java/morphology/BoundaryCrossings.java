@@ -0,0 +1,200 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import java.util.Arrays;
+
+/**
+ * Counts the crossings of lines (e.g. a skeleton) with the one-pixel frame
+ * around objects (e.g. beads), object by object.
+ *
+ * The frame of the objects are the background pixels that have an object
+ * pixel among their 8 neighbors, and a crossing is an 8-connected group of
+ * line pixels on the frame. Instead of building the frame for the whole
+ * image, the boundary of each object is followed from its first pixel, and
+ * the crossings found next to it are flood-filled along the frame. The cost
+ * is proportional to the perimeter of the objects, not to the image area.
+ *
+ * Every crossing is counted once in total, for the first object it is found
+ * next to, which also records the line pixel it was found at, so that the
+ * lines can be assigned to the objects they are counted for. Frames of holes
+ * inside an object are not followed.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class BoundaryCrossings {
+
+	private final BitMask objects, lines, seen;
+	private final int width, height;
+	private final int[][] crossings;
+	private int[] stack = new int[256];
+
+	private BoundaryCrossings(BitMask objects, BitMask lines, int nObjects) {
+		this.objects = objects;
+		this.lines = lines;
+		this.width = objects.getWidth();
+		this.height = objects.getHeight();
+		this.seen = new BitMask(width, height);
+		this.crossings = new int[nObjects][];
+	}
+
+	/**
+	 * Count the crossings of the lines with the frame of each object.
+	 *
+	 * @param objects object mask
+	 * @param starts first pixel (y*width+x, in raster order) of each 8-connected object
+	 * @param lines line mask
+	 */
+	public static BoundaryCrossings count(BitMask objects, int[] starts, BitMask lines) {
+		BoundaryCrossings crossings = new BoundaryCrossings(objects, lines, starts.length);
+		for (int o = 0; o < starts.length; o++)
+			crossings.crossings[o] = crossings.followBoundary(starts[o]);
+		return crossings;
+	}
+
+	/**
+	 * Total number of crossings.
+	 */
+	public int getCount() {
+		int total = 0;
+		for (int[] pixels : crossings)
+			total += pixels.length;
+		return total;
+	}
+
+	/**
+	 * Number of crossings of one object.
+	 *
+	 * @param object index of the object in the starts array
+	 */
+	public int getCount(int object) {
+		return crossings[object].length;
+	}
+
+	/**
+	 * First line pixel (y*width+x) found of each crossing of one object.
+	 *
+	 * @param object index of the object in the starts array
+	 */
+	public int[] getCrossings(int object) {
+		return crossings[object].clone();
+	}
+
+	/**
+	 * Visit the boundary pixels connected to a start pixel and find the new crossings next to them.
+	 *
+	 * @return first line pixel of each crossing
+	 */
+	private int[] followBoundary(int start) {
+		int sx = start % width, sy = start / width;
+		if (seen.get(sx, sy))
+			return new int[0];
+		int[] found = new int[4];
+		int count = 0;
+		int top = 0;
+		seen.set(sx, sy);
+		stack = push(stack, top++, start);
+		while (top > 0) {
+			int p = stack[--top];
+			int x = p % width, y = p / width;
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					int xx = x + dx, yy = y + dy;
+					if (xx < 0 || xx >= width || yy < 0 || yy >= height || seen.get(xx, yy))
+						continue;
+					if (objects.get(xx, yy)) {
+						if (isBoundary(xx, yy)) {
+							seen.set(xx, yy);
+							stack = push(stack, top++, yy * width + xx);
+						}
+					} else if (lines.get(xx, yy)) {
+						fillCrossing(xx, yy);
+						found = push(found, count++, yy * width + xx);
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * Mark the line pixels of the frame that are 8-connected to a crossing pixel.
+	 */
+	private void fillCrossing(int x0, int y0) {
+		int[] pixels = new int[16];
+		int top = 0;
+		seen.set(x0, y0);
+		pixels = push(pixels, top++, y0 * width + x0);
+		while (top > 0) {
+			int p = pixels[--top];
+			int x = p % width, y = p / width;
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					int xx = x + dx, yy = y + dy;
+					if (xx < 0 || xx >= width || yy < 0 || yy >= height || seen.get(xx, yy))
+						continue;
+					if (!objects.get(xx, yy) && lines.get(xx, yy) && isFrame(xx, yy)) {
+						seen.set(xx, yy);
+						pixels = push(pixels, top++, yy * width + xx);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether an object pixel has a background (or outside) pixel among its 8 neighbors.
+	 */
+	private boolean isBoundary(int x, int y) {
+		for (int dy = -1; dy <= 1; dy++)
+			for (int dx = -1; dx <= 1; dx++) {
+				int xx = x + dx, yy = y + dy;
+				if (xx < 0 || xx >= width || yy < 0 || yy >= height || !objects.get(xx, yy))
+					return true;
+			}
+		return false;
+	}
+
+	/**
+	 * Whether a background pixel has an object pixel among its 8 neighbors.
+	 */
+	private boolean isFrame(int x, int y) {
+		for (int dy = -1; dy <= 1; dy++)
+			for (int dx = -1; dx <= 1; dx++) {
+				int xx = x + dx, yy = y + dy;
+				if (xx >= 0 && xx < width && yy >= 0 && yy < height && objects.get(xx, yy))
+					return true;
+			}
+		return false;
+	}
+
+	private static int[] push(int[] stack, int top, int value) {
+		if (top == stack.length)
+			stack = Arrays.copyOf(stack, 2 * top);
+		stack[top] = value;
+		return stack;
+	}
+}
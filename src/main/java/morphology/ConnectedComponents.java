@@ -0,0 +1,267 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Connected component labeling of binary 8-bit images.
+ *
+ * The image is scanned once in raster order, assigning provisional labels
+ * that are merged with a union-find forest, while the area, bounding box and
+ * first pixel of each provisional label are accumulated. The provisional
+ * statistics are then merged per component, and a second pass writes the
+ * final labels. Components are numbered 1..n in the raster order of their
+ * first pixel, which is the order in which the ParticleAnalyzer finds them.
+ *
+ * Foreground is any non-zero value; the label of background pixels is 0.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class ConnectedComponents {
+
+	private final int width, height, count;
+	private final int[] labels;
+	/* Statistics, indexed by label (index 0 is unused) */
+	private final int[] area, xMin, yMin, xMax, yMax, first;
+
+	private ConnectedComponents(int width, int height, int[] labels, int count, int[] area, int[] xMin, int[] yMin, int[] xMax, int[] yMax, int[] first) {
+		this.width = width;
+		this.height = height;
+		this.labels = labels;
+		this.count = count;
+		this.area = area;
+		this.xMin = xMin;
+		this.yMin = yMin;
+		this.xMax = xMax;
+		this.yMax = yMax;
+		this.first = first;
+	}
+
+	/**
+	 * Label the non-zero pixels of an 8-bit image.
+	 *
+	 * @param ip
+	 * @param connect4 true for 4-connected, false for 8-connected components
+	 */
+	public static ConnectedComponents label(ImageProcessor ip, boolean connect4) {
+		return label((byte[]) ip.getPixels(), ip.getWidth(), ip.getHeight(), connect4, null);
+	}
+
+	/**
+	 * Label the non-zero pixels of a binary image.
+	 *
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param connect4 true for 4-connected, false for 8-connected components
+	 * @param labels buffer for the label image (width*height elements), or null to allocate one
+	 */
+	public static ConnectedComponents label(byte[] pixels, int width, int height, boolean connect4, int[] labels) {
+		int size = width * height;
+		if (labels == null || labels.length < size)
+			labels = new int[size];
+		int capacity = 256;
+		int[] parent = new int[capacity];
+		int[] area = new int[capacity], xMin = new int[capacity], yMin = new int[capacity];
+		int[] xMax = new int[capacity], yMax = new int[capacity], first = new int[capacity];
+		int n = 0; // number of provisional labels
+
+		/* 1 - provisional labels and their statistics */
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				if (pixels[i] == 0) {
+					labels[i] = 0;
+					continue;
+				}
+				int label = 0;
+				if (x > 0 && labels[i - 1] != 0)
+					label = labels[i - 1];
+				if (y > 0) {
+					label = join(parent, label, labels[i - width]);
+					if (!connect4) {
+						if (x > 0)
+							label = join(parent, label, labels[i - width - 1]);
+						if (x < width - 1)
+							label = join(parent, label, labels[i - width + 1]);
+					}
+				}
+				if (label == 0) {
+					if (++n == capacity) {
+						capacity *= 2;
+						parent = Arrays.copyOf(parent, capacity);
+						area = Arrays.copyOf(area, capacity);
+						xMin = Arrays.copyOf(xMin, capacity);
+						yMin = Arrays.copyOf(yMin, capacity);
+						xMax = Arrays.copyOf(xMax, capacity);
+						yMax = Arrays.copyOf(yMax, capacity);
+						first = Arrays.copyOf(first, capacity);
+					}
+					label = n;
+					parent[label] = label;
+					xMin[label] = xMax[label] = x;
+					yMin[label] = yMax[label] = y;
+					first[label] = i;
+				}
+				labels[i] = label;
+				area[label]++;
+				if (x < xMin[label]) xMin[label] = x;
+				if (x > xMax[label]) xMax[label] = x;
+				yMax[label] = y;
+			}
+		}
+
+		/* 2 - merge the statistics of each component into its root, which is its first provisional label */
+		int[] compact = new int[n + 1];
+		int count = 0;
+		for (int p = 1; p <= n; p++) {
+			int root = find(parent, p);
+			if (root == p) {
+				compact[p] = ++count;
+				continue;
+			}
+			compact[p] = compact[root];
+			area[root] += area[p];
+			xMin[root] = Math.min(xMin[root], xMin[p]);
+			xMax[root] = Math.max(xMax[root], xMax[p]);
+			yMax[root] = Math.max(yMax[root], yMax[p]);
+		}
+		int[] cArea = new int[count + 1], cxMin = new int[count + 1], cyMin = new int[count + 1];
+		int[] cxMax = new int[count + 1], cyMax = new int[count + 1], cFirst = new int[count + 1];
+		for (int p = 1; p <= n; p++) {
+			if (parent[p] != p)
+				continue;
+			int c = compact[p];
+			cArea[c] = area[p];
+			cxMin[c] = xMin[p];
+			cyMin[c] = yMin[p];
+			cxMax[c] = xMax[p];
+			cyMax[c] = yMax[p];
+			cFirst[c] = first[p];
+		}
+
+		/* 3 - final labels */
+		for (int i = 0; i < size; i++) {
+			if (labels[i] != 0)
+				labels[i] = compact[labels[i]];
+		}
+		return new ConnectedComponents(width, height, labels, count, cArea, cxMin, cyMin, cxMax, cyMax, cFirst);
+	}
+
+	/**
+	 * Union of two provisional labels (0 meaning none); returns the root of the union.
+	 * The root is always the smallest label, i.e. the first one created.
+	 */
+	private static int join(int[] parent, int a, int b) {
+		if (b == 0)
+			return a;
+		b = find(parent, b);
+		if (a == 0)
+			return b;
+		a = find(parent, a);
+		if (a < b) {
+			parent[b] = a;
+			return a;
+		}
+		parent[a] = b;
+		return b;
+	}
+
+	private static int find(int[] parent, int a) {
+		while (parent[a] != a) {
+			parent[a] = parent[parent[a]];
+			a = parent[a];
+		}
+		return a;
+	}
+
+	/**
+	 * Number of components.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Label image: 0 for background, 1..getCount() for the components.
+	 */
+	public int[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Number of pixels of a component.
+	 *
+	 * @param label
+	 */
+	public int getArea(int label) {
+		return area[label];
+	}
+
+	/**
+	 * Bounding box of a component, as {x, y, width, height}.
+	 *
+	 * @param label
+	 */
+	public int[] getBounds(int label) {
+		return new int[] { xMin[label], yMin[label], xMax[label] - xMin[label] + 1, yMax[label] - yMin[label] + 1 };
+	}
+
+	/**
+	 * Index (y*width+x) of the first pixel of a component in raster order.
+	 *
+	 * @param label
+	 */
+	public int getFirstPixel(int label) {
+		return first[label];
+	}
+
+	/**
+	 * Whether a component touches the border of the image.
+	 *
+	 * @param label
+	 */
+	public boolean touchesEdge(int label) {
+		return xMin[label] == 0 || yMin[label] == 0 || xMax[label] == width - 1 || yMax[label] == height - 1;
+	}
+
+	/**
+	 * Write a binary image (255/0) of the components accepted by a filter.
+	 *
+	 * @param pixels output pixels, of the same size as the labeled image
+	 * @param keep filter on the labels
+	 */
+	public void retain(byte[] pixels, IntPredicate keep) {
+		boolean[] kept = new boolean[count + 1];
+		for (int label = 1; label <= count; label++)
+			kept[label] = keep.test(label);
+		int size = width * height;
+		for (int i = 0; i < size; i++)
+			pixels[i] = kept[labels[i]] ? (byte) 255 : 0;
+	}
+}
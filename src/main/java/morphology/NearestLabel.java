@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import java.util.Arrays;
+
+/**
+ * Assigns every pixel to the nearest labeled pixel (Euclidean distance), i.e.
+ * computes the Voronoi partition of the image by the labeled objects.
+ *
+ * This is the feature transform variant of the separable exact distance
+ * transform of Felzenszwalb and Huttenlocher: a pass along each column finds
+ * the nearest labeled pixel of the column, and a pass along each row takes the
+ * lower envelope of the parabolas of these column distances. Both passes are
+ * linear in the number of pixels.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class NearestLabel {
+
+	private NearestLabel() {
+	}
+
+	/**
+	 * Label of the nearest labeled pixel, for every pixel (labeled pixels keep their own label).
+	 * Ties are broken arbitrarily; the result is all 0 if no pixel is labeled.
+	 *
+	 * @param labels label image, 0 for unlabeled pixels
+	 * @param width
+	 * @param height
+	 */
+	public static int[] assign(int[] labels, int width, int height) {
+		int size = width * height;
+		int[] source = new int[size]; // nearest labeled pixel in the same column, or -1
+		double[] dist = new double[size]; // squared distance to it
+
+		/* 1 - columns */
+		for (int x = 0; x < width; x++) {
+			int last = -1;
+			for (int y = 0, i = x; y < height; y++, i += width) {
+				if (labels[i] != 0)
+					last = y;
+				source[i] = last < 0 ? -1 : last * width + x;
+			}
+			last = -1;
+			for (int y = height - 1, i = y * width + x; y >= 0; y--, i -= width) {
+				if (labels[i] != 0)
+					last = y;
+				if (last >= 0 && (source[i] < 0 || last - y < y - source[i] / width))
+					source[i] = last * width + x;
+				int dy = source[i] < 0 ? 0 : source[i] / width - y;
+				dist[i] = source[i] < 0 ? Double.POSITIVE_INFINITY : (double) dy * dy;
+			}
+		}
+
+		/* 2 - rows: lower envelope of the parabolas (x - q)^2 + dist[q] */
+		int[] nearest = new int[size];
+		int[] v = new int[width];
+		double[] z = new double[width + 1];
+		for (int y = 0; y < height; y++) {
+			int row = y * width;
+			int k = -1;
+			for (int q = 0; q < width; q++) {
+				double f = dist[row + q];
+				if (f == Double.POSITIVE_INFINITY)
+					continue;
+				double s = Double.NEGATIVE_INFINITY;
+				while (k >= 0) {
+					int p = v[k];
+					s = ((f + (double) q * q) - (dist[row + p] + (double) p * p)) / (2.0 * (q - p));
+					if (s > z[k])
+						break;
+					k--;
+				}
+				if (k < 0)
+					s = Double.NEGATIVE_INFINITY;
+				v[++k] = q;
+				z[k] = s;
+				z[k + 1] = Double.POSITIVE_INFINITY;
+			}
+			if (k < 0) {
+				Arrays.fill(nearest, row, row + width, 0);
+				continue;
+			}
+			for (int x = 0, j = 0; x < width; x++) {
+				while (z[j + 1] < x)
+					j++;
+				nearest[row + x] = labels[source[row + v[j]]];
+			}
+		}
+		return nearest;
+	}
+}
@@ -0,0 +1,427 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import java.util.Arrays;
+
+/**
+ * Graph of a 2D skeleton (8-connected, one pixel wide).
+ *
+ * Skeleton pixels with one neighbor (or none) are end points, pixels with
+ * two neighbors are slab pixels, and pixels with more neighbors are junction
+ * pixels (so a 2x2 block, whose pixels have three neighbors each, is a
+ * junction). Each 8-connected cluster of junction pixels is one junction node,
+ * each end point is one end node. A branch is a chain of slab pixels between
+ * two nodes (possibly the same node, for a loop), or a closed ring of slab
+ * pixels without any node. The length of a branch is the sum of the
+ * calibrated distances between consecutive pixels, from node pixel to node
+ * pixel.
+ *
+ * Nodes and branches are stored in primitive arrays: nodes are numbered
+ * 0..getNodeCount()-1 (junctions first), branches 0..getBranchCount()-1.
+ * The adjacency lists needed for path searches are only built on demand.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class SkeletonGraph {
+
+	private final int nJunctions, nNodes;
+	private int nBranches = 0;
+	private int[] from = new int[64], to = new int[64];
+	private double[] length = new double[64];
+
+	private SkeletonGraph(int nJunctions, int nNodes) {
+		this.nJunctions = nJunctions;
+		this.nNodes = nNodes;
+	}
+
+	/**
+	 * Build the graph of a skeleton.
+	 *
+	 * @param pixels skeleton (non-zero pixels)
+	 * @param width
+	 * @param height
+	 * @param pixelWidth
+	 * @param pixelHeight
+	 */
+	public static SkeletonGraph build(byte[] pixels, int width, int height, double pixelWidth, double pixelHeight) {
+		int size = width * height;
+		double diagonal = Math.sqrt(pixelWidth * pixelWidth + pixelHeight * pixelHeight);
+		double[] stepLength = new double[8];
+		for (int k = 0; k < 8; k++)
+			stepLength[k] = k % 2 == 1 ? diagonal : (k % 4 == 0 ? pixelWidth : pixelHeight);
+
+		/* 1 - classify the pixels; junction clusters are nodes 1..nJunctions, end points follow */
+		byte[] junctions = new byte[size];
+		int[] config = new int[size];
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				if (pixels[i] == 0)
+					continue;
+				config[i] = Thinning.neighbors(pixels, width, height, x, y);
+				if (Integer.bitCount(config[i]) > 2)
+					junctions[i] = (byte) 255;
+			}
+		}
+		ConnectedComponents clusters = ConnectedComponents.label(junctions, width, height, false, null);
+		int[] node = clusters.getLabels(); // node number + 1, 0 for slab and background pixels
+		int n = clusters.getCount();
+		for (int i = 0; i < size; i++)
+			if (pixels[i] != 0 && Integer.bitCount(config[i]) < 2)
+				node[i] = ++n;
+		SkeletonGraph graph = new SkeletonGraph(clusters.getCount(), n);
+
+		/* 2 - follow the slab chains from every node pixel */
+		boolean[] visited = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			if (node[i] == 0)
+				continue;
+			for (int k = 0; k < 8; k++) {
+				if ((config[i] & (1 << k)) == 0)
+					continue;
+				int j = neighbor(i, k, width);
+				if (node[j] != 0) { // adjacent nodes, e.g. an end point next to a junction
+					if (node[j] != node[i] && j > i)
+						graph.addBranch(node[i] - 1, node[j] - 1, stepLength[k]);
+					continue;
+				}
+				if (visited[j])
+					continue;
+				/* walk along the chain until the next node pixel */
+				int previous = i, current = j, pixelCount = 1;
+				double len = stepLength[k];
+				visited[j] = true;
+				while (true) {
+					int next = -1, step = -1;
+					for (int kk = 0; kk < 8; kk++) {
+						if ((config[current] & (1 << kk)) != 0 && neighbor(current, kk, width) != previous) {
+							next = neighbor(current, kk, width);
+							step = kk;
+							break;
+						}
+					}
+					/*
+					 * A slab pixel has exactly two neighbors, so the chain cannot end or run into
+					 * a slab pixel of another chain (whose own two neighbors are in that chain).
+					 * Denser clusters, e.g. a 2x2 block, consist of junction pixels.
+					 */
+					if (next < 0 || (node[next] == 0 && visited[next]))
+						throw new IllegalStateException("Slab chain ends at pixel " + current);
+					len += stepLength[step];
+					if (node[next] != 0) {
+						/* a single slab pixel touching one junction twice is part of the junction */
+						if (node[next] != node[i] || pixelCount > 1)
+							graph.addBranch(node[i] - 1, node[next] - 1, len);
+						break;
+					}
+					visited[next] = true;
+					pixelCount++;
+					previous = current;
+					current = next;
+				}
+			}
+		}
+
+		/* 3 - closed rings of slab pixels */
+		for (int i = 0; i < size; i++) {
+			if (pixels[i] == 0 || node[i] != 0 || visited[i])
+				continue;
+			visited[i] = true;
+			int previous = -1, current = i;
+			double len = 0;
+			while (true) {
+				int next = -1;
+				for (int k = 0; k < 8; k++) {
+					int j = neighbor(current, k, width);
+					if ((config[current] & (1 << k)) != 0 && j != previous && (j == i || !visited[j])) {
+						next = j;
+						len += stepLength[k];
+						break;
+					}
+				}
+				if (next < 0 || next == i)
+					break;
+				visited[next] = true;
+				previous = current;
+				current = next;
+			}
+			graph.addBranch(-1, -1, len);
+		}
+		return graph;
+	}
+
+	/**
+	 * Graph with the given branches between end points, e.g. to test the path search.
+	 *
+	 * @param nNodes
+	 * @param from first node of each branch
+	 * @param to last node of each branch
+	 * @param length length of each branch
+	 */
+	static SkeletonGraph of(int nNodes, int[] from, int[] to, double[] length) {
+		SkeletonGraph graph = new SkeletonGraph(0, nNodes);
+		for (int b = 0; b < from.length; b++)
+			graph.addBranch(from[b], to[b], length[b]);
+		return graph;
+	}
+
+	private static int neighbor(int i, int k, int width) {
+		switch (k) {
+			case 0: return i + 1;
+			case 1: return i - width + 1;
+			case 2: return i - width;
+			case 3: return i - width - 1;
+			case 4: return i - 1;
+			case 5: return i + width - 1;
+			case 6: return i + width;
+			default: return i + width + 1;
+		}
+	}
+
+	private void addBranch(int a, int b, double len) {
+		if (nBranches == from.length) {
+			from = Arrays.copyOf(from, 2 * nBranches);
+			to = Arrays.copyOf(to, 2 * nBranches);
+			length = Arrays.copyOf(length, 2 * nBranches);
+		}
+		from[nBranches] = a;
+		to[nBranches] = b;
+		length[nBranches] = len;
+		nBranches++;
+	}
+
+	/**
+	 * Number of nodes (junctions and end points).
+	 */
+	public int getNodeCount() {
+		return nNodes;
+	}
+
+	/**
+	 * Number of junctions (clusters of junction pixels); they are nodes 0..getJunctionCount()-1.
+	 */
+	public int getJunctionCount() {
+		return nJunctions;
+	}
+
+	/**
+	 * Number of end points (including isolated pixels).
+	 */
+	public int getEndPointCount() {
+		return nNodes - nJunctions;
+	}
+
+	public int getBranchCount() {
+		return nBranches;
+	}
+
+	/**
+	 * First node of a branch, or -1 for a ring without nodes.
+	 *
+	 * @param branch
+	 */
+	public int getBranchStart(int branch) {
+		return from[branch];
+	}
+
+	/**
+	 * Last node of a branch, or -1 for a ring without nodes.
+	 *
+	 * @param branch
+	 */
+	public int getBranchEnd(int branch) {
+		return to[branch];
+	}
+
+	/**
+	 * Calibrated length of a branch.
+	 *
+	 * @param branch
+	 */
+	public double getBranchLength(int branch) {
+		return length[branch];
+	}
+
+	/**
+	 * Longest shortest path of the skeleton: the largest distance, along the
+	 * skeleton, between two points of the same connected part.
+	 *
+	 * For each connected part, the node farthest from an arbitrary node is
+	 * found, and then the node farthest from that one (double sweep, with
+	 * Dijkstra's algorithm, in O(b log b) time for b branches). This is the
+	 * exact diameter of trees. For parts with loops it is the distance between
+	 * two nodes, so it is a lower bound, and it is at least half the largest
+	 * distance between two nodes of the part (any two nodes are at most twice
+	 * as far apart as the farthest node is from the first one). A ring without
+	 * nodes counts with half its length.
+	 */
+	public double getLongestShortestPath() {
+		/* adjacency lists, in compressed rows */
+		int[] first = new int[nNodes + 1];
+		for (int b = 0; b < nBranches; b++) {
+			if (from[b] < 0 || from[b] == to[b])
+				continue;
+			first[from[b] + 1]++;
+			first[to[b] + 1]++;
+		}
+		for (int v = 0; v < nNodes; v++)
+			first[v + 1] += first[v];
+		int[] adjacent = new int[first[nNodes]];
+		double[] weight = new double[first[nNodes]];
+		int[] fill = Arrays.copyOf(first, nNodes);
+		for (int b = 0; b < nBranches; b++) {
+			if (from[b] < 0 || from[b] == to[b])
+				continue;
+			adjacent[fill[from[b]]] = to[b];
+			weight[fill[from[b]]++] = length[b];
+			adjacent[fill[to[b]]] = from[b];
+			weight[fill[to[b]]++] = length[b];
+		}
+
+		double longest = 0;
+		double[] dist = new double[nNodes];
+		Arrays.fill(dist, -1);
+		int[] part = new int[nNodes]; // nodes reached by the last sweep
+		Heap heap = new Heap(first[nNodes] + 1);
+		for (int v = 0; v < nNodes; v++) {
+			if (dist[v] >= 0)
+				continue;
+			int size = sweep(v, first, adjacent, weight, dist, part, heap);
+			int farthest = v;
+			for (int k = 0; k < size; k++)
+				if (dist[part[k]] > dist[farthest])
+					farthest = part[k];
+			for (int k = 0; k < size; k++)
+				dist[part[k]] = -1;
+			sweep(farthest, first, adjacent, weight, dist, part, heap);
+			for (int k = 0; k < size; k++)
+				longest = Math.max(longest, dist[part[k]]);
+		}
+		for (int b = 0; b < nBranches; b++)
+			if (from[b] < 0)
+				longest = Math.max(longest, length[b] / 2);
+		return longest;
+	}
+
+	/**
+	 * Distances from a node to all nodes of its part (Dijkstra's algorithm; a
+	 * node may be queued once per adjacent branch, and is settled when it is
+	 * first taken from the queue).
+	 *
+	 * @param dist -1 for all nodes of the part on entry
+	 * @return number of nodes of the part, which are listed in part[]
+	 */
+	private static int sweep(int source, int[] first, int[] adjacent, double[] weight, double[] dist, int[] part, Heap heap) {
+		int size = 0;
+		dist[source] = 0;
+		part[size++] = source;
+		heap.add(source, 0);
+		while (!heap.isEmpty()) {
+			double du = heap.minDistance();
+			int u = heap.removeMin();
+			if (du > dist[u])
+				continue; // already settled with a shorter distance
+			for (int e = first[u]; e < first[u + 1]; e++) {
+				int v = adjacent[e];
+				double d = du + weight[e];
+				if (dist[v] >= 0 && dist[v] <= d)
+					continue;
+				if (dist[v] < 0)
+					part[size++] = v;
+				dist[v] = d;
+				heap.add(v, d);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Binary min-heap of nodes by distance, in two parallel arrays.
+	 */
+	private static final class Heap {
+		private int[] nodes;
+		private double[] keys;
+		private int size = 0;
+
+		Heap(int capacity) {
+			nodes = new int[Math.max(1, capacity)];
+			keys = new double[nodes.length];
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		double minDistance() {
+			return keys[0];
+		}
+
+		void add(int node, double key) {
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * size);
+				keys = Arrays.copyOf(keys, 2 * size);
+			}
+			int i = size++;
+			while (i > 0 && keys[(i - 1) / 2] > key) {
+				nodes[i] = nodes[(i - 1) / 2];
+				keys[i] = keys[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			nodes[i] = node;
+			keys[i] = key;
+		}
+
+		int removeMin() {
+			int min = nodes[0];
+			int node = nodes[--size];
+			double key = keys[size];
+			int i = 0;
+			while (2 * i + 1 < size) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && keys[child + 1] < keys[child])
+					child++;
+				if (keys[child] >= key)
+					break;
+				nodes[i] = nodes[child];
+				keys[i] = keys[child];
+				i = child;
+			}
+			nodes[i] = node;
+			keys[i] = key;
+			return min;
+		}
+	}
+
+	/**
+	 * Sum of the lengths of all branches.
+	 */
+	public double getTotalLength() {
+		double total = 0;
+		for (int b = 0; b < nBranches; b++)
+			total += length[b];
+		return total;
+	}
+}
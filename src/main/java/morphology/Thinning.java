@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Skeletonization of binary 2D images by topology-preserving thinning.
+ *
+ * Border pixels are removed in four directional subiterations (north, south,
+ * east, west), like in the algorithm of Lee et al. (1994) used by the
+ * "Skeletonize (2D/3D)" command, restricted to a single plane: in each
+ * subiteration, the simple border pixels that are not end points are
+ * collected first, then deleted one by one, re-checking that each is still
+ * simple. This is repeated until no pixel is deleted. The skeleton is
+ * 8-connected, one pixel wide, and has the same topology as the input.
+ *
+ * A pixel is simple if deleting it changes neither the number of 8-connected
+ * foreground components nor the number of 4-connected background components,
+ * which is decided from its 8 neighbors alone (Yokoi connectivity number 1).
+ *
+ * Foreground is any non-zero value; the result is 255 (skeleton) or 0.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class Thinning {
+
+	/* Neighbor offsets in counter-clockwise order, starting east: E, NE, N, NW, W, SW, S, SE */
+	private static final int[] DX = { 1, 1, 0, -1, -1, -1, 0, 1 };
+	private static final int[] DY = { 0, -1, -1, -1, 0, 1, 1, 1 };
+	/* Neighbor that must be background for a border pixel of each subiteration: N, S, E, W */
+	private static final int[] BORDER = { 2, 6, 0, 4 };
+	/* Whether a pixel with the given neighborhood (bit k = neighbor k) is simple */
+	private static final boolean[] SIMPLE = new boolean[256];
+
+	static {
+		for (int config = 0; config < 256; config++) {
+			int n = 0;
+			for (int k = 0; k < 8; k += 2) {
+				boolean x1 = (config & (1 << k)) == 0;
+				boolean x2 = (config & (1 << ((k + 1) & 7))) == 0;
+				boolean x3 = (config & (1 << ((k + 2) & 7))) == 0;
+				if (x1 && !(x2 && x3))
+					n++;
+			}
+			SIMPLE[config] = n == 1;
+		}
+	}
+
+	private Thinning() {
+	}
+
+	/**
+	 * Skeletonize a binary 8-bit image in place.
+	 *
+	 * @param ip
+	 */
+	public static void skeletonize(ImageProcessor ip) {
+		skeletonize((byte[]) ip.getPixels(), ip.getWidth(), ip.getHeight());
+	}
+
+	/**
+	 * Skeletonize a binary image in place.
+	 *
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 */
+	public static void skeletonize(byte[] pixels, int width, int height) {
+		/* padded copy, so that neighbors never need bounds checks */
+		int pw = width + 2;
+		byte[] padded = new byte[pw * (height + 2)];
+		int[] offset = new int[8];
+		for (int k = 0; k < 8; k++)
+			offset[k] = DY[k] * pw + DX[k];
+		int n = 0;
+		for (int y = 0, i = 0; y < height; y++)
+			for (int x = 0; x < width; x++, i++)
+				if (pixels[i] != 0)
+					n++;
+		int[] foreground = new int[n]; // padded indices of the remaining foreground pixels
+		n = 0;
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				if (pixels[i] != 0) {
+					int p = (y + 1) * pw + x + 1;
+					padded[p] = 1;
+					foreground[n++] = p;
+				}
+			}
+		}
+
+		int[] candidates = new int[n];
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int direction : BORDER) {
+				int nCandidates = 0;
+				for (int k = 0; k < n; k++) {
+					int p = foreground[k];
+					if (padded[p + offset[direction]] != 0)
+						continue;
+					int config = neighbors(padded, p, offset);
+					if (Integer.bitCount(config) > 1 && SIMPLE[config])
+						candidates[nCandidates++] = p;
+				}
+				for (int k = 0; k < nCandidates; k++) {
+					int p = candidates[k];
+					int config = neighbors(padded, p, offset);
+					if (Integer.bitCount(config) > 1 && SIMPLE[config]) {
+						padded[p] = 0;
+						changed = true;
+					}
+				}
+				/* drop the deleted pixels from the list */
+				int remaining = 0;
+				for (int k = 0; k < n; k++)
+					if (padded[foreground[k]] != 0)
+						foreground[remaining++] = foreground[k];
+				n = remaining;
+			}
+		}
+
+		for (int y = 0, i = 0; y < height; y++)
+			for (int x = 0; x < width; x++, i++)
+				pixels[i] = padded[(y + 1) * pw + x + 1] != 0 ? (byte) 255 : 0;
+	}
+
+	private static int neighbors(byte[] padded, int p, int[] offset) {
+		int config = 0;
+		for (int k = 0; k < 8; k++)
+			if (padded[p + offset[k]] != 0)
+				config |= 1 << k;
+		return config;
+	}
+
+	/**
+	 * Neighborhood configuration of a pixel: bit k is set if neighbor k is foreground.
+	 * Pixels outside the image are background.
+	 */
+	static int neighbors(byte[] pixels, int width, int height, int x, int y) {
+		int config = 0;
+		for (int k = 0; k < 8; k++) {
+			int xx = x + DX[k], yy = y + DY[k];
+			if (xx >= 0 && xx < width && yy >= 0 && yy < height && pixels[yy * width + xx] != 0)
+				config |= 1 << k;
+		}
+		return config;
+	}
+}
@@ -0,0 +1,300 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import ij.process.ByteProcessor;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Connected components of a packed mask, labeled tile by tile.
+ *
+ * Each tile is unpacked and labeled on its own with ConnectedComponents. The
+ * tile components get global ids, and the components that touch across a tile
+ * seam are merged with a union-find forest, using only the border rows and
+ * columns of the tiles. The statistics of a component (area, first pixel,
+ * bounding box, whether it touches the image border and whether it contains
+ * a seed pixel) are merged into its root, whose id identifies the component.
+ *
+ * Memory is one tile of labels plus a few values per tile component, so the
+ * image never has to be unpacked as a whole. retain() labels the tiles a
+ * second time, instead of keeping the label images.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class TiledComponents {
+
+	private final BitMask mask;
+	private final int tileSize;
+	private final boolean connect4;
+	private final int[] labels;
+	/* Id of the first component of each tile, in raster order of the tiles */
+	private final int[] tileBase;
+	/* Union-find forest and statistics, indexed by id (index 0 is unused) */
+	private int[] parent = new int[256];
+	private long[] area = new long[256], first = new long[256];
+	private int[] xMin = new int[256], yMin = new int[256], xMax = new int[256], yMax = new int[256];
+	private boolean[] edge = new boolean[256], seeded = new boolean[256];
+	private int n = 0;
+	private int[] roots;
+
+	/**
+	 * Label the set pixels of a mask.
+	 *
+	 * @param mask
+	 * @param tileSize
+	 * @param connect4 true for 4-connected, false for 8-connected components
+	 * @param seeds mask of seed pixels (see isSeeded()), or null
+	 */
+	public TiledComponents(BitMask mask, int tileSize, boolean connect4, BitMask seeds) {
+		this.mask = mask;
+		this.tileSize = tileSize;
+		this.connect4 = connect4;
+		int width = mask.getWidth(), height = mask.getHeight();
+		int tilesX = (width + tileSize - 1) / tileSize, tilesY = (height + tileSize - 1) / tileSize;
+		labels = new int[Math.min(tileSize, width) * Math.min(tileSize, height)];
+		tileBase = new int[tilesX * tilesY];
+		int[] bottom = new int[width], previousBottom = new int[width], top = new int[width];
+		int[] left = new int[tileSize], right = new int[tileSize], previousRight = new int[tileSize];
+
+		for (int ty = 0, t = 0; ty < tilesY; ty++) {
+			for (int tx = 0; tx < tilesX; tx++, t++) {
+				Rectangle r = tile(tx, ty);
+				ConnectedComponents cc = ConnectedComponents.label((byte[]) mask.getRegion(r).getPixels(), r.width, r.height, connect4, labels);
+				int base = n;
+				tileBase[t] = base;
+				ensureCapacity(base + cc.getCount() + 1);
+				for (int l = 1; l <= cc.getCount(); l++) {
+					int id = base + l;
+					int[] b = cc.getBounds(l);
+					int f = cc.getFirstPixel(l);
+					parent[id] = id;
+					area[id] = cc.getArea(l);
+					first[id] = (long) (r.y + f / r.width) * width + r.x + f % r.width;
+					xMin[id] = r.x + b[0];
+					yMin[id] = r.y + b[1];
+					xMax[id] = r.x + b[0] + b[2] - 1;
+					yMax[id] = r.y + b[1] + b[3] - 1;
+					edge[id] = r.x + b[0] == 0 || r.y + b[1] == 0 || r.x + b[0] + b[2] == width || r.y + b[1] + b[3] == height;
+				}
+				n += cc.getCount();
+				if (seeds != null) {
+					for (int y = 0, i = 0; y < r.height; y++)
+						for (int x = 0; x < r.width; x++, i++)
+							if (labels[i] != 0 && seeds.get(r.x + x, r.y + y))
+								seeded[base + labels[i]] = true;
+				}
+
+				/* border ids of this tile */
+				for (int x = 0; x < r.width; x++) {
+					top[r.x + x] = id(base, labels[x]);
+					bottom[r.x + x] = id(base, labels[(r.height - 1) * r.width + x]);
+				}
+				for (int y = 0; y < r.height; y++) {
+					left[y] = id(base, labels[y * r.width]);
+					right[y] = id(base, labels[y * r.width + r.width - 1]);
+				}
+				/* seam with the tile to the left */
+				if (tx > 0) {
+					for (int y = 0; y < r.height; y++) {
+						union(previousRight[y], left[y]);
+						if (!connect4 && y > 0) {
+							union(previousRight[y - 1], left[y]);
+							union(previousRight[y], left[y - 1]);
+						}
+					}
+				}
+				int[] tmp = previousRight;
+				previousRight = right;
+				right = tmp;
+			}
+			/* seam with the row of tiles above */
+			if (ty > 0) {
+				for (int x = 0; x < width; x++) {
+					union(previousBottom[x], top[x]);
+					if (!connect4 && x > 0) {
+						union(previousBottom[x - 1], top[x]);
+						union(previousBottom[x], top[x - 1]);
+					}
+				}
+			}
+			int[] tmp = previousBottom;
+			previousBottom = bottom;
+			bottom = tmp;
+		}
+
+		/* merge the statistics into the roots */
+		int count = 0;
+		for (int id = 1; id <= n; id++) {
+			int root = find(id);
+			if (root == id) {
+				count++;
+				continue;
+			}
+			area[root] += area[id];
+			first[root] = Math.min(first[root], first[id]);
+			xMin[root] = Math.min(xMin[root], xMin[id]);
+			yMin[root] = Math.min(yMin[root], yMin[id]);
+			xMax[root] = Math.max(xMax[root], xMax[id]);
+			yMax[root] = Math.max(yMax[root], yMax[id]);
+			edge[root] |= edge[id];
+			seeded[root] |= seeded[id];
+		}
+		roots = new int[count];
+		for (int id = 1, c = 0; id <= n; id++)
+			if (parent[id] == id)
+				roots[c++] = id;
+	}
+
+	private Rectangle tile(int tx, int ty) {
+		int x = tx * tileSize, y = ty * tileSize;
+		return new Rectangle(x, y, Math.min(tileSize, mask.getWidth() - x), Math.min(tileSize, mask.getHeight() - y));
+	}
+
+	private static int id(int base, int label) {
+		return label == 0 ? 0 : base + label;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= parent.length)
+			return;
+		capacity = Math.max(capacity, 2 * parent.length);
+		parent = Arrays.copyOf(parent, capacity);
+		area = Arrays.copyOf(area, capacity);
+		first = Arrays.copyOf(first, capacity);
+		xMin = Arrays.copyOf(xMin, capacity);
+		yMin = Arrays.copyOf(yMin, capacity);
+		xMax = Arrays.copyOf(xMax, capacity);
+		yMax = Arrays.copyOf(yMax, capacity);
+		edge = Arrays.copyOf(edge, capacity);
+		seeded = Arrays.copyOf(seeded, capacity);
+	}
+
+	/**
+	 * Union of two ids (0 meaning none). The root is always the smallest id.
+	 */
+	private void union(int a, int b) {
+		if (a == 0 || b == 0)
+			return;
+		a = find(a);
+		b = find(b);
+		if (a < b)
+			parent[b] = a;
+		else if (b < a)
+			parent[a] = b;
+	}
+
+	private int find(int a) {
+		while (parent[a] != a) {
+			parent[a] = parent[parent[a]];
+			a = parent[a];
+		}
+		return a;
+	}
+
+	/**
+	 * Number of components.
+	 */
+	public int getCount() {
+		return roots.length;
+	}
+
+	/**
+	 * Ids of the components.
+	 */
+	public int[] getComponents() {
+		return roots.clone();
+	}
+
+	/**
+	 * Number of pixels of a component.
+	 *
+	 * @param id
+	 */
+	public long getArea(int id) {
+		return area[id];
+	}
+
+	/**
+	 * Index (y*width+x) of the first pixel of a component in raster order.
+	 *
+	 * @param id
+	 */
+	public long getFirstPixel(int id) {
+		return first[id];
+	}
+
+	/**
+	 * Bounding box of a component, as {x, y, width, height}.
+	 *
+	 * @param id
+	 */
+	public int[] getBounds(int id) {
+		return new int[] { xMin[id], yMin[id], xMax[id] - xMin[id] + 1, yMax[id] - yMin[id] + 1 };
+	}
+
+	/**
+	 * Whether a component touches the border of the image.
+	 *
+	 * @param id
+	 */
+	public boolean touchesEdge(int id) {
+		return edge[id];
+	}
+
+	/**
+	 * Whether a component contains a pixel of the seed mask.
+	 *
+	 * @param id
+	 */
+	public boolean isSeeded(int id) {
+		return seeded[id];
+	}
+
+	/**
+	 * Write the components accepted by a filter into a mask, clearing all other pixels.
+	 * The output may be the labeled mask itself.
+	 *
+	 * @param output mask of the same size as the labeled mask
+	 * @param keep filter on the component ids
+	 */
+	public void retain(BitMask output, IntPredicate keep) {
+		boolean[] kept = new boolean[n + 1];
+		for (int id : roots)
+			kept[id] = keep.test(id);
+		int tilesX = (mask.getWidth() + tileSize - 1) / tileSize;
+		for (int t = 0; t < tileBase.length; t++) {
+			Rectangle r = tile(t % tilesX, t / tilesX);
+			ByteProcessor ip = mask.getRegion(r);
+			byte[] pixels = (byte[]) ip.getPixels();
+			ConnectedComponents.label(pixels, r.width, r.height, connect4, labels);
+			for (int i = 0; i < r.width * r.height; i++)
+				pixels[i] = labels[i] != 0 && kept[find(tileBase[t] + labels[i])] ? (byte) 255 : 0;
+			output.setRegion(ip, r.x, r.y, r);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+
+/**
+ * Background subtraction by a morphological top-hat: the background is the
+ * grey-level opening of the image (erosion followed by dilation) with a flat
+ * square of the given radius, and is subtracted from the image.
+ *
+ * Like the rolling ball of ImageJ's BackgroundSubtracter, the image is first
+ * smoothed with a 3x3 mean (for the background estimate only) and shrunk by
+ * taking the minimum of blocks of 2, 4 or 8 pixels, depending on the radius.
+ * The opening of the shrunk image is separable, and every pass takes constant
+ * time per pixel (van Herk/Gil-Werman), so the time does not depend on the
+ * radius. The background is enlarged again by bilinear interpolation.
+ *
+ * Objects narrower than the square (nuclei, for a radius larger than a
+ * nucleus) are kept; larger structures and smooth gradients are removed.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class TopHat {
+
+	private TopHat() {
+	}
+
+	/**
+	 * Subtract the background from an image in place. Results of 8-bit and
+	 * 16-bit images are clipped at 0.
+	 *
+	 * @param ip
+	 * @param radius radius of the structuring element (pixels)
+	 */
+	public static void subtract(ImageProcessor ip, double radius) {
+		float[] background = (float[]) background(ip, radius).getPixels();
+		float min = ip instanceof FloatProcessor ? -Float.MAX_VALUE : 0f;
+		int size = ip.getPixelCount();
+		for (int i = 0; i < size; i++)
+			ip.setf(i, Math.max(ip.getf(i) - background[i], min));
+	}
+
+	/**
+	 * Estimate the background of an image.
+	 *
+	 * @param ip
+	 * @param radius radius of the structuring element (pixels)
+	 */
+	public static FloatProcessor background(ImageProcessor ip, double radius) {
+		int width = ip.getWidth(), height = ip.getHeight();
+		int shrink = radius <= 10 ? 1 : radius <= 30 ? 2 : radius <= 100 ? 4 : 8; // as in BackgroundSubtracter
+		FloatProcessor smoothed = ip.convertToFloatProcessor();
+		if (smoothed.getPixels() == ip.getPixels())
+			smoothed = (FloatProcessor) smoothed.duplicate();
+		smoothed.smooth();
+
+		/* 1 - shrink to the minimum of each block */
+		float[] pixels = (float[]) smoothed.getPixels();
+		int sw = (width + shrink - 1) / shrink, sh = (height + shrink - 1) / shrink;
+		float[] small = new float[sw * sh];
+		Arrays.fill(small, Float.MAX_VALUE);
+		for (int y = 0; y < height; y++)
+			for (int x = 0, i = y * width, row = (y / shrink) * sw; x < width; x++, i++)
+				if (pixels[i] < small[row + x / shrink])
+					small[row + x / shrink] = pixels[i];
+
+		/* 2 - opening with a square, one row or column at a time */
+		int k = Math.max(1, (int) Math.round(radius / shrink));
+		filter(small, sw, sh, k, false);
+		filter(small, sw, sh, k, true);
+
+		/* 3 - enlarge by bilinear interpolation between the block centers */
+		int[] x0 = new int[width];
+		float[] fx = new float[width];
+		for (int x = 0; x < width; x++) {
+			float sx = Math.max(0f, Math.min(sw - 1, (x + 0.5f) / shrink - 0.5f));
+			x0[x] = Math.min((int) sx, sw - 2 < 0 ? 0 : sw - 2);
+			fx[x] = sx - x0[x];
+		}
+		for (int y = 0; y < height; y++) {
+			float sy = Math.max(0f, Math.min(sh - 1, (y + 0.5f) / shrink - 0.5f));
+			int y0 = Math.min((int) sy, sh - 2 < 0 ? 0 : sh - 2);
+			int y1 = Math.min(y0 + 1, sh - 1);
+			float fy = sy - y0;
+			for (int x = 0, i = y * width; x < width; x++, i++) {
+				int xa = x0[x], xb = Math.min(xa + 1, sw - 1);
+				float top = small[y0 * sw + xa] + fx[x] * (small[y0 * sw + xb] - small[y0 * sw + xa]);
+				float bottom = small[y1 * sw + xa] + fx[x] * (small[y1 * sw + xb] - small[y1 * sw + xa]);
+				pixels[i] = top + fy * (bottom - top);
+			}
+		}
+		return smoothed;
+	}
+
+	/**
+	 * Separable minimum (erosion) or maximum (dilation) with a square of
+	 * radius k, in place. Pixels outside the image are ignored.
+	 */
+	private static void filter(float[] pixels, int width, int height, int k, boolean max) {
+		int length = Math.max(width, height);
+		float[] line = new float[length + 2 * k], forward = new float[line.length], backward = new float[line.length];
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(pixels, y * width, line, k, width);
+			filterLine(line, width, k, max, forward, backward);
+			System.arraycopy(line, k, pixels, y * width, width);
+		}
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++)
+				line[k + y] = pixels[y * width + x];
+			filterLine(line, height, k, max, forward, backward);
+			for (int y = 0; y < height; y++)
+				pixels[y * width + x] = line[k + y];
+		}
+	}
+
+	/**
+	 * Minimum or maximum over a window of 2k+1 values (van Herk/Gil-Werman).
+	 * The n values are at line[k..k+n-1], and the result is written there.
+	 */
+	private static void filterLine(float[] line, int n, int k, boolean max, float[] forward, float[] backward) {
+		int m = n + 2 * k, w = 2 * k + 1;
+		float pad = max ? -Float.MAX_VALUE : Float.MAX_VALUE;
+		Arrays.fill(line, 0, k, pad);
+		Arrays.fill(line, k + n, m, pad);
+		for (int j = 0; j < m; j++)
+			forward[j] = j % w == 0 ? line[j] : max ? Math.max(forward[j - 1], line[j]) : Math.min(forward[j - 1], line[j]);
+		for (int j = m - 1; j >= 0; j--)
+			backward[j] = j % w == w - 1 || j == m - 1 ? line[j] : max ? Math.max(backward[j + 1], line[j]) : Math.min(backward[j + 1], line[j]);
+		for (int i = 0; i < n; i++)
+			line[k + i] = max ? Math.max(backward[i], forward[i + 2 * k]) : Math.min(backward[i], forward[i + 2 * k]);
+	}
+}
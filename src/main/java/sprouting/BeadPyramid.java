@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import morphology.BinaryMorphology;
+import morphology.ConnectedComponents;
+
+/**
+ * Coarse-to-fine bead detection.
+ *
+ * The blurred bead channel is block-averaged by a factor f, thresholded and
+ * eroded at the coarse scale, which finds the bead cores at 1/f² of the cost
+ * of the large erosion. Each coarse bead core is then redone at full
+ * resolution in its own crop: the crop is thresholded, eroded and dilated
+ * like the whole image is by the full-resolution bead detection, so the
+ * result matches it for every bead whose core the coarse scale finds.
+ *
+ * The threshold level is that of the full-resolution blurred channel (see
+ * Sprout_Analyzer.findBeads()). The coarse erosion radius is one coarse pixel
+ * smaller than erodeRadius / f, so that the block averages do not lose the
+ * cores of beads that barely survive the full-resolution erosion; cores of
+ * smaller objects found this way vanish in the full-resolution erosion of
+ * their crop.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+final class BeadPyramid {
+
+	private BeadPyramid() {
+	}
+
+	/**
+	 * Bead mask (255/0) of a blurred channel: threshold, erosion and dilation,
+	 * like the full-resolution bead detection.
+	 *
+	 * @param blurred blurred bead channel; its pixels are not modified
+	 * @param level lower threshold of the blurred channel, or ImageProcessor.NO_THRESHOLD
+	 * @param erodeRadius (pixels)
+	 * @param dilateRadius (pixels)
+	 * @param factor downsampling factor, reduced if the coarse erosion radius would drop below 1 pixel
+	 */
+	static ByteProcessor findBeads(ImageProcessor blurred, double level, double erodeRadius, double dilateRadius, int factor) {
+		int width = blurred.getWidth(), height = blurred.getHeight();
+		ByteProcessor output = new ByteProcessor(width, height);
+		if (level == ImageProcessor.NO_THRESHOLD)
+			return output;
+		int f = Math.max(1, factor);
+		while (f > 1 && erodeRadius / f < 2)
+			f /= 2;
+
+		/* 1 - coarse threshold mask and bead cores */
+		ByteProcessor cores = threshold(downsample(blurred, f), level);
+		BinaryMorphology.erode(cores, f > 1 ? erodeRadius / f - 1 : erodeRadius);
+		ConnectedComponents components = ConnectedComponents.label(cores, false);
+
+		/* 2 - full resolution, one crop per core */
+		int erodeHalo = BinaryMorphology.kernelRadius(erodeRadius);
+		int dilateHalo = BinaryMorphology.kernelRadius(dilateRadius);
+		Rectangle image = new Rectangle(width, height);
+		for (int label = 1; label <= components.getCount(); label++) {
+			int[] b = components.getBounds(label);
+			// full-resolution core, with a margin for the coarse position error
+			Rectangle core = new Rectangle(b[0] * f, b[1] * f, b[2] * f, b[3] * f);
+			core.grow(2 * f, 2 * f);
+			core = core.intersection(image);
+			Rectangle crop = new Rectangle(core);
+			crop.grow(Math.max(erodeHalo, dilateHalo), Math.max(erodeHalo, dilateHalo));
+			crop = crop.intersection(image);
+			Rectangle eroded = new Rectangle(core);
+			eroded.grow(erodeHalo, erodeHalo);
+			eroded = eroded.intersection(image);
+
+			ByteProcessor mask = new ByteProcessor(crop.width, crop.height);
+			threshold(blurred, level, mask, eroded, crop);
+			BinaryMorphology.erode(mask, erodeRadius);
+			clearOutside(mask, crop, core); // cores outside are done by their own crop, if at all
+			BinaryMorphology.dilate(mask, dilateRadius);
+			or(output, mask, crop);
+		}
+		return output;
+	}
+
+	/**
+	 * Block average of an image by an integer factor, in the same type (rounded
+	 * for integer types), so that it is thresholded at the level of the
+	 * full-resolution image. Blocks at the right and bottom edges may be
+	 * partial.
+	 *
+	 * @param ip
+	 * @param f
+	 */
+	private static ImageProcessor downsample(ImageProcessor ip, int f) {
+		int width = ip.getWidth(), height = ip.getHeight();
+		int cw = (width + f - 1) / f, ch = (height + f - 1) / f;
+		ImageProcessor coarse = ip.createProcessor(cw, ch);
+		boolean integer = ip.getBitDepth() != 32;
+		Object pixels = ip.getPixels();
+		double[] sums = new double[cw];
+		for (int cy = 0; cy < ch; cy++) {
+			Arrays.fill(sums, 0);
+			int y1 = Math.min(height, (cy + 1) * f);
+			for (int y = cy * f; y < y1; y++)
+				addRow(pixels, y * width, width, f, sums);
+			for (int cx = 0; cx < cw; cx++) {
+				int n = (Math.min(width, (cx + 1) * f) - cx * f) * (y1 - cy * f);
+				double mean = sums[cx] / n;
+				coarse.setf(cx + cy * cw, (float) (integer ? Math.round(mean) : mean));
+			}
+		}
+		return coarse;
+	}
+
+	/**
+	 * Add the pixels of a row to the sums of their blocks.
+	 */
+	private static void addRow(Object pixels, int offset, int width, int f, double[] sums) {
+		for (int x0 = 0, cx = 0; x0 < width; x0 += f, cx++) {
+			int x1 = Math.min(width, x0 + f);
+			long sum = 0;
+			if (pixels instanceof byte[]) {
+				byte[] p = (byte[]) pixels;
+				for (int i = offset + x0; i < offset + x1; i++)
+					sum += p[i] & 0xff;
+			} else if (pixels instanceof short[]) {
+				short[] p = (short[]) pixels;
+				for (int i = offset + x0; i < offset + x1; i++)
+					sum += p[i] & 0xffff;
+			} else {
+				float[] p = (float[]) pixels;
+				double s = 0;
+				for (int i = offset + x0; i < offset + x1; i++)
+					s += p[i];
+				sums[cx] += s;
+				continue;
+			}
+			sums[cx] += sum;
+		}
+	}
+
+	/**
+	 * Threshold a rectangle of the blurred channel into the crop mask.
+	 */
+	private static void threshold(ImageProcessor blurred, double level, ByteProcessor mask, Rectangle r, Rectangle crop) {
+		byte[] pixels = (byte[]) mask.getPixels();
+		float t = (float) level;
+		for (int y = r.y; y < r.y + r.height; y++)
+			for (int x = r.x; x < r.x + r.width; x++)
+				if (blurred.getf(x, y) >= t)
+					pixels[(x - crop.x) + (y - crop.y) * crop.width] = (byte) 255;
+	}
+
+	private static void clearOutside(ByteProcessor mask, Rectangle crop, Rectangle keep) {
+		byte[] pixels = (byte[]) mask.getPixels();
+		for (int y = 0, i = 0; y < crop.height; y++)
+			for (int x = 0; x < crop.width; x++, i++)
+				if (!keep.contains(crop.x + x, crop.y + y))
+					pixels[i] = 0;
+	}
+
+	private static void or(ByteProcessor output, ByteProcessor mask, Rectangle crop) {
+		byte[] out = (byte[]) output.getPixels();
+		byte[] pixels = (byte[]) mask.getPixels();
+		int width = output.getWidth();
+		for (int y = 0, i = 0; y < crop.height; y++)
+			for (int x = 0; x < crop.width; x++, i++)
+				if (pixels[i] != 0)
+					out[crop.x + x + (crop.y + y) * width] = (byte) 255;
+	}
+
+	/**
+	 * Binary mask (255/0) of the pixels at or above a level.
+	 */
+	private static ByteProcessor threshold(ImageProcessor ip, double level) {
+		float t = (float) level;
+		int size = ip.getPixelCount();
+		ByteProcessor mask = new ByteProcessor(ip.getWidth(), ip.getHeight());
+		byte[] pixels = (byte[]) mask.getPixels();
+		for (int i = 0; i < size; i++)
+			if (ip.getf(i) >= t)
+				pixels[i] = (byte) 255;
+		return mask;
+	}
+}
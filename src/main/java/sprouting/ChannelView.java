@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+
+/**
+ * Read-only view of one channel of an image (first slice, given frame).
+ *
+ * The processor of the view shares the pixel array of the source stack, so
+ * stages that only read a channel (e.g. to threshold it into a new mask) do
+ * not copy it. Its pixels must not be modified; stages that write, such as
+ * the blur and background subtraction steps, ask for a copy instead. Threshold
+ * and display settings belong to the processor object, so setting them on a
+ * view does not affect the source image.
+ *
+ * Like the Duplicator it replaces, the view is cropped to the bounding box of
+ * an area selection of the source image (taken when the view is created).
+ * A cropped view is a copy of that box, so it is only zero-copy without a
+ * selection.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+final class ChannelView {
+	private final ImagePlus imp;
+	private final int index;
+	private final Rectangle bounds; // bounds of the area selection, or null for the whole image
+
+	/**
+	 * @param imp source image
+	 * @param channel channel number (1-based)
+	 */
+	ChannelView(ImagePlus imp, int channel) {
+		this(imp, channel, 1);
+	}
+
+	/**
+	 * @param imp source image
+	 * @param channel channel number (1-based)
+	 * @param frame frame number (1-based)
+	 */
+	ChannelView(ImagePlus imp, int channel, int frame) {
+		this.imp = imp;
+		this.index = imp.getStackIndex(channel, 1, frame);
+		this.bounds = areaBounds(imp);
+	}
+
+	/**
+	 * Bounding box of the area selection of an image within the image, or
+	 * null if there is no area selection or it covers the whole image.
+	 *
+	 * @param imp
+	 */
+	private static Rectangle areaBounds(ImagePlus imp) {
+		Roi roi = imp.getRoi();
+		if (roi == null || !roi.isArea())
+			return null;
+		Rectangle r = roi.getBounds().intersection(new Rectangle(imp.getWidth(), imp.getHeight()));
+		return r.width == imp.getWidth() && r.height == imp.getHeight() ? null : r;
+	}
+
+	/**
+	 * Rectangle of the source image that the view covers.
+	 */
+	Rectangle getBounds() {
+		return bounds != null ? new Rectangle(bounds) : new Rectangle(imp.getWidth(), imp.getHeight());
+	}
+
+	/**
+	 * New processor object on the pixels of the channel. Must not be modified.
+	 */
+	ImageProcessor getProcessor() {
+		ImageProcessor ip = imp.getStack().getProcessor(index);
+		if (bounds == null)
+			return ip;
+		ip.setRoi(bounds);
+		return ip.crop();
+	}
+
+	/**
+	 * Calibrated image on the pixels of the channel. Its pixels must not be
+	 * modified, but its processor can be replaced (e.g. by a mask).
+	 */
+	ImagePlus getImage() {
+		ImagePlus view = new ImagePlus(imp.getTitle(), getProcessor());
+		view.setCalibration(imp.getCalibration());
+		return view;
+	}
+
+	/**
+	 * Writable, calibrated copy of the channel.
+	 */
+	ImagePlus copy() {
+		ImageProcessor ip = getProcessor();
+		ImagePlus copy = new ImagePlus(imp.getTitle(), bounds == null ? ip.duplicate() : ip);
+		copy.setCalibration(imp.getCalibration());
+		return copy;
+	}
+}
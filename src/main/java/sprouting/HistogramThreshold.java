@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.process.AutoThresholder;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Full-resolution histogram of an 8-bit or 16-bit image, accumulated piece by
+ * piece, and the automatic threshold of the whole image computed from it.
+ *
+ * The threshold is the same as ImageProcessor.setAutoThreshold(method, true, ...)
+ * would set on the whole image: 16-bit data are binned into 256 bins between
+ * their minimum and maximum, like ImageJ's scaled conversion to 8-bit, and the
+ * level found in these bins is scaled back (and rounded) to the 16-bit range.
+ *
+ * The histogram does not depend on the method, so all methods can be tried
+ * on one histogram. 32-bit images are only supported as a whole (see of()):
+ * their 256 bins are those of ImageJ's scaled conversion to 8-bit.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+class HistogramThreshold {
+	private final int[] histogram;
+	private int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+	private final double[] range; // {min, max} of 32-bit data, null for 8-bit and 16-bit data
+
+	/**
+	 * @param bitDepth 8 or 16
+	 */
+	HistogramThreshold(int bitDepth) {
+		if (bitDepth != 8 && bitDepth != 16)
+			throw new IllegalArgumentException("8-bit or 16-bit data required");
+		histogram = new int[bitDepth == 8 ? 256 : 65536];
+		range = null;
+	}
+
+	private HistogramThreshold(FloatProcessor fp) {
+		fp.resetMinAndMax(); // like setAutoThreshold()
+		range = new double[] { fp.getMin(), fp.getMax() };
+		histogram = fp.convertToByte(true).getHistogram();
+	}
+
+	/**
+	 * Histogram of a whole 8-bit, 16-bit or 32-bit image (without its roi).
+	 * The display range of a 32-bit image is reset, like by setAutoThreshold().
+	 *
+	 * @param ip
+	 */
+	static HistogramThreshold of(ImageProcessor ip) {
+		if (ip instanceof FloatProcessor)
+			return new HistogramThreshold((FloatProcessor) ip);
+		HistogramThreshold h = new HistogramThreshold(ip.getBitDepth());
+		Object pixels = ip.getPixels();
+		if (pixels instanceof byte[]) {
+			for (byte value : (byte[]) pixels)
+				h.histogram[value & 0xff]++;
+		} else {
+			for (short value : (short[]) pixels)
+				h.histogram[value & 0xffff]++;
+		}
+		for (int value = 0; value < h.histogram.length; value++) {
+			if (h.histogram[value] > 0) {
+				h.min = Math.min(h.min, value);
+				h.max = value;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Add the pixels of a rectangle of a processor to the histogram.
+	 *
+	 * @param ip
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	void add(ImageProcessor ip, int x, int y, int width, int height) {
+		if (range != null)
+			throw new IllegalStateException("32-bit histograms cannot be extended");
+		for (int yy = y; yy < y + height; yy++) {
+			for (int xx = x; xx < x + width; xx++) {
+				int value = ip.get(xx, yy);
+				histogram[value]++;
+				if (value < min) min = value;
+				if (value > max) max = value;
+			}
+		}
+	}
+
+	/**
+	 * Threshold range {lower, upper} of the bright objects on a dark background.
+	 *
+	 * @param method name of an AutoThresholder method
+	 */
+	double[] getDarkBackgroundThreshold(String method) {
+		int[] bins;
+		if (histogram.length == 256) { // 8-bit, or 32-bit binned already
+			bins = histogram;
+		} else {
+			bins = new int[256];
+			double scale = 256.0 / (max - min + 1);
+			for (int value = min; value <= max; value++) {
+				int bin = (int) ((value - min) * scale + 0.5);
+				bins[bin > 255 ? 255 : bin] += histogram[value];
+			}
+		}
+		int level = new AutoThresholder().getThreshold(method, bins);
+		double lower = level + 1, upper = 255.0;
+		if (lower > 255)
+			lower = 255;
+		if (range != null)
+			return scaleFloat(lower);
+		if (histogram.length == 256)
+			return new double[] { lower, upper };
+		/* back to 16-bit, like ImageProcessor.scaleAndSetThreshold() and ShortProcessor.setThreshold() */
+		if (max > min) {
+			lower = min + (lower / 255.0) * (max - min);
+			upper = 65535.0;
+		} else {
+			lower = upper = min;
+		}
+		lower = Math.round(Math.max(lower, 0));
+		upper = Math.round(Math.min(upper, 65535.0));
+		return new double[] { lower, upper };
+	}
+
+	/**
+	 * Level of the 8-bit bins back to 32-bit, like ImageProcessor.scaleAndSetThreshold().
+	 */
+	private double[] scaleFloat(double lower) {
+		double fmin = range[0], fmax = range[1];
+		if (fmax <= fmin)
+			return new double[] { fmin, fmin };
+		lower = lower == 0 ? Math.min(fmin, -1e30) : fmin + (lower / 255.0) * (fmax - fmin);
+		return new double[] { lower, Math.max(fmax, 1e30) };
+	}
+}
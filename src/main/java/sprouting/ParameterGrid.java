@@ -0,0 +1,266 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import morphology.BitMask;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * Sensitivity analysis: the sprout analysis of one frame for every point of a
+ * grid of blur_sprout, min_plexus_area, min_sprout_area and bead_radius values.
+ *
+ * The grid is walked so that the intermediate images are shared between the
+ * points that depend on the same upstream parameters:
+ * <ul>
+ * <li>the bead channel is blurred and thresholded once, and only the
+ * erosion and dilation are repeated for each bead radius; the bead mask of
+ * each radius is handed to all points with setBeadMask();</li>
+ * <li>the points are split into tasks by blur (and plexus area, if there are
+ * fewer blur values than threads), each on its own caching analyzer. Within a
+ * task, the plexus area changes slowest and the sprout area fastest, so the
+ * blurred channel is computed once per task, the plexus mask once per plexus
+ * area, and the sprouts connected to the beads once per plexus area and bead
+ * radius; only the final size filter and the downstream stages are repeated
+ * for each sprout area.</li>
+ * </ul>
+ * The tasks run in parallel on a pool of the given number of threads, and the
+ * stages of each grid point on the thread of its task.
+ *
+ * <pre>
+ * List&lt;SproutResults&gt; results = new ParameterGrid(parameters)
+ * 		.sproutBlur(2, 3, 4).minSproutArea(50, 100, 200)
+ * 		.run(imp, 1, 4);
+ * </pre>
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public final class ParameterGrid {
+	private final SproutParameters base;
+	private double[] sproutBlur, minPlexusArea, minSproutArea, beadRadius;
+
+	/**
+	 * Grid with the single point of the given parameters, which also supply
+	 * all parameters that are not varied. The sprout area, sprout count and
+	 * network length are always measured.
+	 *
+	 * @param parameters
+	 */
+	public ParameterGrid(SproutParameters parameters) {
+		base = parameters.toBuilder()
+				.measure(Measurement.TOTAL_SPROUT_AREA, true)
+				.measure(Measurement.SPROUT_COUNT, true)
+				.measure(Measurement.NETWORK_LENGTH, true)
+				.perBead(false)
+				.stageTimings(false)
+				.build();
+		sproutBlur = new double[] { base.getSproutBlur() };
+		minPlexusArea = new double[] { base.getMinPlexusArea() };
+		minSproutArea = new double[] { base.getMinSproutArea() };
+		beadRadius = new double[] { base.getBeadRadius() };
+	}
+
+	public ParameterGrid sproutBlur(double... values) {
+		sproutBlur = check(values);
+		return this;
+	}
+
+	public ParameterGrid minPlexusArea(double... values) {
+		minPlexusArea = check(values);
+		return this;
+	}
+
+	public ParameterGrid minSproutArea(double... values) {
+		minSproutArea = check(values);
+		return this;
+	}
+
+	public ParameterGrid beadRadius(double... values) {
+		beadRadius = check(values);
+		return this;
+	}
+
+	/**
+	 * Number of grid points.
+	 */
+	public int size() {
+		return sproutBlur.length * minPlexusArea.length * minSproutArea.length * beadRadius.length;
+	}
+
+	/**
+	 * Parameters of a grid point, in the order of run(): blur, plexus area,
+	 * sprout area and bead radius, the last one changing fastest.
+	 *
+	 * @param index
+	 */
+	public SproutParameters getParameters(int index) {
+		int r = index % beadRadius.length;
+		index /= beadRadius.length;
+		int s = index % minSproutArea.length;
+		index /= minSproutArea.length;
+		int p = index % minPlexusArea.length;
+		int b = index / minPlexusArea.length;
+		return pointOf(b, p, s, r);
+	}
+
+	/**
+	 * Analyze one frame of an image at every grid point.
+	 *
+	 * @param imp
+	 * @param frame (1-based)
+	 * @param nThreads
+	 * @return results of the grid points, in the order of getParameters()
+	 * @throws IllegalArgumentException if a channel or the frame is not in the image
+	 * @throws IllegalStateException if a grid point could not be analyzed
+	 * @throws InterruptedException
+	 */
+	public List<SproutResults> run(final ImagePlus imp, final int frame, int nThreads) throws InterruptedException {
+		SproutAnalysis.check(imp, frame, base);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nThreads));
+		try {
+			/* 1 - bead masks, from the same thresholded bead channel */
+			final BitMask candidates = newAnalyzer(imp, frame, base).findBeadCandidates();
+			List<Future<BitMask>> beadFutures = new ArrayList<Future<BitMask>>();
+			for (int r = 0; r < beadRadius.length; r++) {
+				final SproutParameters p = pointOf(0, 0, 0, r);
+				beadFutures.add(executor.submit(() -> newAnalyzer(imp, frame, p).findBeadMask(candidates)));
+			}
+			final BitMask[] beads = new BitMask[beadRadius.length];
+			for (int r = 0; r < beads.length; r++)
+				beads[r] = get(beadFutures.get(r));
+
+			/* 2 - sprouts and downstream stages, one task per blur (and plexus area) */
+			final SproutResults[] results = new SproutResults[size()];
+			boolean splitPlexus = sproutBlur.length < nThreads;
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int b = 0; b < sproutBlur.length; b++) {
+				final int blur = b;
+				if (splitPlexus) {
+					for (int p = 0; p < minPlexusArea.length; p++) {
+						final int plexus = p;
+						futures.add(executor.submit(() -> analyze(imp, frame, beads, blur, plexus, plexus + 1, results)));
+					}
+				} else {
+					futures.add(executor.submit(() -> analyze(imp, frame, beads, blur, 0, minPlexusArea.length, results)));
+				}
+			}
+			for (Future<?> future : futures)
+				get(future);
+			return Arrays.asList(results);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Add one row per grid point to a ResultsTable: the varied parameters, then the measurements.
+	 *
+	 * @param results results of run()
+	 * @param table
+	 */
+	public static void addTo(List<SproutResults> results, ResultsTable table) {
+		for (SproutResults r : results) {
+			ResultsTable row = new ResultsTable();
+			r.addTo(row);
+			SproutParameters p = r.getParameters();
+			table.incrementCounter();
+			table.setPrecision(5);
+			table.addLabel(row.getLabel(0));
+			table.addValue("blur_radius_for_sprout", p.getSproutBlur());
+			table.addValue("minimum_plexus_area", p.getMinPlexusArea());
+			table.addValue("minimum_sprout_area", p.getMinSproutArea());
+			table.addValue("minimum_bead_radius", p.getBeadRadius());
+			for (int col = 0; col <= row.getLastColumn(); col++) {
+				if (row.columnExists(col))
+					table.addValue(row.getColumnHeading(col), row.getValueAsDouble(col, 0));
+			}
+		}
+	}
+
+	/**
+	 * Analyze the grid points of one blur and a range of plexus areas on one caching analyzer.
+	 */
+	private void analyze(ImagePlus imp, int frame, BitMask[] beads, int b, int p0, int p1, SproutResults[] results) {
+		Sprout_Analyzer analyzer = newAnalyzer(imp, frame, base);
+		analyzer.setCaching(true);
+		try {
+			for (int p = p0; p < p1; p++) {
+				for (int r = 0; r < beadRadius.length; r++) {
+					analyzer.setBeadMask(beads[r]);
+					for (int s = 0; s < minSproutArea.length; s++) {
+						analyzer.setParameters(pointOf(b, p, s, r));
+						analyzer.analyze(StageScheduler.CALLER); // the tasks are parallel already
+						results[indexOf(b, p, s, r)] = analyzer.getResults(Collections.<SproutResults>emptyList());
+					}
+				}
+			}
+		} finally {
+			analyzer.setCaching(false); // release cached images
+		}
+	}
+
+	private SproutParameters pointOf(int b, int p, int s, int r) {
+		return base.toBuilder()
+				.sprouts(base.getSproutThreshold(), sproutBlur[b], minPlexusArea[p], minSproutArea[s])
+				.beads(base.getBeadThreshold(), base.getBeadBlur(), beadRadius[r], base.getBeadDilation())
+				.build();
+	}
+
+	private int indexOf(int b, int p, int s, int r) {
+		return ((b * minPlexusArea.length + p) * minSproutArea.length + s) * beadRadius.length + r;
+	}
+
+	private static Sprout_Analyzer newAnalyzer(ImagePlus imp, int frame, SproutParameters parameters) {
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.setFrame(frame);
+		analyzer.setParameters(parameters);
+		return analyzer;
+	}
+
+	private static <T> T get(Future<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Could not analyze a grid point", e.getCause());
+		}
+	}
+
+	private static double[] check(double[] values) {
+		if (values.length == 0)
+			throw new IllegalArgumentException("At least one value required");
+		return values.clone();
+	}
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.ImagePlus;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reentrant entry point of the sprout analysis, for use as a library.
+ *
+ * Every call works on its own analyzer, with the given parameters only: no
+ * dialogs, ImageJ Prefs, WindowManager or shared ResultsTable are involved,
+ * and the input image is not modified. Several images (or frames of the same
+ * image) can thus be analyzed concurrently from any number of threads.
+ *
+ * <pre>
+ * SproutParameters p = SproutParameters.DEFAULTS.toBuilder().channels(1, 2, 1, 3, 4).build();
+ * SproutResults r = SproutAnalysis.analyze(imp, p);
+ * double length = r.getNetworkLength();
+ * </pre>
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public final class SproutAnalysis {
+
+	private SproutAnalysis() {
+	}
+
+	/**
+	 * Analyze the first frame of an image.
+	 *
+	 * @param imp
+	 * @param parameters
+	 */
+	public static SproutResults analyze(ImagePlus imp, SproutParameters parameters) {
+		return analyze(imp, 1, parameters);
+	}
+
+	/**
+	 * Analyze one frame of an image.
+	 *
+	 * @param imp
+	 * @param frame (1-based)
+	 * @param parameters
+	 * @throws IllegalArgumentException if a channel or the frame is not in the image
+	 */
+	public static SproutResults analyze(ImagePlus imp, int frame, SproutParameters parameters) {
+		return analyze(imp, frame, parameters, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Analyze one frame of an image, running the pipeline stages that do not
+	 * depend on each other concurrently on the given executor. The calling
+	 * thread waits for them: code that already analyzes images in parallel on a
+	 * pool of its own should pass an executor that runs them on the calling
+	 * thread ({@code Runnable::run}), not that pool.
+	 *
+	 * @param imp
+	 * @param frame (1-based)
+	 * @param parameters
+	 * @param executor
+	 * @throws IllegalArgumentException if a channel or the frame is not in the image
+	 */
+	public static SproutResults analyze(ImagePlus imp, int frame, SproutParameters parameters, Executor executor) {
+		check(imp, frame, parameters);
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.setFrame(frame);
+		analyzer.setParameters(parameters);
+		analyzer.analyze(executor);
+		List<SproutResults> beads = new ArrayList<SproutResults>();
+		if (parameters.isPerBead()) {
+			try {
+				beads = analyzer.getBeadResults(Runtime.getRuntime().availableProcessors());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while measuring the beads of " + imp.getTitle(), e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Could not measure the beads of " + imp.getTitle(), e.getCause());
+			}
+		}
+		return analyzer.getResults(beads);
+	}
+
+	/**
+	 * Check that the channels of the parameters and the frame are in the image.
+	 *
+	 * @param imp
+	 * @param frame (1-based)
+	 * @param parameters
+	 * @throws IllegalArgumentException if a channel or the frame is not in the image
+	 */
+	static void check(ImagePlus imp, int frame, SproutParameters parameters) {
+		int nChannels = imp.getNChannels();
+		for (int channel : new int[] { parameters.getBeadChannel(), parameters.getSproutChannel(), parameters.getNucleusChannel(),
+				parameters.getEcChannel(), parameters.getPericyteChannel() })
+			if (channel < 1 || channel > nChannels)
+				throw new IllegalArgumentException(imp.getTitle() + " has no channel " + channel);
+		if (frame < 1 || frame > imp.getNFrames())
+			throw new IllegalArgumentException(imp.getTitle() + " has no frame " + frame);
+	}
+}
@@ -0,0 +1,411 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * Resident analysis server, so that scripted runs neither pay for starting
+ * ImageJ nor for warming up the JIT on every image.
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp ij.jar:Sprout_Analysis.jar sprouting.SproutDaemon [port [threads [queue [connections]]]]
+ * </pre>
+ *
+ * The server only listens on the loopback interface (default port 7878),
+ * and serves at most connections clients at the same time (default 16);
+ * further clients wait in the backlog of the socket until one disconnects.
+ * A client sends one job per line: the path of an image, optionally followed
+ * by a tab and the parameters as key=value pairs separated by spaces, with
+ * the keys of the ImageJ Prefs of the plugin (e.g. "sprouts=2
+ * sprout_threshold=Li ec_number=true"); missing keys take their default
+ * value. The key tile_size=N analyzes an uncompressed TIFF tile by tile
+ * (without results_per_bead and the cell measurements number_of_cells,
+ * cell_density and ec_number, which are selected by default).
+ *
+ * At most threads jobs run at the same time, and at most queue jobs wait;
+ * when the queue is full, the server stops reading from the connection
+ * until a job finishes. The results are written back as soon as a job is
+ * done, so they may arrive in a different order than the jobs. Every line
+ * starts with the number of the job on its connection (from 1) and its path:
+ * 
+ * <pre>
+ * 1	/data/well_A1.tif	result	Label=well_A1.tif	n(beads)=6	...
+ * 1	/data/well_A1.tif	done
+ * 2	/data/well_A2.tif	error	could not open the image
+ * </pre>
+ * 
+ * There is one result line per frame, followed by one line per bead with
+ * results_per_bead=true. The connection is closed when the client has
+ * closed its side and all its jobs are done.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class SproutDaemon {
+	public static final int DEFAULT_PORT = 7878;
+	public static final int DEFAULT_CONNECTIONS = 16;
+
+	private final ExecutorService workers;
+	private final Semaphore slots; // running and waiting jobs
+	private final ExecutorService connections;
+	private final Semaphore connectionSlots; // connections being served
+
+	/**
+	 * @param threads number of jobs that run at the same time
+	 * @param queue number of jobs that can wait
+	 */
+	public SproutDaemon(int threads, int queue) {
+		this(threads, queue, DEFAULT_CONNECTIONS);
+	}
+
+	/**
+	 * @param threads number of jobs that run at the same time
+	 * @param queue number of jobs that can wait
+	 * @param maxConnections number of connections that are served at the same time
+	 */
+	public SproutDaemon(int threads, int queue, int maxConnections) {
+		workers = Executors.newFixedThreadPool(threads);
+		slots = new Semaphore(threads + queue);
+		AtomicInteger connectionNumber = new AtomicInteger();
+		connections = Executors.newFixedThreadPool(maxConnections, task -> {
+			Thread thread = new Thread(task, "Sprout connection " + connectionNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		connectionSlots = new Semaphore(maxConnections);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int queue = args.length > 2 ? Integer.parseInt(args[2]) : 4 * threads;
+		int maxConnections = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_CONNECTIONS;
+		new SproutDaemon(threads, queue, maxConnections).serve(port);
+	}
+
+	/**
+	 * Accept connections on the loopback interface until interrupted. A
+	 * connection is only accepted when one of the connection threads is free.
+	 *
+	 * @param port
+	 * @throws IOException
+	 */
+	public void serve(int port) throws IOException {
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			System.err.println("Sprout Analyzer listening on " + server.getLocalSocketAddress());
+			while (!Thread.currentThread().isInterrupted()) {
+				connectionSlots.acquire();
+				final Socket socket;
+				try {
+					socket = server.accept();
+				} catch (IOException e) {
+					connectionSlots.release();
+					throw e;
+				}
+				connections.execute(() -> {
+					try {
+						handle(socket);
+					} finally {
+						connectionSlots.release();
+					}
+				});
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Stop the connection and worker threads, interrupting the running jobs.
+	 */
+	void shutdown() {
+		connections.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Read the jobs of a connection, and write their results as they are done.
+	 *
+	 * @param socket
+	 */
+	void handle(Socket socket) {
+		Phaser pending = new Phaser(1); // jobs of this connection that are not done yet
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+			int job = 0;
+			for (String line; (line = in.readLine()) != null;) {
+				if (line.trim().isEmpty())
+					continue;
+				final String prefix = (++job) + "\t" + line.split("\t", 2)[0] + "\t";
+				final String request = line;
+				slots.acquire();
+				pending.register();
+				workers.execute(() -> {
+					try {
+						List<String> rows = run(request);
+						synchronized (out) {
+							for (String row : rows)
+								out.println(prefix + "result\t" + row);
+							out.println(prefix + "done");
+							out.flush();
+						}
+					} catch (Exception | OutOfMemoryError e) {
+						synchronized (out) {
+							out.println(prefix + "error\t" + String.valueOf(e.getMessage()).replace('\n', ' '));
+							out.flush();
+						}
+					} finally {
+						slots.release();
+						pending.arriveAndDeregister();
+					}
+				});
+			}
+			pending.arriveAndAwaitAdvance();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			IJ.log("Sprout Analyzer: connection closed (" + e.getMessage() + ")");
+		}
+	}
+
+	/**
+	 * Analyze one job, returning its result rows.
+	 *
+	 * @param request path, optionally followed by a tab and the options
+	 * @throws IOException
+	 */
+	static List<String> run(String request) throws IOException {
+		String[] parts = request.split("\t", 2);
+		String path = parts[0].trim();
+		String options = parts.length > 1 ? parts[1] : "";
+		SproutParameters parameters = parse(options);
+		int tileSize = new Options(options).integer("tile_size", 0);
+		List<SproutResults> results = new ArrayList<SproutResults>();
+		if (tileSize > 0) {
+			TileSource source = TileSource.open(new File(path));
+			for (int channel : new int[] { parameters.getBeadChannel(), parameters.getSproutChannel(), parameters.getPericyteChannel() })
+				if (channel > source.getNChannels())
+					throw new IllegalArgumentException(source.getTitle() + " has no channel " + channel);
+			Sprout_Analyzer analyzer = new Sprout_Analyzer();
+			analyzer.init(source);
+			analyzer.setParameters(parameters);
+			analyzer.analyzeTiled(source, tileSize);
+			results.add(analyzer.getResults(new ArrayList<SproutResults>()));
+		} else {
+			ImagePlus imp = IJ.openImage(path);
+			if (imp == null)
+				throw new IOException("could not open the image");
+			try {
+				for (int t = 1; t <= imp.getNFrames(); t++)
+					results.add(SproutAnalysis.analyze(imp, t, parameters, StageScheduler.CALLER)); // jobs are parallel already
+			} finally {
+				imp.close();
+			}
+		}
+		List<String> rows = new ArrayList<String>();
+		for (SproutResults r : results) {
+			rows.add(format(r));
+			for (SproutResults bead : r.getBeadResults())
+				rows.add(format(bead));
+		}
+		return rows;
+	}
+
+	/**
+	 * One result row as tab-separated key=value pairs.
+	 */
+	private static String format(SproutResults results) {
+		ResultsTable row = new ResultsTable();
+		results.addTo(row);
+		StringBuilder line = new StringBuilder("Label=").append(row.getLabel(0));
+		for (int col = 0; col <= row.getLastColumn(); col++)
+			if (row.columnExists(col))
+				line.append('\t').append(row.getColumnHeading(col)).append('=').append(row.getValueAsDouble(col, 0));
+		return line.toString();
+	}
+
+	/**
+	 * Parameters from key=value options, with the keys of the ImageJ Prefs of
+	 * Sprout_Analyzer (and tile_size); missing keys keep their defaults.
+	 *
+	 * @param options
+	 * @throws IllegalArgumentException for unknown keys, values that are not numbers, integers or flags, and
+	 *             parameters that SproutParameters rejects (e.g. channels below 1 or unknown threshold methods),
+	 *             and results_per_bead or cell measurements with tile_size
+	 */
+	static SproutParameters parse(String options) {
+		SproutParameters d = SproutParameters.DEFAULTS;
+		Options o = new Options(options);
+		SproutParameters.Builder b = d.toBuilder()
+				.channels(
+						o.integer("beads", d.getBeadChannel()),
+						o.integer("sprouts", d.getSproutChannel()),
+						o.integer("nucleus_marker", d.getNucleusChannel()),
+						o.integer("endothelial_cell_nuclei", d.getEcChannel()),
+						o.integer("pericyte_marker", d.getPericyteChannel()))
+				.masks(o.flag("bead_mask", d.isBeadMask()), o.flag("sprout_mask", d.isSproutMask()))
+				.beads(o.get("bead_threshold", d.getBeadThreshold()),
+						o.number("blur_radius_for_bead", d.getBeadBlur()),
+						o.number("minimum_bead_radius", d.getBeadRadius()),
+						o.number("dilate_beads", d.getBeadDilation()))
+				.beadDownsampling(o.integer("bead_downsampling", d.getBeadDownsampling()))
+				.sprouts(o.get("sprout_threshold", d.getSproutThreshold()),
+						o.number("blur_radius_for_sprout", d.getSproutBlur()),
+						o.number("minimum_plexus_area", d.getMinPlexusArea()),
+						o.number("minimum_sprout_area", d.getMinSproutArea()))
+				.borderClusters(o.flag("exclude_cell_clusters", d.isExcludeBorderClusters()),
+						o.number("minimum_cluster_for_exclusion", d.getMinClusterSize()))
+				.recoverInterrupted(o.flag("recover_interrupted_structures", d.isRecoverInterrupted()))
+				.nuclei(o.get("nucleus_threshold", d.getNucleusThreshold()),
+						o.number("blur_radius_for_nuclei", d.getNucleusBlur()),
+						o.number("nucleus_tolerance", d.getNucleusTolerance()),
+						o.number("minimum_nucleus_area", d.getMinNucleusArea()))
+				.backgroundRadius(o.number("background_radius", d.getBackgroundRadius()))
+				.ec(o.get("ec_threshold", d.getEcThreshold()),
+						o.number("minimum_ec_area", d.getMinEcArea()),
+						o.flag("quantify_cell_numbers", d.isCellNumbers()),
+						o.flag("quantify_cell_fraction", d.isCellFraction()))
+				.pericytes(o.get("pericyte_threshold", d.getPericyteThreshold()),
+						o.flag("quantify_pericyte_area", d.isPericyteArea()),
+						o.flag("quantify_pericyte_fraction", d.isPericyteFraction()))
+				.measure(Measurement.BEAD_COUNT, o.flag("number_of_beads", d.isMeasured(Measurement.BEAD_COUNT)))
+				.measure(Measurement.SPROUT_COUNT, o.flag("number_of_sprouts", d.isMeasured(Measurement.SPROUT_COUNT)))
+				.measure(Measurement.TOTAL_SPROUT_AREA, o.flag("total_sprout_area", d.isMeasured(Measurement.TOTAL_SPROUT_AREA)))
+				.measure(Measurement.NETWORK_LENGTH, o.flag("total_network_length", d.isMeasured(Measurement.NETWORK_LENGTH)))
+				.measure(Measurement.CELL_COUNT, o.flag("number_of_cells", d.isMeasured(Measurement.CELL_COUNT)))
+				.measure(Measurement.AVERAGE_SPROUT_LENGTH, o.flag("average_sprout_length", d.isMeasured(Measurement.AVERAGE_SPROUT_LENGTH)))
+				.measure(Measurement.AVERAGE_SPROUT_WIDTH, o.flag("average_sprout_width", d.isMeasured(Measurement.AVERAGE_SPROUT_WIDTH)))
+				.measure(Measurement.CELL_DENSITY, o.flag("cell_density", d.isMeasured(Measurement.CELL_DENSITY)))
+				.measure(Measurement.EC_COUNT, o.flag("ec_number", d.isMeasured(Measurement.EC_COUNT)))
+				.measure(Measurement.PERICYTE_COVERAGE, o.flag("pericyte_coverage", d.isMeasured(Measurement.PERICYTE_COVERAGE)))
+				.measure(Measurement.BRANCHING, o.flag("branching", d.isMeasured(Measurement.BRANCHING)))
+				.measure(Measurement.LONGEST_PATH, o.flag("longest_path", d.isMeasured(Measurement.LONGEST_PATH)))
+				.perBead(o.flag("results_per_bead", d.isPerBead()))
+				.stageTimings(o.flag("stage_timings", d.isStageTimings()));
+		int tileSize = o.integer("tile_size", 0);
+		if (tileSize < 0)
+			throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+		o.checkUsed();
+		SproutParameters parameters = b.build();
+		if (tileSize > 0 && parameters.isPerBead())
+			throw new IllegalArgumentException("results_per_bead is not available with tile_size");
+		if (tileSize > 0 && (parameters.isMeasured(Measurement.CELL_COUNT) || parameters.isMeasured(Measurement.CELL_DENSITY)
+				|| parameters.isMeasured(Measurement.EC_COUNT)))
+			throw new IllegalArgumentException("number_of_cells, cell_density and ec_number are not available with tile_size");
+		return parameters;
+	}
+
+	/**
+	 * Options in the form key=value, separated by spaces; values with spaces can be put in [brackets].
+	 */
+	static class Options {
+		private static final Pattern OPTION = Pattern.compile("(\\w+)=(\\[[^\\]]*\\]|\\S+)");
+		private final Map<String, String> values = new HashMap<String, String>();
+		private final Set<String> used = new HashSet<String>();
+
+		Options(String options) {
+			Matcher m = OPTION.matcher(options);
+			while (m.find()) {
+				String value = m.group(2);
+				values.put(m.group(1), value.startsWith("[") ? value.substring(1, value.length() - 1) : value);
+			}
+		}
+
+		String get(String key, String defaultValue) {
+			used.add(key);
+			return values.containsKey(key) ? values.get(key) : defaultValue;
+		}
+
+		double number(String key, double defaultValue) {
+			String value = get(key, null);
+			if (value == null)
+				return defaultValue;
+			try {
+				return Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a number: " + key + "=" + value);
+			}
+		}
+
+		int integer(String key, int defaultValue) {
+			String value = get(key, null);
+			if (value == null)
+				return defaultValue;
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not an integer: " + key + "=" + value);
+			}
+		}
+
+		boolean flag(String key, boolean defaultValue) {
+			String value = get(key, null);
+			if (value == null)
+				return defaultValue;
+			if (!value.equals("true") && !value.equals("false"))
+				throw new IllegalArgumentException("Not true or false: " + key + "=" + value);
+			return value.equals("true");
+		}
+
+		/**
+		 * @throws IllegalArgumentException if an option was not read, e.g. because of a typo
+		 */
+		void checkUsed() {
+			for (String key : values.keySet())
+				if (!used.contains(key))
+					throw new IllegalArgumentException("Unknown option: " + key);
+		}
+	}
+}
@@ -0,0 +1,622 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.process.AutoThresholder;
+import java.util.Arrays;
+
+/**
+ * Immutable set of parameters of the sprout analysis, for SproutAnalysis.
+ *
+ * The values have the same meaning and units as the fields of the plugin
+ * dialogs; channels are 1-based, lengths and areas are calibrated unless
+ * noted otherwise. New parameter sets are made with a Builder, starting
+ * from DEFAULTS (the defaults of the dialogs) or from another set.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public final class SproutParameters {
+
+	/**
+	 * Measurements that can be selected. The order is the one of the
+	 * checkboxes of the dialog.
+	 */
+	public enum Measurement {
+		BEAD_COUNT, AVERAGE_SPROUT_LENGTH, SPROUT_COUNT, AVERAGE_SPROUT_WIDTH,
+		CELL_COUNT, CELL_DENSITY, TOTAL_SPROUT_AREA, EC_COUNT,
+		NETWORK_LENGTH, PERICYTE_COVERAGE, BRANCHING, LONGEST_PATH
+	}
+
+	/** Default parameters, as in the dialogs of the plugin */
+	public static final SproutParameters DEFAULTS = new Builder().build();
+
+	/* Channel configuration */
+	private final int beadChannel, sproutChannel, nucleusChannel, ecChannel, pericyteChannel;
+	private final boolean beadMask, sproutMask;
+
+	/* Bead recognition */
+	private final String beadThreshold;
+	private final double beadBlur, beadRadius, beadDilation;
+	private final int beadDownsampling;
+
+	/* Sprout recognition */
+	private final String sproutThreshold;
+	private final double sproutBlur, minPlexusArea, minSproutArea, minClusterSize;
+	private final boolean recoverInterrupted, excludeBorderClusters;
+
+	/* Nuclei */
+	private final String nucleusThreshold;
+	private final double nucleusBlur, nucleusTolerance, minNucleusArea, backgroundRadius;
+
+	/* EC classification */
+	private final String ecThreshold;
+	private final double minEcArea;
+	private final boolean cellNumbers, cellFraction;
+
+	/* Pericyte area */
+	private final String pericyteThreshold;
+	private final boolean pericyteArea, pericyteFraction;
+
+	/* Output */
+	private final boolean[] measurements;
+	private final boolean perBead, stageTimings;
+
+	private SproutParameters(Builder b) {
+		beadChannel = b.beadChannel;
+		sproutChannel = b.sproutChannel;
+		nucleusChannel = b.nucleusChannel;
+		ecChannel = b.ecChannel;
+		pericyteChannel = b.pericyteChannel;
+		beadMask = b.beadMask;
+		sproutMask = b.sproutMask;
+		beadThreshold = b.beadThreshold;
+		beadBlur = b.beadBlur;
+		beadRadius = b.beadRadius;
+		beadDilation = b.beadDilation;
+		beadDownsampling = b.beadDownsampling;
+		sproutThreshold = b.sproutThreshold;
+		sproutBlur = b.sproutBlur;
+		minPlexusArea = b.minPlexusArea;
+		minSproutArea = b.minSproutArea;
+		minClusterSize = b.minClusterSize;
+		recoverInterrupted = b.recoverInterrupted;
+		excludeBorderClusters = b.excludeBorderClusters;
+		nucleusThreshold = b.nucleusThreshold;
+		nucleusBlur = b.nucleusBlur;
+		nucleusTolerance = b.nucleusTolerance;
+		minNucleusArea = b.minNucleusArea;
+		backgroundRadius = b.backgroundRadius;
+		ecThreshold = b.ecThreshold;
+		minEcArea = b.minEcArea;
+		cellNumbers = b.cellNumbers;
+		cellFraction = b.cellFraction;
+		pericyteThreshold = b.pericyteThreshold;
+		pericyteArea = b.pericyteArea;
+		pericyteFraction = b.pericyteFraction;
+		measurements = b.measurements.clone();
+		perBead = b.perBead;
+		stageTimings = b.stageTimings;
+	}
+
+	/**
+	 * Builder starting from these parameters.
+	 */
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+
+	public int getBeadChannel() {
+		return beadChannel;
+	}
+
+	public int getSproutChannel() {
+		return sproutChannel;
+	}
+
+	public int getNucleusChannel() {
+		return nucleusChannel;
+	}
+
+	public int getEcChannel() {
+		return ecChannel;
+	}
+
+	public int getPericyteChannel() {
+		return pericyteChannel;
+	}
+
+	/**
+	 * Whether the bead channel already is a mask, to be used without processing.
+	 */
+	public boolean isBeadMask() {
+		return beadMask;
+	}
+
+	/**
+	 * Whether the sprout channel already is a mask, to be used without processing.
+	 */
+	public boolean isSproutMask() {
+		return sproutMask;
+	}
+
+	public String getBeadThreshold() {
+		return beadThreshold;
+	}
+
+	/**
+	 * Sigma of the Gaussian blur of the bead channel (pixels).
+	 */
+	public double getBeadBlur() {
+		return beadBlur;
+	}
+
+	public double getBeadRadius() {
+		return beadRadius;
+	}
+
+	/**
+	 * Factor by which the beads are dilated after the erosion by the bead radius.
+	 */
+	public double getBeadDilation() {
+		return beadDilation;
+	}
+
+	/**
+	 * Factor by which the bead channel is downsampled for coarse-to-fine bead detection, 1 for none.
+	 */
+	public int getBeadDownsampling() {
+		return beadDownsampling;
+	}
+
+	public String getSproutThreshold() {
+		return sproutThreshold;
+	}
+
+	/**
+	 * Sigma of the Gaussian blur of the sprout channel (pixels).
+	 */
+	public double getSproutBlur() {
+		return sproutBlur;
+	}
+
+	/**
+	 * Minimum area of the sprout network (pixels).
+	 */
+	public double getMinPlexusArea() {
+		return minPlexusArea;
+	}
+
+	public double getMinSproutArea() {
+		return minSproutArea;
+	}
+
+	public double getMinClusterSize() {
+		return minClusterSize;
+	}
+
+	public boolean isRecoverInterrupted() {
+		return recoverInterrupted;
+	}
+
+	public boolean isExcludeBorderClusters() {
+		return excludeBorderClusters;
+	}
+
+	public String getNucleusThreshold() {
+		return nucleusThreshold;
+	}
+
+	public double getNucleusBlur() {
+		return nucleusBlur;
+	}
+
+	/**
+	 * Prominence of the maxima that separate touching nuclei.
+	 */
+	public double getNucleusTolerance() {
+		return nucleusTolerance;
+	}
+
+	public double getMinNucleusArea() {
+		return minNucleusArea;
+	}
+
+	/**
+	 * Radius of the background subtraction of the nucleus and EC channels (pixels).
+	 */
+	public double getBackgroundRadius() {
+		return backgroundRadius;
+	}
+
+	public String getEcThreshold() {
+		return ecThreshold;
+	}
+
+	public double getMinEcArea() {
+		return minEcArea;
+	}
+
+	/**
+	 * Whether EC_COUNT includes the numbers of ECs and pericytes.
+	 */
+	public boolean isCellNumbers() {
+		return cellNumbers;
+	}
+
+	/**
+	 * Whether EC_COUNT includes the fraction of pericytes.
+	 */
+	public boolean isCellFraction() {
+		return cellFraction;
+	}
+
+	public String getPericyteThreshold() {
+		return pericyteThreshold;
+	}
+
+	/**
+	 * Whether PERICYTE_COVERAGE includes the pericyte area.
+	 */
+	public boolean isPericyteArea() {
+		return pericyteArea;
+	}
+
+	/**
+	 * Whether PERICYTE_COVERAGE includes the pericyte area fraction.
+	 */
+	public boolean isPericyteFraction() {
+		return pericyteFraction;
+	}
+
+	public boolean isMeasured(Measurement measurement) {
+		return measurements[measurement.ordinal()];
+	}
+
+	/**
+	 * Selected measurements, indexed by the ordinal of the Measurement.
+	 */
+	boolean[] getMeasurements() {
+		return measurements.clone();
+	}
+
+	/**
+	 * Whether the measurements are also made for each bead.
+	 */
+	public boolean isPerBead() {
+		return perBead;
+	}
+
+	/**
+	 * Whether the results include the time, CPU time and memory of every stage.
+	 */
+	public boolean isStageTimings() {
+		return stageTimings;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof SproutParameters))
+			return false;
+		SproutParameters p = (SproutParameters) o;
+		return Arrays.asList(values()).equals(Arrays.asList(p.values())) && Arrays.equals(measurements, p.measurements);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(values()) + Arrays.hashCode(measurements);
+	}
+
+	@Override
+	public String toString() {
+		return "SproutParameters" + Arrays.toString(values()) + Arrays.toString(measurements);
+	}
+
+	private Object[] values() {
+		return new Object[] { beadChannel, sproutChannel, nucleusChannel, ecChannel, pericyteChannel, beadMask, sproutMask,
+				beadThreshold, beadBlur, beadRadius, beadDilation, beadDownsampling,
+				sproutThreshold, sproutBlur, minPlexusArea, minSproutArea, minClusterSize, recoverInterrupted, excludeBorderClusters,
+				nucleusThreshold, nucleusBlur, nucleusTolerance, minNucleusArea, backgroundRadius,
+				ecThreshold, minEcArea, cellNumbers, cellFraction,
+				pericyteThreshold, pericyteArea, pericyteFraction, perBead, stageTimings };
+	}
+
+	/**
+	 * Mutable builder of SproutParameters, initialized with the defaults.
+	 * The setters return the builder, so that they can be chained.
+	 */
+	public static final class Builder {
+		private int beadChannel = 1, sproutChannel = 2, nucleusChannel = 1, ecChannel = 3, pericyteChannel = 4;
+		private boolean beadMask = false, sproutMask = false;
+		private String beadThreshold = "Triangle";
+		private double beadBlur = 2.0, beadRadius = 60.0, beadDilation = 1.2;
+		private int beadDownsampling = 1;
+		private String sproutThreshold = "Li";
+		private double sproutBlur = 4.0, minPlexusArea = 5000, minSproutArea = 100, minClusterSize = 20000;
+		private boolean recoverInterrupted = false, excludeBorderClusters = false;
+		private String nucleusThreshold = "Minimum";
+		private double nucleusBlur = 1.0, nucleusTolerance = 5, minNucleusArea = 10, backgroundRadius = 50;
+		private String ecThreshold = "Default";
+		private double minEcArea = 10;
+		private boolean cellNumbers = true, cellFraction = true;
+		private String pericyteThreshold = "Default";
+		private boolean pericyteArea = false, pericyteFraction = true;
+		private boolean[] measurements = new boolean[Measurement.values().length];
+		private boolean perBead = false, stageTimings = false;
+
+		public Builder() {
+			for (Measurement m : Measurement.values())
+				measurements[m.ordinal()] = true;
+			measurements[Measurement.EC_COUNT.ordinal()] = false;
+			measurements[Measurement.PERICYTE_COVERAGE.ordinal()] = false;
+			measurements[Measurement.LONGEST_PATH.ordinal()] = false;
+		}
+
+		public Builder(SproutParameters p) {
+			beadChannel = p.beadChannel;
+			sproutChannel = p.sproutChannel;
+			nucleusChannel = p.nucleusChannel;
+			ecChannel = p.ecChannel;
+			pericyteChannel = p.pericyteChannel;
+			beadMask = p.beadMask;
+			sproutMask = p.sproutMask;
+			beadThreshold = p.beadThreshold;
+			beadBlur = p.beadBlur;
+			beadRadius = p.beadRadius;
+			beadDilation = p.beadDilation;
+			beadDownsampling = p.beadDownsampling;
+			sproutThreshold = p.sproutThreshold;
+			sproutBlur = p.sproutBlur;
+			minPlexusArea = p.minPlexusArea;
+			minSproutArea = p.minSproutArea;
+			minClusterSize = p.minClusterSize;
+			recoverInterrupted = p.recoverInterrupted;
+			excludeBorderClusters = p.excludeBorderClusters;
+			nucleusThreshold = p.nucleusThreshold;
+			nucleusBlur = p.nucleusBlur;
+			nucleusTolerance = p.nucleusTolerance;
+			minNucleusArea = p.minNucleusArea;
+			backgroundRadius = p.backgroundRadius;
+			ecThreshold = p.ecThreshold;
+			minEcArea = p.minEcArea;
+			cellNumbers = p.cellNumbers;
+			cellFraction = p.cellFraction;
+			pericyteThreshold = p.pericyteThreshold;
+			pericyteArea = p.pericyteArea;
+			pericyteFraction = p.pericyteFraction;
+			measurements = p.measurements.clone();
+			perBead = p.perBead;
+			stageTimings = p.stageTimings;
+		}
+
+		/**
+		 * Channels (1-based) of the beads, sprouts, nuclei, EC marker and pericyte marker.
+		 */
+		public Builder channels(int beads, int sprouts, int nuclei, int ec, int pericytes) {
+			beadChannel = beads;
+			sproutChannel = sprouts;
+			nucleusChannel = nuclei;
+			ecChannel = ec;
+			pericyteChannel = pericytes;
+			return this;
+		}
+
+		/**
+		 * Use the bead and/or sprout channel as masks, without segmenting them.
+		 */
+		public Builder masks(boolean beads, boolean sprouts) {
+			beadMask = beads;
+			sproutMask = sprouts;
+			return this;
+		}
+
+		/**
+		 * Bead recognition.
+		 * 
+		 * @param threshold automatic threshold method
+		 * @param blur sigma of the Gaussian blur (pixels)
+		 * @param radius minimum bead radius
+		 * @param dilation factor of the bead radius by which the beads are dilated
+		 */
+		public Builder beads(String threshold, double blur, double radius, double dilation) {
+			beadThreshold = threshold;
+			beadBlur = blur;
+			beadRadius = radius;
+			beadDilation = dilation;
+			return this;
+		}
+
+		/**
+		 * Coarse-to-fine bead detection: find the beads on a copy downsampled by
+		 * this factor and redo each of them at full resolution. The bead mask
+		 * only differs from the full-resolution one if a bead is missed at the
+		 * coarse scale.
+		 * 
+		 * @param factor 1 (full resolution), 2, 4 or 8
+		 */
+		public Builder beadDownsampling(int factor) {
+			beadDownsampling = factor;
+			return this;
+		}
+
+		/**
+		 * Sprout recognition.
+		 * 
+		 * @param threshold automatic threshold method
+		 * @param blur sigma of the Gaussian blur (pixels)
+		 * @param minPlexusArea minimum area of the network (pixels)
+		 * @param minSproutArea minimum area of a sprout
+		 */
+		public Builder sprouts(String threshold, double blur, double minPlexusArea, double minSproutArea) {
+			sproutThreshold = threshold;
+			sproutBlur = blur;
+			this.minPlexusArea = minPlexusArea;
+			this.minSproutArea = minSproutArea;
+			return this;
+		}
+
+		/**
+		 * Exclusion of cell clusters at the image border.
+		 * 
+		 * @param exclude
+		 * @param minClusterSize minimum size of an excluded cluster
+		 */
+		public Builder borderClusters(boolean exclude, double minClusterSize) {
+			excludeBorderClusters = exclude;
+			this.minClusterSize = minClusterSize;
+			return this;
+		}
+
+		public Builder recoverInterrupted(boolean recover) {
+			recoverInterrupted = recover;
+			return this;
+		}
+
+		/**
+		 * Nucleus segmentation.
+		 * 
+		 * @param threshold automatic threshold method
+		 * @param blur sigma of the Gaussian blur
+		 * @param tolerance prominence of the maxima that separate touching nuclei
+		 * @param minArea minimum nucleus area
+		 */
+		public Builder nuclei(String threshold, double blur, double tolerance, double minArea) {
+			nucleusThreshold = threshold;
+			nucleusBlur = blur;
+			nucleusTolerance = tolerance;
+			minNucleusArea = minArea;
+			return this;
+		}
+
+		/**
+		 * Radius of the background subtraction of the nucleus and EC channels (pixels).
+		 */
+		public Builder backgroundRadius(double radius) {
+			backgroundRadius = radius;
+			return this;
+		}
+
+		/**
+		 * EC classification.
+		 * 
+		 * @param threshold automatic threshold method
+		 * @param minArea minimum area of the EC marker within a nucleus
+		 * @param cellNumbers include the numbers of ECs and pericytes
+		 * @param cellFraction include the fraction of pericytes
+		 */
+		public Builder ec(String threshold, double minArea, boolean cellNumbers, boolean cellFraction) {
+			ecThreshold = threshold;
+			minEcArea = minArea;
+			this.cellNumbers = cellNumbers;
+			this.cellFraction = cellFraction;
+			return this;
+		}
+
+		/**
+		 * Pericyte coverage.
+		 * 
+		 * @param threshold automatic threshold method
+		 * @param area include the pericyte area
+		 * @param fraction include the pericyte area fraction
+		 */
+		public Builder pericytes(String threshold, boolean area, boolean fraction) {
+			pericyteThreshold = threshold;
+			pericyteArea = area;
+			pericyteFraction = fraction;
+			return this;
+		}
+
+		/**
+		 * Select or deselect a measurement.
+		 */
+		public Builder measure(Measurement measurement, boolean selected) {
+			measurements[measurement.ordinal()] = selected;
+			return this;
+		}
+
+		/**
+		 * Select exactly the given measurements.
+		 */
+		public Builder measureOnly(Measurement... selected) {
+			Arrays.fill(measurements, false);
+			for (Measurement m : selected)
+				measurements[m.ordinal()] = true;
+			return this;
+		}
+
+		public Builder perBead(boolean perBead) {
+			this.perBead = perBead;
+			return this;
+		}
+
+		public Builder stageTimings(boolean stageTimings) {
+			this.stageTimings = stageTimings;
+			return this;
+		}
+
+		/**
+		 * Set the measurements from the checkbox order of the dialog.
+		 */
+		Builder measurements(boolean[] selected) {
+			measurements = Arrays.copyOf(selected, measurements.length);
+			return this;
+		}
+
+		/**
+		 * Check and build the parameters.
+		 * 
+		 * @throws IllegalArgumentException for channels below 1, unknown threshold methods, an invalid bead downsampling,
+		 *             or negative (or NaN) blurs, radii, areas or tolerances
+		 */
+		public SproutParameters build() {
+			for (int channel : new int[] { beadChannel, sproutChannel, nucleusChannel, ecChannel, pericyteChannel })
+				if (channel < 1)
+					throw new IllegalArgumentException("Invalid channel: " + channel);
+			for (String method : new String[] { beadThreshold, sproutThreshold, nucleusThreshold, ecThreshold, pericyteThreshold })
+				if (!Arrays.asList(AutoThresholder.getMethods()).contains(method))
+					throw new IllegalArgumentException("Unknown threshold method: " + method);
+			if (beadDownsampling != 1 && beadDownsampling != 2 && beadDownsampling != 4 && beadDownsampling != 8)
+				throw new IllegalArgumentException("Invalid bead downsampling: " + beadDownsampling);
+			checkNotNegative("bead blur", beadBlur);
+			checkNotNegative("bead radius", beadRadius);
+			checkNotNegative("bead dilation", beadDilation);
+			checkNotNegative("sprout blur", sproutBlur);
+			checkNotNegative("minimum plexus area", minPlexusArea);
+			checkNotNegative("minimum sprout area", minSproutArea);
+			checkNotNegative("minimum cluster size", minClusterSize);
+			checkNotNegative("nucleus blur", nucleusBlur);
+			checkNotNegative("nucleus tolerance", nucleusTolerance);
+			checkNotNegative("minimum nucleus area", minNucleusArea);
+			checkNotNegative("background radius", backgroundRadius);
+			checkNotNegative("minimum EC area", minEcArea);
+			return new SproutParameters(this);
+		}
+
+		private static void checkNotNegative(String name, double value) {
+			if (!(value >= 0))
+				throw new IllegalArgumentException("Invalid " + name + ": " + value);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.measure.ResultsTable;
+import java.util.Collections;
+import java.util.List;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * Immutable measurements of one image (or one bead of an image), with the
+ * parameters they were made with.
+ *
+ * Lengths and areas are calibrated, in the unit of the image. Measurements
+ * whose stage did not run (see SproutParameters.isMeasured()) are 0.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public final class SproutResults {
+	private final String title, unit;
+	private final int frame; // 0 if the image is not a time series
+	private final int bead; // 0 for the whole image
+	private final double beadX, beadY;
+	private final SproutParameters parameters;
+	private final int beadCount, sproutCount, cellCount, pericyteCount;
+	private final double sproutArea, networkLength, averageSproutLength, junctionsPerSprout, longestPath, pericyteArea;
+	private final StageProfile profile; // not modified after the analysis
+	private final List<SproutResults> beads;
+
+	SproutResults(String title, String unit, int frame, int bead, double beadX, double beadY, SproutParameters parameters,
+			int beadCount, int sproutCount, int cellCount, int pericyteCount,
+			double sproutArea, double networkLength, double averageSproutLength, double junctionsPerSprout, double longestPath, double pericyteArea,
+			StageProfile profile, List<SproutResults> beads) {
+		this.title = title;
+		this.unit = unit;
+		this.frame = frame;
+		this.bead = bead;
+		this.beadX = beadX;
+		this.beadY = beadY;
+		this.parameters = parameters;
+		this.beadCount = beadCount;
+		this.sproutCount = sproutCount;
+		this.cellCount = cellCount;
+		this.pericyteCount = pericyteCount;
+		this.sproutArea = sproutArea;
+		this.networkLength = networkLength;
+		this.averageSproutLength = averageSproutLength;
+		this.junctionsPerSprout = junctionsPerSprout;
+		this.longestPath = longestPath;
+		this.pericyteArea = pericyteArea;
+		this.profile = profile;
+		this.beads = Collections.unmodifiableList(beads);
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Unit of the calibration of the image.
+	 */
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * Frame of a time series (1-based), or 0 if the image has a single frame.
+	 */
+	public int getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Number of the bead (1-based) these results belong to, or 0 for the whole image.
+	 */
+	public int getBead() {
+		return bead;
+	}
+
+	/**
+	 * Calibrated centroid of the bead, for per-bead results.
+	 */
+	public double getBeadX() {
+		return beadX;
+	}
+
+	public double getBeadY() {
+		return beadY;
+	}
+
+	public SproutParameters getParameters() {
+		return parameters;
+	}
+
+	public boolean isMeasured(Measurement measurement) {
+		return parameters.isMeasured(measurement);
+	}
+
+	public int getBeadCount() {
+		return beadCount;
+	}
+
+	public int getSproutCount() {
+		return sproutCount;
+	}
+
+	/**
+	 * Number of nuclei, ECs and pericytes.
+	 */
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	public int getEcCount() {
+		return cellCount - pericyteCount;
+	}
+
+	public int getPericyteCount() {
+		return pericyteCount;
+	}
+
+	public double getSproutArea() {
+		return sproutArea;
+	}
+
+	public double getNetworkLength() {
+		return networkLength;
+	}
+
+	public double getAverageSproutLength() {
+		return averageSproutLength;
+	}
+
+	public double getAverageSproutWidth() {
+		return sproutArea / networkLength;
+	}
+
+	public double getJunctionsPerSprout() {
+		return junctionsPerSprout;
+	}
+
+	public double getLongestPath() {
+		return longestPath;
+	}
+
+	public double getCellDensity() {
+		return cellCount / sproutArea;
+	}
+
+	public double getPericyteArea() {
+		return pericyteArea;
+	}
+
+	/**
+	 * Results of each bead, if measured per bead (otherwise empty).
+	 */
+	public List<SproutResults> getBeadResults() {
+		return beads;
+	}
+
+	/**
+	 * Add one row with the selected measurements to a ResultsTable (not the per-bead results).
+	 * 
+	 * @param result
+	 */
+	public void addTo(ResultsTable result) {
+		result.incrementCounter();
+		result.setPrecision(5);
+		result.addLabel(title);
+		if (frame > 0) result.addValue("Frame", frame);
+		if (bead > 0) {
+			result.addValue("Bead", bead);
+			result.addValue("X", beadX);
+			result.addValue("Y", beadY);
+		}
+		if (isMeasured(Measurement.BEAD_COUNT)) result.addValue("n(beads)", beadCount);
+		if (isMeasured(Measurement.SPROUT_COUNT)) result.addValue("n(sprouts)", sproutCount);
+		if (isMeasured(Measurement.CELL_COUNT)) result.addValue("n(cells)", cellCount);
+		if (isMeasured(Measurement.TOTAL_SPROUT_AREA)) result.addValue("Total sprout area (" + unit + "\u00B2)", sproutArea);
+		if (isMeasured(Measurement.NETWORK_LENGTH)) result.addValue("Total network length (" + unit + ")", networkLength);
+		if (isMeasured(Measurement.AVERAGE_SPROUT_LENGTH)) result.addValue("Average sprout length (" + unit + ")", averageSproutLength);
+		if (isMeasured(Measurement.AVERAGE_SPROUT_WIDTH)) result.addValue("Average sprout width (" + unit + ")", getAverageSproutWidth());
+		if (isMeasured(Measurement.BRANCHING)) result.addValue("Average junctions per sprout", junctionsPerSprout);
+		if (isMeasured(Measurement.LONGEST_PATH)) result.addValue("Longest sprout path (" + unit + ")", longestPath);
+		if (isMeasured(Measurement.CELL_DENSITY)) result.addValue("Cell density (1/" + unit + "\u00B2)", getCellDensity());
+		if (isMeasured(Measurement.EC_COUNT)) {
+			if (parameters.isCellNumbers()) {
+				result.addValue("Number of ECs", getEcCount());
+				result.addValue("Number of Pericytes", pericyteCount);
+			}
+			if (parameters.isCellFraction()) result.addValue("Pericytes per total cells", (double) pericyteCount / cellCount);
+		}
+		// TODO: optionally include total numbers of EC and pericytes
+		if (isMeasured(Measurement.PERICYTE_COVERAGE)) {
+			if (parameters.isPericyteArea()) result.addValue("Total pericyte area (" + unit + "\u00B2)", pericyteArea);
+			if (parameters.isPericyteFraction()) result.addValue("Pericyte area fraction", pericyteArea / sproutArea);
+		}
+		if (profile != null && bead == 0) profile.addResults(result);
+	}
+}
@@ -37,26 +37,20 @@ import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.Prefs;
-import ij.WindowManager;
 import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
 import ij.gui.ImageRoi;
 import ij.gui.Overlay;
 import ij.measure.Calibration;
-import ij.measure.Measurements;
 import ij.measure.ResultsTable;
-import ij.plugin.Duplicator;
-import ij.plugin.ImageCalculator;
-import ij.plugin.Thresholder;
-import ij.plugin.filter.Analyzer;
 import ij.plugin.filter.ExtendedPlugInFilter;
 import ij.plugin.filter.GaussianBlur;
 import ij.plugin.filter.MaximumFinder;
-import ij.plugin.filter.ParticleAnalyzer;
 import ij.plugin.filter.PlugInFilterRunner;
-import ij.plugin.filter.RankFilters;
 import ij.process.AutoThresholder;
-import ij.process.FloodFiller;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.LUT;
 import java.awt.AWTEvent;
@@ -64,10 +58,34 @@ import java.awt.Choice;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Label;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import morphology.BinaryMorphology;
 import morphology.BinaryReconstruct_;
-import sc.fiji.analyzeSkeleton.AnalyzeSkeleton_;
-import sc.fiji.analyzeSkeleton.SkeletonResult;
+import morphology.BitMask;
+import morphology.BoundaryCrossings;
+import morphology.ConnectedComponents;
+import morphology.NearestLabel;
+import morphology.SkeletonGraph;
+import morphology.Thinning;
+import morphology.TiledComponents;
+import morphology.TopHat;
+import sprouting.SproutParameters.Measurement;
 
 /**
  * Sprout segmentation plugin
@@ -81,17 +99,43 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	private static final String PREF_KEY = "sprout_analyzer.";
 	private static final double OVERLAY_OPACITY = 0.5;
 	private static final int NO_DIALOG = 0, CHANNEL_DIALOG = 1, BEAD_DIALOG = 2, SPROUT_DIALOG = 3, NUCLEUS_DIALOG = 4, PERICYTE_DIALOG = 5, PERICYTE_AREA_DIALOG = 6;
-	private static final int NUM_BEADS = 0, NUM_SPROUTS = 2, NUM_CELLS = 4, TOT_AREA = 6, TOT_LENGTH = 8, BRANCHING = 10, AVG_LENGTH = 1, AVG_WIDTH = 3, AVG_DENSITY = 5, NUM_EC = 7, PERI_AREA = 9; // custom order for param dialog
+	private static final int NUM_BEADS = 0, NUM_SPROUTS = 2, NUM_CELLS = 4, TOT_AREA = 6, TOT_LENGTH = 8, BRANCHING = 10, AVG_LENGTH = 1, AVG_WIDTH = 3, AVG_DENSITY = 5, NUM_EC = 7, PERI_AREA = 9, LONGEST_PATH = 11; // custom order for param dialog
+	private static final String[] DOWNSAMPLING = { "1", "2", "4", "8" }; // choices for bead_downsampling
+	private static final int MASK_TILE = 1024; // tile size for labeling the packed masks (see TiledComponents)
+	private static final double MAX_TILED_SIGMA = 4.5; // GaussianBlur downscales above 2*UPSCALE_K_RADIUS+0.5
+	private static final Stage[] METRIC_STAGES = new Stage[12]; // last stage each measurement depends on
+	static {
+		METRIC_STAGES[NUM_BEADS] = Stage.BEADS;
+		METRIC_STAGES[TOT_AREA] = Stage.SPROUTS;
+		METRIC_STAGES[NUM_SPROUTS] = Stage.SKELETON;
+		METRIC_STAGES[TOT_LENGTH] = Stage.SKELETON;
+		METRIC_STAGES[AVG_LENGTH] = Stage.SKELETON;
+		METRIC_STAGES[AVG_WIDTH] = Stage.SKELETON;
+		METRIC_STAGES[BRANCHING] = Stage.SKELETON;
+		METRIC_STAGES[LONGEST_PATH] = Stage.SKELETON;
+		METRIC_STAGES[NUM_CELLS] = Stage.NUCLEI;
+		METRIC_STAGES[AVG_DENSITY] = Stage.NUCLEI;
+		METRIC_STAGES[NUM_EC] = Stage.EC;
+		METRIC_STAGES[PERI_AREA] = Stage.PERICYTES;
+	}
 	private ImagePlus imp;
+	private String title;
+	private int frame = 1;
+	private BitMask fixed_beads; // bead mask given by setBeadMask(), instead of finding the beads
 	private boolean is16Bit;
 	private int nPasses;
 	private int flags = DOES_8G | DOES_16 | DOES_32 | NO_CHANGES;
 	private int dialog = NO_DIALOG;
 	private Label messageArea;
-	private ImagePlus bead_imp, sprout_imp, nuc_imp;
-	private GaussianBlur gb;
-	private Thresholder thr;
-	private RankFilters rf;
+	private ImagePlus nuc_imp, endo_imp;
+	private BitMask bead_mask, sprout_mask, ssp_mask; // beads, sprouts and their union
+	private BitMask skel_mask, peri_mask; // sprout skeleton (including the beads) and pericyte area
+	private List<?> bead_key; // stage key of bead_mask (see StageCache)
+	private int[] bead_starts; // first pixel of each bead (y*width+x)
+	private StageCache cache = new StageCache();
+	private final Map<List<Object>, ImagePlus> backgrounds = new ConcurrentHashMap<List<Object>, ImagePlus>(); // of the current analyze(), see getBackgroundSubtracted()
+	private int backgroundCount; // top-hats computed by this analyzer, for the tests
+	private final Map<Stage, Double> levels = Collections.synchronizedMap(new EnumMap<Stage, Double>(Stage.class)); // lower threshold of each stage, see setAutoThreshold()
 	private boolean userHasBlackBackground;
 
 	/*  Image-dependent variables */
@@ -109,6 +153,7 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	/* Bead recognition */
 	private String thr_bead;
 	private double blur_bead, bead_radius, bead_radius_multiplier;
+	private int bead_downsampling = 1; // coarse-to-fine bead detection on a copy downsampled by this factor (1 = off)
 
 	/* Sprout recognition */
 	private String thr_sprout;
@@ -119,6 +164,7 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	/* Nuclei */
 	private String thr_nuc;
 	private double min_nuc_area, blur_nuc, max_tolerance;
+	private double bg_radius; // background subtraction of the nucleus and EC channels (pixels)
 
 	/* EC classification */
 	private String thr_ec;
@@ -131,10 +177,14 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 
 	/* Output */
 	private boolean quantify[];
+	private boolean per_bead;
+	private boolean stage_timings;
+	private StageProfile profile; // measurements of the stages of the last analysis, if stage_timings
+	private long pixels_read; // pixels of the source (including halos) and of the masks read by the current stage of analyzeTiled()
 
 	/*  Results   */
 	private int num_beads, num_sprouts, num_nuc, num_peri;
-	private double sprout_area, avg_sprout_length, totalLength, peri_area, junctionsPerSprout;
+	private double sprout_area, avg_sprout_length, totalLength, peri_area, junctionsPerSprout, longest_path;
 
 	/* Overridden functions */
 
@@ -145,17 +195,39 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	public int setup (String arg, ImagePlus imp) {
 		this.imp = imp;
 		if (imp == null) return flags;
-		is16Bit = (imp.getType() == ImagePlus.GRAY16);
-		cal = imp.getCalibration();
-		pixel_size = cal.getX(1.0);
-		thr = new Thresholder();
-		gb = new GaussianBlur();
-		rf = new RankFilters();
+		init(imp);
+		cache.setEnabled(true); // the dialogs preview the same image many times
 		userHasBlackBackground = Prefs.blackBackground; // get user-set value
 		Prefs.blackBackground = true;// set blackbackground to true for this plugin 
 		return flags;
 	}
 
+	/**
+	 * Set the image-dependent variables without touching any global ImageJ state.
+	 * 
+	 * @param imp
+	 */
+	void init (ImagePlus imp) {
+		this.imp = imp;
+		title = imp.getTitle();
+		is16Bit = (imp.getType() == ImagePlus.GRAY16);
+		cal = imp.getCalibration();
+		pixel_size = cal.getX(1.0);
+	}
+
+	/**
+	 * Set the image-dependent variables for a tiled analysis.
+	 * 
+	 * @param source
+	 */
+	void init (TileSource source) {
+		this.imp = null;
+		title = source.getTitle();
+		is16Bit = (source.getBitDepth() == 16);
+		cal = source.getCalibration();
+		pixel_size = cal.getX(1.0);
+	}
+
 	/**
 	 * setNPasses
 	 */
@@ -169,6 +241,26 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	 */
 	@Override
 	public int showDialog (ImagePlus imp, String cmd, PlugInFilterRunner pfr) {
+		int result = DONE;
+		try {
+			result = showDialogs(imp, pfr);
+		} finally {
+			if (result == DONE) { // canceled: run() is not called, restore the user setting here
+				cache.setEnabled(false);
+				Prefs.blackBackground = userHasBlackBackground;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Show the parameter dialogs one after the other.
+	 *
+	 * @param imp
+	 * @param pfr
+	 * @return DONE if a dialog was canceled, the flags otherwise
+	 */
+	private int showDialogs (ImagePlus imp, PlugInFilterRunner pfr) {
 		Font bold = new Font("", Font.BOLD, 12);
 
 		int nChannels = imp.getNChannels();
@@ -189,7 +281,7 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 			"Number_of_cells",			"Cell_density",
 			"Total_sprout_area",		"Numbers of ECs/pericytes",
 			"Total_network_length",		"Pericyte_coverage (%area)",
-			"Branching_level"
+			"Branching_level",			"Longest_sprout_path"
 		};
 
 		// Dialog #1
@@ -206,6 +298,8 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 		gd1.addChoice("Nuclei", channels, channels[ch_nuc - 1]);
 		gd1.addChoice("Endothelial_cell_marker", channels, channels[ch_endo - 1]);
 		gd1.addChoice("Pericytes", channels, channels[ch_peri - 1]);
+		gd1.addCheckbox("Results_per_bead", per_bead);
+		gd1.addCheckbox("Stage_timings", stage_timings);
 
 		gd1.addDialogListener(this);
 
@@ -225,6 +319,7 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 			gd2.addSlider("Blur_radius_for_bead detection (" + cal.getUnits() + "):", 0.05, 5.0, blur_bead); // slider granularity = 0.05 only if max-min <= 5.0
 			gd2.addSlider("Minimum_bead_radius (" + cal.getUnits() + "):", 0, 150, bead_radius);
 			gd2.addSlider("Dilate_beads by factor:", 1, 5.5, bead_radius_multiplier);
+			gd2.addChoice("Bead_downsampling", DOWNSAMPLING, Integer.toString(bead_downsampling));
 			gd2.addPreviewCheckbox(pfr, "Preview bead detection");
 			gd2.addMessage(" ");
 			messageArea = (Label)gd2.getMessage();
@@ -266,6 +361,7 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 			gd4.addSlider("Blur_radius_for_nucleus segmentation (" + cal.getUnits() + "):", 0.05, 5.0, blur_nuc);
 			gd4.addSlider("Tolerance for nuclei separation:", 0, is16Bit ? 2000 : 20, max_tolerance);
 			gd4.addSlider("Minimal_nucleus_area (" + cal.getUnits() + "\u00B2):", 0, 200, min_nuc_area);
+			gd4.addSlider("Background_radius (pixels):", 5, 200, bg_radius);
 			gd4.addPreviewCheckbox(pfr, "Preview nucleus detection");
 			gd4.addDialogListener(this);
 
@@ -336,12 +432,15 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 				quantify[TOT_LENGTH] = gd.getNextBoolean();
 				quantify[PERI_AREA] = gd.getNextBoolean();
 				quantify[BRANCHING] = gd.getNextBoolean();
+				quantify[LONGEST_PATH] = gd.getNextBoolean();
 				//use_nuc_mask = gd.getNextBoolean();
 				ch_bead = gd.getNextChoiceIndex() + 1;
 				ch_sprout = gd.getNextChoiceIndex() + 1;
 				ch_nuc = gd.getNextChoiceIndex() + 1;
 				ch_endo = gd.getNextChoiceIndex() + 1;
 				ch_peri = gd.getNextChoiceIndex() + 1;
+				per_bead = gd.getNextBoolean();
+				stage_timings = gd.getNextBoolean();
 
 				Vector<?> choices = gd.getChoices();
 				Choice choice2 = (Choice) choices.get(2);
@@ -357,6 +456,7 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 				blur_bead = gd.getNextNumber();
 				bead_radius = gd.getNextNumber();
 				bead_radius_multiplier = gd.getNextNumber();
+				bead_downsampling = Integer.parseInt(gd.getNextChoice());
 				if (!gd.getPreviewCheckbox().getState()) {
 					messageArea.setText(""); // clear "x beads found" message
 					imp.setOverlay(null);
@@ -379,6 +479,7 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 				blur_nuc = gd.getNextNumber();
 				max_tolerance = gd.getNextNumber();
 				min_nuc_area = gd.getNextNumber();
+				bg_radius = gd.getNextNumber();
 				if (!gd.getPreviewCheckbox().getState())
 					imp.setOverlay(null);
 				break;
@@ -400,7 +501,20 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 					imp.setOverlay(null);
 				break;
 		}
-		return (!gd.invalidNumber());
+		return (!gd.invalidNumber() && hasValidParameters());
+	}
+
+	/**
+	 * Whether the current parameters pass the checks of SproutParameters
+	 * (e.g. no negative blurs or areas), so that the dialog only accepts those.
+	 */
+	private boolean hasValidParameters() {
+		try {
+			getParameters();
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
 	}
 
 	/**
@@ -411,35 +525,28 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 		//Recorder.recordInMacros = false;
 		// TODO save current overlay before overwriting
 		imp.setOverlay(null);
+		backgrounds.clear(); // the previews keep their planes in the cache
 		if (dialog == BEAD_DIALOG) { // bead preview
-			bead_imp = findBeads(imp, ch_bead); // find beads (takes time)
-			imp.setOverlay(makeOverlay(bead_imp.getProcessor(), Color.WHITE, OVERLAY_OPACITY));
-			messageArea.setText(count(bead_imp) + " bead(s) found");
+			previewBeads(false); // find beads (takes time)
+			imp.setOverlay(makeOverlay(bead_mask.toByteProcessor(), Color.WHITE, OVERLAY_OPACITY));
+			messageArea.setText(new TiledComponents(bead_mask, MASK_TILE, false, null).getCount() + " bead(s) found");
 		}
 		if (dialog == SPROUT_DIALOG) { // sprout preview
-			if (bead_imp == null) // only if no preview was run on dialog 2
-				bead_imp = findBeads(imp, ch_bead, use_bead_mask);
-			sprout_imp = findSprouts(imp, ch_sprout, bead_imp, use_sprout_mask);
-			imp.setOverlay(makeOverlay(sprout_imp.getProcessor(), Color.WHITE, OVERLAY_OPACITY));
+			previewSprouts();
+			imp.setOverlay(makeOverlay(sprout_mask.toByteProcessor(), Color.WHITE, OVERLAY_OPACITY));
 			
 		}
 		if (dialog == NUCLEUS_DIALOG) { // nuclei preview
-			if (sprout_imp == null) {
-				if (bead_imp == null)
-					bead_imp = findBeads(imp, ch_bead, use_bead_mask);
-				sprout_imp = findSprouts(imp, ch_sprout, bead_imp, use_sprout_mask);
-			}
-			nuc_imp = getNucleusMask(imp, sprout_imp, ch_nuc);
+			if (sprout_mask == null)
+				previewSprouts();
+			nuc_imp = getNucleusMask(imp, sprout_mask, sproutKey(ch_sprout, bead_key, use_sprout_mask), ch_nuc);
 			if (null != nuc_imp) imp.setOverlay(makeOverlay(nuc_imp.getProcessor(), Color.WHITE, OVERLAY_OPACITY));
 		}
 		if (dialog == PERICYTE_DIALOG) { // cell classification preview
 			if (nuc_imp == null) {
-				if (sprout_imp == null) {
-					if (bead_imp == null)
-						bead_imp = findBeads(imp, ch_bead, use_bead_mask);
-					sprout_imp = findSprouts(imp, ch_sprout, bead_imp, use_sprout_mask);
-				}
-				nuc_imp = getNucleusMask(imp, sprout_imp, ch_nuc);
+				if (sprout_mask == null)
+					previewSprouts();
+				nuc_imp = getNucleusMask(imp, sprout_mask, sproutKey(ch_sprout, bead_key, use_sprout_mask), ch_nuc);
 			}
 			ImagePlus endo_imp = classifyEC(imp, nuc_imp, ch_endo);
 			if (null != endo_imp) {
@@ -447,90 +554,116 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 			}
 		}
 		if (dialog == PERICYTE_AREA_DIALOG) { // pericyte area preview
-			if (sprout_imp == null) {
-				if (bead_imp == null)
-					bead_imp = findBeads(imp, ch_bead, use_bead_mask);
-				sprout_imp = findSprouts(imp, ch_sprout, bead_imp, use_sprout_mask);
-			}
-			ImagePlus peri_imp = getPericyteArea(imp, sprout_imp, ch_peri);
-			if (null != peri_imp) imp.setOverlay(makeOverlay(peri_imp.getProcessor(), Color.WHITE, OVERLAY_OPACITY));			
+			if (sprout_mask == null)
+				previewSprouts();
+			BitMask peri_mask = getPericyteArea(imp, sprout_mask, ch_peri);
+			imp.setOverlay(makeOverlay(peri_mask.toByteProcessor(), Color.WHITE, OVERLAY_OPACITY));			
 		}
 		if (dialog == NO_DIALOG) { // full processing
-			processAndShow();
-			Prefs.blackBackground = userHasBlackBackground;
+			try {
+				processAndShow();
+			} finally {
+				cache.setEnabled(false); // release cached images
+				Prefs.blackBackground = userHasBlackBackground;
+			}
 		}
 	}
 
+	/**
+	 * Find the beads for the preview.
+	 *
+	 * @param specified Use specified mask without processing
+	 */
+	private void previewBeads(boolean specified) {
+		bead_key = beadKey(ch_bead, specified);
+		bead_mask = findBeads(imp, ch_bead, specified);
+	}
+
+	/**
+	 * Find the sprouts for the preview, and the beads if no preview was run on dialog 2.
+	 */
+	private void previewSprouts() {
+		if (bead_mask == null)
+			previewBeads(use_bead_mask);
+		sprout_mask = findSprouts(imp, ch_sprout, bead_mask, bead_key, use_sprout_mask);
+	}
+
 	/**
 	 * Read parameters from ImageJ Prefs
 	 *
 	 * @param nChannels
 	 */
-	private void readPrefs (int nChannels) {
+	void readPrefs (int nChannels) {
+		SproutParameters d = SproutParameters.DEFAULTS;
 		/* Channels */
-		ch_bead = 			(int)Prefs.get(PREF_KEY + "beads", 1);
+		ch_bead = 			(int)Prefs.get(PREF_KEY + "beads", d.getBeadChannel());
 		if (ch_bead > nChannels || ch_bead < 1)
 			ch_bead = 1;
-		ch_sprout =			(int)Prefs.get(PREF_KEY + "sprouts", 2);
+		ch_sprout =			(int)Prefs.get(PREF_KEY + "sprouts", d.getSproutChannel());
 		if (ch_sprout > nChannels || ch_sprout < 1)
 			ch_sprout = 1;
-		ch_nuc =			(int)Prefs.get(PREF_KEY + "nucleus_marker", 1);
+		ch_nuc =			(int)Prefs.get(PREF_KEY + "nucleus_marker", d.getNucleusChannel());
 		if (ch_nuc > nChannels || ch_nuc < 1)
 			ch_nuc = 1;
-		ch_endo =			(int)Prefs.get(PREF_KEY + "endothelial_cell_nuclei", 3);
+		ch_endo =			(int)Prefs.get(PREF_KEY + "endothelial_cell_nuclei", d.getEcChannel());
 		if (ch_endo > nChannels || ch_endo < 1)
 			ch_endo = 1;
-		ch_peri =			(int)Prefs.get(PREF_KEY + "pericyte_marker", 4);
+		ch_peri =			(int)Prefs.get(PREF_KEY + "pericyte_marker", d.getPericyteChannel());
 		if (ch_peri > nChannels || ch_peri < 1)
 			ch_peri = 1;
-		use_bead_mask =			Prefs.get(PREF_KEY + "bead_mask", false);
-		use_sprout_mask =		Prefs.get(PREF_KEY + "sprout_mask", false);
+		use_bead_mask =			Prefs.get(PREF_KEY + "bead_mask", d.isBeadMask());
+		use_sprout_mask =		Prefs.get(PREF_KEY + "sprout_mask", d.isSproutMask());
 		use_nuc_mask =			Prefs.get(PREF_KEY + "nuc_mask", false);
 
 		/* Bead recognition */
-		thr_bead =				Prefs.get(PREF_KEY + "bead_threshold", "Triangle");
-		blur_bead =				Prefs.get(PREF_KEY + "blur_radius_for_bead", 2.0);
-		bead_radius =			Prefs.get(PREF_KEY + "minimum_bead_radius", 60.0);
-		bead_radius_multiplier =	Prefs.get(PREF_KEY + "dilate_beads", 1.2);
+		thr_bead =				Prefs.get(PREF_KEY + "bead_threshold", d.getBeadThreshold());
+		blur_bead =				Prefs.get(PREF_KEY + "blur_radius_for_bead", d.getBeadBlur());
+		bead_radius =			Prefs.get(PREF_KEY + "minimum_bead_radius", d.getBeadRadius());
+		bead_radius_multiplier =	Prefs.get(PREF_KEY + "dilate_beads", d.getBeadDilation());
+		bead_downsampling =		(int)Prefs.get(PREF_KEY + "bead_downsampling", d.getBeadDownsampling());
 
 		/* Sprout recognition */
-		thr_sprout =			Prefs.get(PREF_KEY + "sprout_threshold", "Li");
-		blur_sprout =			Prefs.get(PREF_KEY + "blur_radius_for_sprout", 4.0);
-		min_plexus_area =		Prefs.get(PREF_KEY + "minimum_plexus_area", 5000);
-		min_sprout_area =		Prefs.get(PREF_KEY + "minimum_sprout_area", 100);
-		do_exclude_borders =	Prefs.get(PREF_KEY + "exclude_cell_clusters", false);
-		min_cluster_size =		Prefs.get(PREF_KEY + "minimum_cluster_for_exclusion", 20000);
+		thr_sprout =			Prefs.get(PREF_KEY + "sprout_threshold", d.getSproutThreshold());
+		blur_sprout =			Prefs.get(PREF_KEY + "blur_radius_for_sprout", d.getSproutBlur());
+		min_plexus_area =		Prefs.get(PREF_KEY + "minimum_plexus_area", d.getMinPlexusArea());
+		min_sprout_area =		Prefs.get(PREF_KEY + "minimum_sprout_area", d.getMinSproutArea());
+		do_exclude_borders =	Prefs.get(PREF_KEY + "exclude_cell_clusters", d.isExcludeBorderClusters());
+		min_cluster_size =		Prefs.get(PREF_KEY + "minimum_cluster_for_exclusion", d.getMinClusterSize());
 
 		/* Nucleus segmentation */
-		thr_nuc =				Prefs.get(PREF_KEY + "nucleus_threshold", "Minimum");
-		blur_nuc =				Prefs.get(PREF_KEY + "blur_radius_for_nuclei", 1.0);
-		max_tolerance =			Prefs.get(PREF_KEY + "nucleus_tolerance", 5);
-		min_nuc_area =			Prefs.get(PREF_KEY + "minimum_nucleus_area", 10);
+		thr_nuc =				Prefs.get(PREF_KEY + "nucleus_threshold", d.getNucleusThreshold());
+		blur_nuc =				Prefs.get(PREF_KEY + "blur_radius_for_nuclei", d.getNucleusBlur());
+		max_tolerance =			Prefs.get(PREF_KEY + "nucleus_tolerance", d.getNucleusTolerance());
+		min_nuc_area =			Prefs.get(PREF_KEY + "minimum_nucleus_area", d.getMinNucleusArea());
+		bg_radius =				Prefs.get(PREF_KEY + "background_radius", d.getBackgroundRadius());
 
 		/* EC classification */
-		thr_ec =				Prefs.get(PREF_KEY + "ec_threshold", "Default");
-		min_ec_area =			Prefs.get(PREF_KEY + "minimum_ec_area", 10);
-		quant_cell_numbers =	Prefs.get(PREF_KEY + "quantify_cell_numbers", true);
-		quant_cell_fraction =	Prefs.get(PREF_KEY + "quantify_cell_fraction", true);
+		thr_ec =				Prefs.get(PREF_KEY + "ec_threshold", d.getEcThreshold());
+		min_ec_area =			Prefs.get(PREF_KEY + "minimum_ec_area", d.getMinEcArea());
+		quant_cell_numbers =	Prefs.get(PREF_KEY + "quantify_cell_numbers", d.isCellNumbers());
+		quant_cell_fraction =	Prefs.get(PREF_KEY + "quantify_cell_fraction", d.isCellFraction());
 
 		/* Pericyte area */
-		thr_peri =				Prefs.get(PREF_KEY + "pericyte_threshold", "Default");
-		quant_peri_area =		Prefs.get(PREF_KEY + "quantify_pericyte_area", false);
-		quant_peri_fraction =	Prefs.get(PREF_KEY + "quantify_pericyte_fraction", true);
+		thr_peri =				Prefs.get(PREF_KEY + "pericyte_threshold", d.getPericyteThreshold());
+		quant_peri_area =		Prefs.get(PREF_KEY + "quantify_pericyte_area", d.isPericyteArea());
+		quant_peri_fraction =	Prefs.get(PREF_KEY + "quantify_pericyte_fraction", d.isPericyteFraction());
 
 		/* Output */
-		quantify = new boolean[11];
-		quantify[NUM_BEADS] =	Prefs.get(PREF_KEY + "number_of_beads", true);
-		quantify[NUM_SPROUTS] =	Prefs.get(PREF_KEY + "number_of_sprouts", true);
-		quantify[TOT_AREA] =	Prefs.get(PREF_KEY + "total_sprout_area", true);
-		quantify[TOT_LENGTH] =	Prefs.get(PREF_KEY + "total_network_length", true);
-		quantify[NUM_CELLS] =	Prefs.get(PREF_KEY + "number_of_cells", true);
-		quantify[AVG_LENGTH] =	Prefs.get(PREF_KEY + "average_sprout_length", true);
-		quantify[AVG_WIDTH] =	Prefs.get(PREF_KEY + "average_sprout_width", true);
-		quantify[AVG_DENSITY] =	Prefs.get(PREF_KEY + "cell_density", true);
-		quantify[NUM_EC] =		Prefs.get(PREF_KEY + "ec_number", false);
-		quantify[PERI_AREA] =	Prefs.get(PREF_KEY + "pericyte_coverage", false);
-		quantify[BRANCHING] =   Prefs.get(PREF_KEY + "branching", true);
+		quantify = new boolean[12];
+		quantify[NUM_BEADS] =	Prefs.get(PREF_KEY + "number_of_beads", d.isMeasured(Measurement.BEAD_COUNT));
+		quantify[NUM_SPROUTS] =	Prefs.get(PREF_KEY + "number_of_sprouts", d.isMeasured(Measurement.SPROUT_COUNT));
+		quantify[TOT_AREA] =	Prefs.get(PREF_KEY + "total_sprout_area", d.isMeasured(Measurement.TOTAL_SPROUT_AREA));
+		quantify[TOT_LENGTH] =	Prefs.get(PREF_KEY + "total_network_length", d.isMeasured(Measurement.NETWORK_LENGTH));
+		quantify[NUM_CELLS] =	Prefs.get(PREF_KEY + "number_of_cells", d.isMeasured(Measurement.CELL_COUNT));
+		quantify[AVG_LENGTH] =	Prefs.get(PREF_KEY + "average_sprout_length", d.isMeasured(Measurement.AVERAGE_SPROUT_LENGTH));
+		quantify[AVG_WIDTH] =	Prefs.get(PREF_KEY + "average_sprout_width", d.isMeasured(Measurement.AVERAGE_SPROUT_WIDTH));
+		quantify[AVG_DENSITY] =	Prefs.get(PREF_KEY + "cell_density", d.isMeasured(Measurement.CELL_DENSITY));
+		quantify[NUM_EC] =		Prefs.get(PREF_KEY + "ec_number", d.isMeasured(Measurement.EC_COUNT));
+		quantify[PERI_AREA] =	Prefs.get(PREF_KEY + "pericyte_coverage", d.isMeasured(Measurement.PERICYTE_COVERAGE));
+		quantify[BRANCHING] =   Prefs.get(PREF_KEY + "branching", d.isMeasured(Measurement.BRANCHING));
+		quantify[LONGEST_PATH] = Prefs.get(PREF_KEY + "longest_path", d.isMeasured(Measurement.LONGEST_PATH));
+		per_bead =				Prefs.get(PREF_KEY + "results_per_bead", d.isPerBead());
+		stage_timings =			Prefs.get(PREF_KEY + "stage_timings", d.isStageTimings());
 		/* for (int j = 0; j <= quantify.length; j++) {
 			IJ.log("Pos: " + Integer.toString(j) + " " + Boolean.toString(quantify[j]));
 		} */
@@ -558,9 +691,11 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 		Prefs.set(PREF_KEY + "exclude_cell_clusters", do_exclude_borders);
 		Prefs.set(PREF_KEY + "minimum_cluster_for_exclusion", min_cluster_size);		
 		Prefs.set(PREF_KEY + "dilate_beads", bead_radius_multiplier);
+		Prefs.set(PREF_KEY + "bead_downsampling", bead_downsampling);
 		Prefs.set(PREF_KEY + "nucleus_marker", ch_nuc);
 		Prefs.set(PREF_KEY + "blur_radius_for_nuclei", blur_nuc);
 		Prefs.set(PREF_KEY + "nucleus_tolerance", max_tolerance);
+		Prefs.set(PREF_KEY + "background_radius", bg_radius);
 		Prefs.set(PREF_KEY + "endothelial_cell_nuclei", ch_endo);
 		Prefs.set(PREF_KEY + "pericyte_marker", ch_peri);
 		Prefs.set(PREF_KEY + "number_of_beads", quantify[NUM_BEADS]);
@@ -571,6 +706,9 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 		Prefs.set(PREF_KEY + "average_sprout_length", quantify[AVG_LENGTH]);
 		Prefs.set(PREF_KEY + "average_sprout_width", quantify[AVG_WIDTH]);
 		Prefs.set(PREF_KEY + "branching", quantify[BRANCHING]);
+		Prefs.set(PREF_KEY + "longest_path", quantify[LONGEST_PATH]);
+		Prefs.set(PREF_KEY + "results_per_bead", per_bead);
+		Prefs.set(PREF_KEY + "stage_timings", stage_timings);
 		Prefs.set(PREF_KEY + "cell_density", quantify[AVG_DENSITY]);
 		Prefs.set(PREF_KEY + "ec_number", quantify[NUM_EC]);
 		Prefs.set(PREF_KEY + "pericyte_coverage", quantify[PERI_AREA]);
@@ -583,103 +721,99 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 		Prefs.set(PREF_KEY + "quantify_cell_fraction", quant_cell_fraction);
 	}
 
+	/**
+	 * Set all parameters, e.g. for an analysis without dialogs or Prefs.
+	 *
+	 * @param p
+	 */
+	void setParameters (SproutParameters p) {
+		ch_bead = p.getBeadChannel();
+		ch_sprout = p.getSproutChannel();
+		ch_nuc = p.getNucleusChannel();
+		ch_endo = p.getEcChannel();
+		ch_peri = p.getPericyteChannel();
+		use_bead_mask = p.isBeadMask();
+		use_sprout_mask = p.isSproutMask();
+		thr_bead = p.getBeadThreshold();
+		blur_bead = p.getBeadBlur();
+		bead_radius = p.getBeadRadius();
+		bead_radius_multiplier = p.getBeadDilation();
+		bead_downsampling = p.getBeadDownsampling();
+		thr_sprout = p.getSproutThreshold();
+		blur_sprout = p.getSproutBlur();
+		min_plexus_area = p.getMinPlexusArea();
+		min_sprout_area = p.getMinSproutArea();
+		do_exclude_borders = p.isExcludeBorderClusters();
+		min_cluster_size = p.getMinClusterSize();
+		do_recover = p.isRecoverInterrupted();
+		thr_nuc = p.getNucleusThreshold();
+		blur_nuc = p.getNucleusBlur();
+		max_tolerance = p.getNucleusTolerance();
+		min_nuc_area = p.getMinNucleusArea();
+		bg_radius = p.getBackgroundRadius();
+		thr_ec = p.getEcThreshold();
+		min_ec_area = p.getMinEcArea();
+		quant_cell_numbers = p.isCellNumbers();
+		quant_cell_fraction = p.isCellFraction();
+		thr_peri = p.getPericyteThreshold();
+		quant_peri_area = p.isPericyteArea();
+		quant_peri_fraction = p.isPericyteFraction();
+		quantify = p.getMeasurements();
+		per_bead = p.isPerBead();
+		stage_timings = p.isStageTimings();
+	}
+
+	/**
+	 * Current parameters, as set by the dialogs, readPrefs() or setParameters().
+	 */
+	SproutParameters getParameters () {
+		return new SproutParameters.Builder()
+				.channels(ch_bead, ch_sprout, ch_nuc, ch_endo, ch_peri)
+				.masks(use_bead_mask, use_sprout_mask)
+				.beads(thr_bead, blur_bead, bead_radius, bead_radius_multiplier)
+				.beadDownsampling(bead_downsampling)
+				.sprouts(thr_sprout, blur_sprout, min_plexus_area, min_sprout_area)
+				.borderClusters(do_exclude_borders, min_cluster_size)
+				.recoverInterrupted(do_recover)
+				.nuclei(thr_nuc, blur_nuc, max_tolerance, min_nuc_area)
+				.backgroundRadius(bg_radius)
+				.ec(thr_ec, min_ec_area, quant_cell_numbers, quant_cell_fraction)
+				.pericytes(thr_peri, quant_peri_area, quant_peri_fraction)
+				.measurements(quantify)
+				.perBead(per_bead)
+				.stageTimings(stage_timings)
+				.build();
+	}
+
 	/**
 	 * Do the actual processing.
 	 */
 	private void processAndShow() {
-		/* Private intermediate images */
-		ImagePlus ssp_imp, skel_imp, endo_imp = null, peri_imp = null;
 		ImageStack result_stack;
-		/* Segmentation */
-		bead_imp = findBeads(imp, ch_bead, use_bead_mask);
-		sprout_imp = findSprouts(imp, ch_sprout, bead_imp, use_sprout_mask);
-		/* Morphometrical Analysis */
-		// --- Number of beads ---      <= bead_imp
-		num_beads = count(bead_imp);
-		ImageCalculator ic = new ImageCalculator();
-		ssp_imp = ic.run("OR create", sprout_imp, bead_imp);
-		// --- Total sprout area ---      <= sprout_imp
-		ResultsTable rt = new ResultsTable();
-		IJ.setThreshold(sprout_imp, 1, 255);
-		Analyzer an = new Analyzer(sprout_imp, Measurements.AREA + Measurements.LIMIT, rt);  
-		an.measure();
-		sprout_area = rt.getValueAsDouble(rt.getLastColumn(), rt.getCounter()-1);
-		// --- Number of sprouts --- and --- Total length ---
-		skel_imp = getCleanSkeleton(ssp_imp, bead_imp);
-		if (analyzeSproutSkeleton(skel_imp, bead_imp)) {
-			IJ.showStatus("Finished analyzing sprout skeletons");
-		}
-		// --- Number of cells --- and --- Pericyte coverage ---
-		if (quantify[NUM_CELLS] || quantify[AVG_DENSITY] || quantify[NUM_EC]) {
-			nuc_imp = getNucleusMask(imp, sprout_imp, ch_nuc);
-			if (quantify[NUM_EC]) {
-				endo_imp = classifyEC(imp, nuc_imp, ch_endo);
-				num_nuc = count(endo_imp, 1);
-				num_peri = count(endo_imp, 2);
-				num_nuc += num_peri;
-			} else {
-				num_nuc = count(nuc_imp);
-			}
-		}
-		
-		if (quantify[PERI_AREA]) {
-			peri_imp = getPericyteArea(imp, sprout_imp, ch_peri);
-		}
+		analyze();
 
 		/* Show the results and display result images */
 		ResultsTable result = ResultsTable.getResultsTable();
-		result.incrementCounter();
-		result.setPrecision(5);
-		result.addLabel(imp.getTitle());
-		if (quantify[NUM_BEADS]) result.addValue("n(beads)", num_beads);
-		if (quantify[NUM_SPROUTS]) result.addValue("n(sprouts)", num_sprouts);
-		if (quantify[NUM_CELLS]) result.addValue("n(cells)", num_nuc);
-		if (quantify[TOT_AREA]) result.addValue("Total sprout area (" + cal.getUnits() + "\u00B2)", sprout_area);
-		if (quantify[TOT_LENGTH]) result.addValue("Total network length (" + cal.getUnits() + ")", totalLength);
-		if (quantify[AVG_LENGTH]) result.addValue("Average sprout length (" + cal.getUnits() + ")", avg_sprout_length);
-		if (quantify[AVG_WIDTH]) result.addValue("Average sprout width (" + cal.getUnits() + ")", sprout_area / totalLength);
-		if (quantify[BRANCHING]) result.addValue("Average junctions per sprout", junctionsPerSprout);
-		if (quantify[AVG_DENSITY]) result.addValue("Cell density (1/" + cal.getUnits() + "\u00B2)", num_nuc / sprout_area);
-		if (quantify[NUM_EC]) {
-			if (quant_cell_numbers) {
-				result.addValue("Number of ECs", num_nuc - num_peri);
-				result.addValue("Number of Pericytes", num_peri);
-			}
-			if (quant_cell_fraction) result.addValue("Pericytes per total cells", (double) num_peri / num_nuc);
-		}
-		// TODO: optionally include total numbers of EC and pericytes
-		if (quantify[PERI_AREA]) {
-			peri_area = measureArea(peri_imp);
-			if (quant_peri_area) result.addValue("Total pericyte area (" + cal.getUnits() + "\u00B2)", peri_area);
-			if (quant_peri_fraction) result.addValue("Pericyte area fraction", peri_area / sprout_area);
-		}
+		addResults(result);
 		result.show("Results");
-
-		/* Subtract beads from skeleton   */
-		ic.run("Subtract", skel_imp, bead_imp);
-		/* Show results stack */
-		result_stack = bead_imp.getStack();
-		result_stack.addSlice(ssp_imp.getProcessor());
-		result_stack.addSlice(sprout_imp.getProcessor());
-		result_stack.addSlice(skel_imp.getProcessor());
-		if (quantify[NUM_CELLS] || quantify[AVG_DENSITY] || quantify[NUM_EC])
-			result_stack.addSlice(nuc_imp.getProcessor()); // disabled for screencast
-		if (quantify[NUM_EC]) {
-			result_stack.addSlice(endo_imp.getStack().getProcessor(1));
-			result_stack.addSlice(endo_imp.getStack().getProcessor(2));			
-		}
-		if (quantify[PERI_AREA]) {
-			result_stack.addSlice(peri_imp.getProcessor());
+		if (per_bead) {
+			ResultsTable beads = new ResultsTable();
+			addBeadResults(beads, Prefs.getThreads());
+			beads.show("Bead Results");
 		}
 
+		/* Show results stack, with the masks of the stages that were run */
+		result_stack = getResultStack();
+		ImagePlus result_imp = new ImagePlus("ResultImage", result_stack);
+		result_imp.setCalibration(cal);
+
 		/*
 		Overlay overlay = new Overlay();
 		overlay.add(makeTransparentRoi(skel_imp, new Color(255, 255, 255, 128)));
 		bead_imp.setOverlay(overlay);
 		*/
-		bead_imp.setTitle("ResultImage");
-		// bead_imp.setSlice(2); // for Screencast
-		bead_imp.show();
+		// result_imp.setSlice(2); // for Screencast
+		result_imp.show();
 
 		/* Show result image with several overlays */
 		// TODO: 
@@ -721,13 +855,709 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	}
 
 	/**
-	 * Find beads in a given channel of an ImagePlus.
+	 * Masks of the stages that were run by analyze(): beads, sprouts with beads,
+	 * sprouts, skeleton without beads, nuclei, classified nuclei (EC and
+	 * pericytes) and pericyte area.
+	 */
+	ImageStack getResultStack() {
+		ImageStack result_stack = new ImageStack(bead_mask.getWidth(), bead_mask.getHeight());
+		result_stack.addSlice(bead_mask.toByteProcessor());
+		if (sprout_mask != null) {
+			result_stack.addSlice(ssp_mask.toByteProcessor());
+			result_stack.addSlice(sprout_mask.toByteProcessor());
+		}
+		if (skel_mask != null) {
+			/* Subtract beads from skeleton   */
+			result_stack.addSlice(skel_mask.copy().andNot(bead_mask).toByteProcessor());
+		}
+		if (nuc_imp != null)
+			result_stack.addSlice(nuc_imp.getProcessor()); // disabled for screencast
+		if (endo_imp != null) {
+			result_stack.addSlice(endo_imp.getStack().getProcessor(1));
+			result_stack.addSlice(endo_imp.getStack().getProcessor(2));			
+		}
+		if (peri_mask != null) {
+			result_stack.addSlice(peri_mask.toByteProcessor());
+		}
+		return result_stack;
+	}
+
+	/**
+	 * Pipeline stages needed for the selected measurements, including their inputs.
+	 * The bead stage is always needed.
+	 */
+	EnumSet<Stage> getStages() {
+		EnumSet<Stage> stages = EnumSet.of(Stage.BEADS);
+		for (int m = 0; m < quantify.length; m++) {
+			if (quantify[m])
+				stages.add(METRIC_STAGES[m]);
+		}
+		return Stage.closure(stages);
+	}
+
+	/**
+	 * Whether the selected measurements need the nucleus segmentation or the EC
+	 * classification, which analyzeTiled() does not do.
+	 */
+	boolean measuresCells() {
+		EnumSet<Stage> stages = getStages();
+		return stages.contains(Stage.NUCLEI) || stages.contains(Stage.EC);
+	}
+
+	/**
+	 * Segment the image and populate the result variables, without showing anything.
 	 * 
-	 * @param imp
+	 * Only the stages needed for the selected measurements are run (see getStages()),
+	 * the masks of the other stages are null. The bead, sprout, skeleton and
+	 * pericyte masks are kept packed; only the nuclei, which go through ImageJ's
+	 * MaximumFinder and BinaryReconstruct_, are 8-bit images. Stages that do not depend on each
+	 * other (e.g. the skeleton, the nuclei and the pericyte area, once the sprouts
+	 * are found) run concurrently on the common fork/join pool.
+	 * With stage_timings, every stage is measured (see StageProfile).
+	 */
+	void analyze() {
+		analyze(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Segment the image like analyze(), running the stages on the given executor.
+	 * 
+	 * The calling thread waits for the stages, so callers that analyze several
+	 * images on a thread pool of their own pass StageScheduler.CALLER (the stages
+	 * run one after the other on the calling thread) rather than that pool.
+	 * 
+	 * @param executor
+	 */
+	void analyze(Executor executor) {
+		EnumSet<Stage> stages = getStages();
+		nuc_imp = endo_imp = null;
+		sprout_mask = ssp_mask = skel_mask = peri_mask = null;
+		Map<Stage, Runnable> tasks = new EnumMap<Stage, Runnable>(Stage.class);
+		/* Segmentation */
+		tasks.put(Stage.BEADS, () -> {
+			if (fixed_beads != null) {
+				bead_key = StageCache.key(fixed_beads); // the same mask object gives the same key
+				bead_mask = fixed_beads;
+			} else {
+				bead_key = beadKey(ch_bead, use_bead_mask);
+				bead_mask = findBeads(imp, ch_bead, use_bead_mask);
+			}
+			/* Morphometrical Analysis */
+			// --- Number of beads ---      <= bead_mask
+			TiledComponents bead_cc = new TiledComponents(bead_mask, MASK_TILE, false, null);
+			num_beads = bead_cc.getCount();
+			bead_starts = firstPixels(bead_cc);
+		});
+		tasks.put(Stage.SPROUTS, () -> {
+			sprout_mask = findSprouts(imp, ch_sprout, bead_mask, bead_key, use_sprout_mask);
+			ssp_mask = sprout_mask.copy().or(bead_mask);
+			// --- Total sprout area ---      <= sprout_mask
+			sprout_area = measureArea(sprout_mask, cal);
+		});
+		// --- Number of sprouts --- and --- Total length ---
+		tasks.put(Stage.SKELETON, () -> {
+			skel_mask = getCleanSkeleton(ssp_mask);
+			if (analyzeSproutSkeleton(skel_mask, bead_mask, bead_starts)) {
+				IJ.showStatus("Finished analyzing sprout skeletons");
+			}
+		});
+		// --- Number of cells --- and --- Pericyte coverage ---
+		tasks.put(Stage.NUCLEI, () -> {
+			nuc_imp = getNucleusMask(imp, sprout_mask, sproutKey(ch_sprout, bead_key, use_sprout_mask), ch_nuc);
+			if (!stages.contains(Stage.EC))
+				num_nuc = count(nuc_imp);
+		});
+		tasks.put(Stage.EC, () -> {
+			endo_imp = classifyEC(imp, nuc_imp, ch_endo);
+			num_nuc = count(endo_imp, 1);
+			num_peri = count(endo_imp, 2);
+			num_nuc += num_peri;
+		});
+		tasks.put(Stage.PERICYTES, () -> {
+			peri_mask = getPericyteArea(imp, sprout_mask, ch_peri);
+			peri_area = measureArea(peri_mask, cal);
+		});
+		tasks.keySet().retainAll(stages);
+		levels.clear();
+		profile = stage_timings ? new StageProfile() : null;
+		if (profile != null) {
+			/* every stage reads whole planes of the analyzed part of the image (see ChannelView) */
+			Rectangle r = new ChannelView(imp, 1, frame).getBounds();
+			long area = (long) r.width * r.height;
+			tasks.replaceAll((stage, task) -> profile.wrap(stage, planesRead(stage) * area, task));
+		}
+		backgrounds.clear();
+		try {
+			StageScheduler.run(tasks, executor);
+		} finally {
+			backgrounds.clear(); // release the planes
+		}
+	}
+
+	/**
+	 * Number of planes (channels and masks of other stages) that a stage of
+	 * analyze() reads: the beads read their channel, unless they are given;
+	 * the sprouts read their channel and the beads; the skeleton reads the
+	 * sprouts and the beads; the nuclei, EC and pericytes read their channel
+	 * and the sprouts (the EC stage its marker and the nuclei).
+	 * 
+	 * @param stage
+	 */
+	private int planesRead(Stage stage) {
+		return stage == Stage.BEADS ? (fixed_beads != null ? 0 : 1) : 2;
+	}
+
+	/**
+	 * Keep the output of every stage between analyses (see StageCache), e.g. to
+	 * analyze the same image with several parameter sets. Disabled by default,
+	 * except for the interactive plugin.
+	 * 
+	 * @param enabled
+	 */
+	void setCaching(boolean enabled) {
+		cache.setEnabled(enabled);
+	}
+
+	/**
+	 * Number of times a memoized stage (e.g. "sprout_connected") was computed,
+	 * rather than taken from the cache (see StageCache).
+	 * 
+	 * @param stage
+	 */
+	int getComputedCount(String stage) {
+		return cache.getComputedCount(stage);
+	}
+
+	/**
+	 * Select the frame of a time series to be analyzed (1 by default).
+	 * 
+	 * @param frame
+	 */
+	void setFrame(int frame) {
+		this.frame = frame;
+	}
+
+	/**
+	 * Use a given bead mask in analyze(), e.g. the one of another frame, instead of finding the beads.
+	 * The mask is only read; it must not be modified while it is in use, since the cached stages
+	 * downstream of the beads only recognize it by its identity.
+	 * 
+	 * @param beads bead mask, or null to find the beads again
+	 */
+	void setBeadMask(BitMask beads) {
+		this.fixed_beads = beads;
+	}
+
+	/**
+	 * Bead mask of the current frame.
+	 */
+	BitMask findBeadMask() {
+		return findBeads(imp, ch_bead, use_bead_mask);
+	}
+
+	/**
+	 * Thresholded bead channel of the current frame, without the (more expensive)
+	 * morphological filtering, to detect when the beads have moved.
+	 */
+	BitMask findBeadCandidates() {
+		return getBeadCandidates(imp, ch_bead, use_bead_mask);
+	}
+
+	/**
+	 * Bead mask of the current frame from its thresholded bead channel, as
+	 * returned by findBeadCandidates(), without blurring and thresholding again.
+	 * With bead downsampling, the beads are found from the image as in findBeadMask().
+	 * 
+	 * @param candidates thresholded bead channel of the current frame (not modified)
+	 */
+	BitMask findBeadMask(BitMask candidates) {
+		if (use_bead_mask)
+			return candidates.copy();
+		if (bead_downsampling > 1 && imp.getBitDepth() != 24)
+			return findBeadMask();
+		return filterBeads(candidates);
+	}
+
+	/**
+	 * Segment an image tile by tile and populate the result variables, like analyze().
+	 * 
+	 * Only one tile of each grey channel is held in memory at a time, with a
+	 * halo wide enough for the blur and morphology of that stage. The binary
+	 * intermediates are kept as packed masks of the whole image, automatic
+	 * thresholds are computed from histograms of all tiles, and connected
+	 * components are stitched across the tile seams, so the masks are the same
+	 * as the ones of analyze(). Blurs that GaussianBlur would compute on a
+	 * downscaled image (see blurTileSize()) are done on the whole channel.
+	 * 
+	 * As in analyze(), only the stages needed for the selected measurements are run.
+	 * The skeleton is computed one sprout component at a time (see
+	 * analyzeSkeletonTiled()). Nucleus segmentation and EC classification are not
+	 * available, so the cell measurements must not be selected (see measuresCells()).
+	 * 
+	 * @param source image, after init(source)
+	 * @param tileSize edge length of the tiles (pixels)
+	 * @throws IOException
+	 * @throws IllegalArgumentException if cell measurements are selected
+	 */
+	void analyzeTiled(TileSource source, int tileSize) throws IOException {
+		if (measuresCells())
+			throw new IllegalArgumentException("cell numbers, cell density and EC numbers are not available in tiled mode");
+		EnumSet<Stage> stages = getStages();
+		sprout_mask = ssp_mask = skel_mask = peri_mask = null;
+		int width = source.getWidth(), height = source.getHeight();
+		profile = stage_timings ? new StageProfile() : null;
+		pixels_read = 0;
+		/* Segmentation */
+		long[] start = StageProfile.start();
+		IJ.showStatus("Finding beads...");
+		if (use_bead_mask) {
+			bead_mask = readMaskTiled(source, ch_bead, tileSize);
+		} else {
+			double erodeRadius = bead_radius / pixel_size;
+			double dilateRadius = bead_radius_multiplier * bead_radius / pixel_size;
+			int halo = blurRadius(blur_bead) + BinaryMorphology.kernelRadius(erodeRadius) + BinaryMorphology.kernelRadius(dilateRadius);
+			double[] t = thresholdTiled(source, ch_bead, blur_bead, thr_bead, tileSize);
+			bead_mask = new BitMask(width, height);
+			for (Rectangle core : tiles(width, height, blurTileSize(blur_bead, width, height, tileSize))) {
+				Rectangle region = source.withHalo(core, halo);
+				ImageProcessor ip = read(source, ch_bead, region);
+				new GaussianBlur().blurGaussian(ip, blur_bead, blur_bead, 0.02);
+				ip = threshold(ip, t[0], t[1]);
+				BinaryMorphology.erode(ip, erodeRadius);
+				BinaryMorphology.dilate(ip, dilateRadius);
+				bead_mask.setRegion(ip, region.x, region.y, core);
+			}
+		}
+		TiledComponents beads = new TiledComponents(bead_mask, tileSize, false, null);
+		num_beads = beads.getCount();
+		record(Stage.BEADS, start);
+		if (!stages.contains(Stage.SPROUTS))
+			return;
+		start = StageProfile.start();
+		if (use_sprout_mask) {
+			sprout_mask = readMaskTiled(source, ch_sprout, tileSize);
+		} else {
+			IJ.showStatus("Finding sprouts...");
+			int halo = blurRadius(blur_sprout);
+			double[] t = thresholdTiled(source, ch_sprout, blur_sprout, thr_sprout, tileSize);
+			BitMask plexus = new BitMask(width, height);
+			for (Rectangle core : tiles(width, height, blurTileSize(blur_sprout, width, height, tileSize))) {
+				Rectangle region = source.withHalo(core, halo);
+				ImageProcessor ip = read(source, ch_sprout, region);
+				new GaussianBlur().blurGaussian(ip, blur_sprout, blur_sprout, 0.02);
+				plexus.setRegion(threshold(ip, t[0], t[1]), region.x, region.y, core);
+			}
+			TiledComponents plexus_cc = new TiledComponents(plexus, tileSize, false, null);
+			plexus_cc.retain(plexus, id -> plexus_cc.getArea(id) >= min_plexus_area);
+			if (do_recover) {
+				plexus = BinaryMorphology.dilate(plexus, 10 / pixel_size, tileSize);
+				plexus = BinaryMorphology.erode(plexus, 8 / pixel_size, tileSize);
+			}
+			/* Keep the regions 4-connected to the first pixel of a bead, like the flood fill of connectSproutsToBeads() */
+			BitMask starts = new BitMask(width, height);
+			for (int id : beads.getComponents())
+				starts.set((int) (beads.getFirstPixel(id) % width), (int) (beads.getFirstPixel(id) / width));
+			BitMask connected = plexus.or(bead_mask);
+			TiledComponents connected_cc = new TiledComponents(connected, tileSize, true, starts);
+			connected_cc.retain(connected, id -> connected_cc.isSeeded(id));
+			sprout_mask = connected.xor(bead_mask);
+			if (do_exclude_borders) {
+				/* discard large particles touching the edges */
+				TiledComponents border_cc = new TiledComponents(sprout_mask, tileSize, false, null);
+				border_cc.retain(sprout_mask, id -> !(border_cc.touchesEdge(id) && border_cc.getArea(id) >= min_cluster_size));
+			}
+			TiledComponents sprout_cc = new TiledComponents(sprout_mask, tileSize, false, null);
+			sprout_cc.retain(sprout_mask, id -> sprout_cc.getArea(id) >= min_sprout_area);
+		}
+		/* Morphometrical Analysis */
+		ssp_mask = sprout_mask.copy().or(bead_mask);
+		pixels_read += (long) width * height; // the bead mask
+		sprout_area = measureArea(sprout_mask, cal);
+		record(Stage.SPROUTS, start);
+		if (stages.contains(Stage.SKELETON)) {
+			start = StageProfile.start();
+			analyzeSkeletonTiled(beads, tileSize);
+			IJ.showStatus("Finished analyzing sprout skeletons");
+			record(Stage.SKELETON, start);
+		}
+		if (stages.contains(Stage.PERICYTES)) {
+			start = StageProfile.start();
+			double[] t = thresholdTiled(source, ch_peri, 0, thr_peri, tileSize);
+			peri_mask = new BitMask(width, height);
+			for (Rectangle core : tiles(width, height, tileSize))
+				peri_mask.setRegion(threshold(read(source, ch_peri, core), t[0], t[1]), core.x, core.y, core);
+			peri_area = measureArea(peri_mask.and(sprout_mask), cal);
+			pixels_read += (long) width * height; // the sprout mask
+			record(Stage.PERICYTES, start);
+		}
+	}
+
+	/**
+	 * Skeletonize the sprouts with the beads and analyze the skeleton like
+	 * analyzeSproutSkeleton(), one component of the sprout and bead mask (a bead
+	 * with its sprouts, or beads joined by sprouts) at a time.
+	 * 
+	 * Thinning and the skeleton graph only look at the 8 neighbors of a pixel,
+	 * and no pixel of a component is a neighbor of another component, so each
+	 * component is skeletonized on a crop of its bounding box that holds only its
+	 * own pixels, with the same result as on the whole image. Memory is bounded
+	 * by the largest component instead of the image. The skeleton is collected
+	 * in a packed mask for the sprout count; lengths and junctions are summed
+	 * over the components, and the longest path is the longest of any component.
+	 * 
+	 * @param beads components of the bead mask
+	 * @param tileSize
+	 */
+	private void analyzeSkeletonTiled(TiledComponents beads, int tileSize) {
+		int width = ssp_mask.getWidth(), height = ssp_mask.getHeight();
+		TiledComponents components = new TiledComponents(ssp_mask, tileSize, false, null);
+		pixels_read += (long) width * height; // the sprout and bead mask, for the components
+		skel_mask = new BitMask(width, height);
+		totalLength = 0;
+		longest_path = 0;
+		double totalJunctions = 0;
+		int[] labels = null;
+		for (int id : components.getComponents()) {
+			int[] b = components.getBounds(id);
+			/* a pixel of background around the component, like outside of the image */
+			Rectangle r = new Rectangle(b[0] - 1, b[1] - 1, b[2] + 2, b[3] + 2).intersection(new Rectangle(width, height));
+			byte[] pixels = (byte[]) ssp_mask.getRegion(r).getPixels();
+			byte[] bead_pixels = (byte[]) bead_mask.getRegion(r).getPixels();
+			pixels_read += 2L * r.width * r.height;
+			/* only the pixels of this component, not of others in its bounding box */
+			if (labels == null || labels.length < pixels.length)
+				labels = new int[pixels.length];
+			ConnectedComponents cc = ConnectedComponents.label(pixels, r.width, r.height, false, labels);
+			long first = components.getFirstPixel(id);
+			int label = labels[(int) (first / width - r.y) * r.width + (int) (first % width - r.x)];
+			cc.retain(pixels, l -> l == label);
+			Thinning.skeletonize(pixels, r.width, r.height);
+			/* Subtract beads from skeleton */
+			for (int y = 0, i = 0; y < r.height; y++) {
+				for (int x = 0; x < r.width; x++, i++) {
+					if (pixels[i] != 0) {
+						skel_mask.set(r.x + x, r.y + y);
+						if (bead_pixels[i] != 0)
+							pixels[i] = 0;
+					}
+				}
+			}
+			SkeletonGraph graph = SkeletonGraph.build(pixels, r.width, r.height, cal.pixelWidth, cal.pixelHeight);
+			totalLength += graph.getTotalLength();
+			totalJunctions += graph.getJunctionCount();
+			if (quantify[LONGEST_PATH])
+				longest_path = Math.max(longest_path, graph.getLongestShortestPath());
+		}
+		num_sprouts = BoundaryCrossings.count(bead_mask, firstPixels(beads), skel_mask).getCount();
+		avg_sprout_length = totalLength / num_sprouts;
+		junctionsPerSprout = totalJunctions / num_sprouts;
+	}
+
+	/**
+	 * Record a stage of analyzeTiled() in the profile, if stage_timings,
+	 * with the pixels it read since the previous stage.
+	 * 
+	 * @param stage
+	 * @param start counters from StageProfile.start()
+	 */
+	private void record(Stage stage, long[] start) {
+		if (profile != null)
+			profile.stop(stage, start, pixels_read);
+		pixels_read = 0;
+	}
+
+	/**
+	 * Read a rectangle of a channel in analyzeTiled(), counting its pixels for the profile.
+	 * 
+	 * @param source
+	 * @param channel
+	 * @param r
+	 */
+	private ImageProcessor read(TileSource source, int channel, Rectangle r) throws IOException {
+		pixels_read += (long) r.width * r.height;
+		return source.read(channel, r);
+	}
+
+	/**
+	 * Automatic threshold of a (blurred) channel, from the histogram of all tiles.
+	 * 
+	 * @param source
 	 * @param channel
+	 * @param sigma blur radius (pixels), or 0 for no blur
+	 * @param method
+	 * @param tileSize
+	 */
+	private double[] thresholdTiled(TileSource source, int channel, double sigma, String method, int tileSize) throws IOException {
+		HistogramThreshold histogram = new HistogramThreshold(source.getBitDepth());
+		int width = source.getWidth(), height = source.getHeight();
+		int halo = sigma > 0 ? blurRadius(sigma) : 0;
+		for (Rectangle core : tiles(width, height, blurTileSize(sigma, width, height, tileSize))) {
+			Rectangle region = source.withHalo(core, halo);
+			ImageProcessor ip = read(source, channel, region);
+			if (sigma > 0)
+				new GaussianBlur().blurGaussian(ip, sigma, sigma, 0.02);
+			histogram.add(ip, core.x - region.x, core.y - region.y, core.width, core.height);
+		}
+		return histogram.getDarkBackgroundThreshold(method);
+	}
+
+	/**
+	 * Pack a channel that already contains a mask (non-zero pixels).
+	 * 
+	 * @param source
+	 * @param channel
+	 * @param tileSize
+	 */
+	private BitMask readMaskTiled(TileSource source, int channel, int tileSize) throws IOException {
+		BitMask mask = new BitMask(source.getWidth(), source.getHeight());
+		for (Rectangle core : tiles(source.getWidth(), source.getHeight(), tileSize))
+			mask.setRegion(threshold(read(source, channel, core), 1, Double.MAX_VALUE), core.x, core.y, core);
+		return mask;
+	}
+
+	/**
+	 * Tiles covering an image, in raster order.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param tileSize
+	 */
+	private static List<Rectangle> tiles(int width, int height, int tileSize) {
+		List<Rectangle> tiles = new Vector<Rectangle>();
+		for (int y = 0; y < height; y += tileSize)
+			for (int x = 0; x < width; x += tileSize)
+				tiles.add(new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+		return tiles;
+	}
+
+	/**
+	 * Tile size for blurring with the given sigma. GaussianBlur computes blurs
+	 * with sigmas above MAX_TILED_SIGMA on a downscaled image, on a grid that
+	 * starts at the origin of the tile, so that no halo makes a tile blur like
+	 * the whole image. These blurs are done on one tile covering the image.
+	 * 
+	 * @param sigma
+	 * @param width
+	 * @param height
+	 * @param tileSize
+	 */
+	private static int blurTileSize(double sigma, int width, int height, int tileSize) {
+		return sigma > MAX_TILED_SIGMA ? Math.max(Math.max(width, height), tileSize) : tileSize;
+	}
+
+	/**
+	 * Kernel radius of GaussianBlur for the accuracy used here (0.02).
+	 * 
+	 * @param sigma
 	 */
-	private ImagePlus findBeads(ImagePlus imp, int channel) {
-		return findBeads(imp, channel, false);
+	static int blurRadius(double sigma) {
+		return (int) Math.ceil(sigma * Math.sqrt(-2 * Math.log(0.02))) + 1;
+	}
+
+	/**
+	 * Measurements of the analyzed image, after analyze() or analyzeTiled().
+	 * 
+	 * @param beads results of each bead, or an empty list
+	 */
+	SproutResults getResults(List<SproutResults> beads) {
+		int timeFrame = imp != null && imp.getNFrames() > 1 ? frame : 0;
+		return new SproutResults(title, cal.getUnits(), timeFrame, 0, 0, 0, getParameters(),
+				num_beads, num_sprouts, num_nuc, num_peri,
+				sprout_area, totalLength, avg_sprout_length, junctionsPerSprout, longest_path, peri_area,
+				profile, beads);
+	}
+
+	/**
+	 * Add one row with the selected measurements of the analyzed image to a ResultsTable.
+	 * 
+	 * @param result
+	 */
+	void addResults(ResultsTable result) {
+		getResults(new ArrayList<SproutResults>()).addTo(result);
+	}
+
+	/**
+	 * Add one row per bead, after analyze().
+	 * 
+	 * @param result
+	 * @param nThreads
+	 */
+	void addBeadResults(ResultsTable result, int nThreads) {
+		try {
+			for (SproutResults beadResults : getBeadResults(nThreads))
+				beadResults.addTo(result);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			IJ.log("Sprout Analyzer: could not analyze the beads of " + title + " (" + e.getCause() + ")");
+		}
+	}
+
+	/**
+	 * Measurements of each bead, after analyze().
+	 * 
+	 * Every pixel of the segmentation belongs to its nearest bead. Sprout area
+	 * and pericyte area are measured on a crop of the masks, bounded by the bead
+	 * and the pixels that belong to it, in parallel over the beads. Sprouts and
+	 * cells are counted once for the whole image and assigned to a single bead
+	 * each (a sprout to the bead whose frame it crosses first, a cell to the bead
+	 * its first pixel belongs to), so their counts per bead add up to the ones of
+	 * the whole image, also for cells on the border between two regions. The
+	 * network length of a bead is the one of the skeleton of the sprouts it is
+	 * counted for (see skeletonOwners()), also where a sprout reaches into the
+	 * region of another bead.
+	 * 
+	 * @param nThreads
+	 * @throws InterruptedException
+	 * @throws ExecutionException if the measurements of a bead failed
+	 */
+	List<SproutResults> getBeadResults(int nThreads) throws InterruptedException, ExecutionException {
+		final int width = bead_mask.getWidth(), height = bead_mask.getHeight();
+		final ConnectedComponents beads = ConnectedComponents.label(bead_mask.toByteProcessor(), false);
+		final int nBeads = beads.getCount();
+		final int[] labels = beads.getLabels();
+		final int[] nearest = NearestLabel.assign(labels, width, height);
+		/* Counts of the whole image, each sprout and cell assigned to one bead */
+		final int[] sprouts = new int[nBeads + 1], nuclei = new int[nBeads + 1], pericytes = new int[nBeads + 1];
+		final int[] owners;
+		if (skel_mask != null) {
+			BoundaryCrossings crossings = BoundaryCrossings.count(bead_mask, firstPixels(beads), skel_mask);
+			for (int b = 1; b <= nBeads; b++)
+				sprouts[b] = crossings.getCount(b - 1);
+			owners = skeletonOwners(crossings, nBeads, nearest);
+		} else {
+			owners = null;
+		}
+		if (endo_imp != null) {
+			countPerBead(endo_imp.getStack().getProcessor(1), nearest, nuclei);
+			countPerBead(endo_imp.getStack().getProcessor(2), nearest, pericytes);
+			for (int b = 1; b <= nBeads; b++)
+				nuclei[b] += pericytes[b];
+		} else if (nuc_imp != null) {
+			countPerBead(nuc_imp.getProcessor(), nearest, nuclei);
+		}
+		/* Bounding box of each bead with its region and skeleton, grown by a pixel for the crossings, and its centroid */
+		final Rectangle[] crops = new Rectangle[nBeads + 1];
+		final double[] sumX = new double[nBeads + 1], sumY = new double[nBeads + 1];
+		for (int b = 1; b <= nBeads; b++) {
+			int[] r = beads.getBounds(b);
+			crops[b] = new Rectangle(r[0], r[1], r[2], r[3]);
+		}
+		for (int y = 0, i = 0; y < height; y++)
+			for (int x = 0; x < width; x++, i++) {
+				if (labels[i] != 0) {
+					sumX[labels[i]] += x + 0.5;
+					sumY[labels[i]] += y + 0.5;
+				}
+				if (ssp_mask != null && nearest[i] != 0 && ssp_mask.get(x, y))
+					crops[nearest[i]].add(new Rectangle(x, y, 1, 1));
+				if (owners != null && owners[i] != 0)
+					crops[owners[i]].add(new Rectangle(x, y, 1, 1));
+			}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nThreads));
+		List<Future<SproutResults>> futures = new ArrayList<Future<SproutResults>>();
+		final SproutParameters parameters = getParameters();
+		final int timeFrame = imp != null && imp.getNFrames() > 1 ? frame : 0;
+		for (int b = 1; b <= nBeads; b++) {
+			final int label = b;
+			futures.add(executor.submit(() -> {
+				Rectangle r = crops[label];
+				r.grow(1, 1);
+				r = r.intersection(new Rectangle(width, height));
+				ByteProcessor region = new ByteProcessor(r.width, r.height);
+				ByteProcessor bead_region = new ByteProcessor(r.width, r.height);
+				ByteProcessor skeleton = owners == null ? null : new ByteProcessor(r.width, r.height);
+				for (int y = 0, j = 0; y < r.height; y++) {
+					for (int x = 0; x < r.width; x++, j++) {
+						int i = (r.y + y) * width + r.x + x;
+						if (nearest[i] == label) region.set(j, 255);
+						if (labels[i] == label) bead_region.set(j, 255);
+						if (owners != null && owners[i] == label) skeleton.set(j, 255);
+					}
+				}
+				BitMask in_region = BitMask.of(region);
+				double area = sprout_mask == null ? 0 : measureArea(BitMask.of(sprout_mask.getRegion(r)).and(in_region), cal);
+				double length = 0, junctions = 0, longest = 0;
+				if (skel_mask != null) {
+					SkeletonGraph graph = sproutGraph(BitMask.of(skeleton), BitMask.of(bead_region));
+					length = graph.getTotalLength();
+					junctions = graph.getJunctionCount();
+					longest = quantify[LONGEST_PATH] ? graph.getLongestShortestPath() : 0;
+				}
+				double pericyteArea = peri_mask == null ? 0 : measureArea(BitMask.of(peri_mask.getRegion(r)).and(in_region), cal);
+				int n = sprouts[label];
+				return new SproutResults(title, cal.getUnits(), timeFrame, label,
+						cal.getX(sumX[label] / beads.getArea(label)), cal.getY(sumY[label] / beads.getArea(label)), parameters,
+						1, n, nuclei[label], pericytes[label],
+						area, length, n == 0 ? 0 : length / n, n == 0 ? 0 : junctions / n, longest, pericyteArea,
+						null, new ArrayList<SproutResults>());
+			}));
+		}
+		executor.shutdown();
+		List<SproutResults> results = new ArrayList<SproutResults>();
+		try {
+			for (Future<SproutResults> future : futures)
+				results.add(future.get());
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	/**
+	 * The bead that each pixel of the sprout skeleton (the skeleton outside of
+	 * the beads) is measured for, 0 for all other pixels.
+	 * 
+	 * A part (8-connected) of the sprout skeleton belongs to the bead that its
+	 * crossings with the bead frames are counted for. The pixels of a part that
+	 * crosses the frames of several beads belong to their nearest bead if that is
+	 * one of them, and otherwise to the bead with most crossings of the part; a
+	 * part that crosses no frame belongs to the nearest bead pixel by pixel.
+	 * 
+	 * @param crossings crossings of the skeleton with the frames of the beads
+	 * @param nBeads
+	 * @param nearest bead of every pixel
+	 */
+	private int[] skeletonOwners(BoundaryCrossings crossings, int nBeads, int[] nearest) {
+		ConnectedComponents parts = ConnectedComponents.label(skel_mask.copy().andNot(bead_mask).toByteProcessor(), false);
+		int[] owners = parts.getLabels();
+		/* crossings per part and bead, at part * (nBeads + 1) + bead */
+		Map<Long, Integer> counts = new HashMap<Long, Integer>();
+		int[] main = new int[parts.getCount() + 1], mainCount = new int[parts.getCount() + 1];
+		for (int b = 1; b <= nBeads; b++) {
+			for (int pixel : crossings.getCrossings(b - 1)) {
+				int part = owners[pixel];
+				int n = counts.merge((long) part * (nBeads + 1) + b, 1, Integer::sum);
+				if (n > mainCount[part]) {
+					main[part] = b;
+					mainCount[part] = n;
+				}
+			}
+		}
+		for (int i = 0; i < owners.length; i++) {
+			int part = owners[i];
+			if (part == 0)
+				continue;
+			if (main[part] == 0 || counts.containsKey((long) part * (nBeads + 1) + nearest[i]))
+				owners[i] = nearest[i];
+			else
+				owners[i] = main[part];
+		}
+		return owners;
+	}
+
+	/**
+	 * Count the 8-connected objects of a mask per bead, by the bead the first pixel of each object belongs to.
+	 * 
+	 * @param mask
+	 * @param nearest bead of every pixel
+	 * @param counts incremented at the bead of each object
+	 */
+	private static void countPerBead(ImageProcessor mask, int[] nearest, int[] counts) {
+		ConnectedComponents cc = ConnectedComponents.label(mask, false);
+		for (int id = 1; id <= cc.getCount(); id++)
+			counts[nearest[cc.getFirstPixel(id)]]++;
 	}
 
 	/**
@@ -737,100 +1567,200 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	 * @param channel
 	 * @param specified Use specified mask without processing
 	 */
-	private ImagePlus findBeads(ImagePlus imp, int channel, boolean specified) {
-	 	ImagePlus output = new Duplicator().run(imp, channel, channel, 1, 1, 1, 1);
-		if (!specified) {
-			//IJ.run(output, "Gaussian Blur...", "sigma=" + blur_bead + " scaled");
-			gb.blurGaussian(output.getProcessor() ,blur_bead ,blur_bead , 0.02); // scaled!
-			//IJ.setAutoThreshold(output, thr_bead + " dark");
-			output.getProcessor().setAutoThreshold(thr_bead, true, 0);
-			//IJ.run(output, "Convert to Mask", "");
-			WindowManager.setTempCurrentImage(output);
-			thr.run("mask");
-			WindowManager.setTempCurrentImage(null);
-			// ResultsTable rt = new ResultsTable(); // necessary to avoid interference with standard ResultsTable
-			ParticleAnalyzer pa = new ParticleAnalyzer(ParticleAnalyzer.IN_SITU_SHOW + ParticleAnalyzer.INCLUDE_HOLES, 0, null, 10, 50000);
-			pa.analyze(output);
+	BitMask findBeads(ImagePlus imp, int channel, boolean specified) {
+		List<Object> key = beadKey(channel, specified);
+		BitMask output = cache.getMask("beads", key);
+		if (output != null)
+			return output;
+		if (!specified && bead_downsampling > 1 && imp.getBitDepth() != 24) {
 			IJ.showStatus("Finding beads...");
-			//IJ.run(output, "Minimum...", "radius=" + IJ.d2s(bead_radius / pixel_size));
-			rf.rank(output.getProcessor(), bead_radius / pixel_size, RankFilters.MIN);
-			//IJ.run(output, "Maximum...", "radius=" + IJ.d2s(bead_radius_multiplier * bead_radius / pixel_size));
-			rf.rank(output.getProcessor(), bead_radius_multiplier * bead_radius / pixel_size, RankFilters.MAX);
-		} else {
-			IJ.run(output, "Convert to Mask", ""); // (new Thresholder()).run("mask");
+			ImagePlus blurred = getBlurredBeads(imp, channel);
+			// the level of the full-resolution image, from the same (cached) histogram as getBeadCandidates()
+			setAutoThreshold(blurred.getProcessor(), thr_bead, Stage.BEADS, StageCache.keyOf(blurred));
+			output = BitMask.of(BeadPyramid.findBeads(blurred.getProcessor(), blurred.getProcessor().getMinThreshold(),
+					bead_radius / pixel_size, bead_radius_multiplier * bead_radius / pixel_size, bead_downsampling));
+			return cache.putMask("beads", key, output);
 		}
-		return output;
+		output = getBeadCandidates(imp, channel, specified);
+		if (!specified)
+			output = filterBeads(output);
+		return cache.putMask("beads", key, output);
 	 }
 
+	/**
+	 * Morphological filtering of the thresholded bead channel: remove everything
+	 * smaller than bead_radius and dilate the beads again.
+	 * 
+	 * @param candidates thresholded bead channel
+	 */
+	private BitMask filterBeads(BitMask candidates) {
+		IJ.showStatus("Finding beads...");
+		//IJ.run(output, "Minimum...", "radius=" + IJ.d2s(bead_radius / pixel_size));
+		BitMask output = BinaryMorphology.erode(candidates, bead_radius / pixel_size, MASK_TILE);
+		//IJ.run(output, "Maximum...", "radius=" + IJ.d2s(bead_radius_multiplier * bead_radius / pixel_size));
+		return BinaryMorphology.dilate(output, bead_radius_multiplier * bead_radius / pixel_size, MASK_TILE);
+	}
+
+	/**
+	 * Threshold the blurred bead channel, before the morphological filtering of findBeads().
+	 * 
+	 * @param imp
+	 * @param channel
+	 * @param specified Use specified mask without processing
+	 */
+	private BitMask getBeadCandidates(ImagePlus imp, int channel, boolean specified) {
+		if (specified)
+			return maskOf(new ChannelView(imp, channel, frame).copy().getProcessor());
+		ImagePlus blurred = getBlurredBeads(imp, channel);
+		//IJ.setAutoThreshold(output, thr_bead + " dark");
+		setAutoThreshold(blurred.getProcessor(), thr_bead, Stage.BEADS, StageCache.keyOf(blurred));
+		//IJ.run(output, "Convert to Mask", "");
+		return packThresholded(blurred.getProcessor());
+	}
+
+	/**
+	 * Blur a given channel of an ImagePlus for bead detection.
+	 * 
+	 * @param imp
+	 * @param channel
+	 */
+	private ImagePlus getBlurredBeads(ImagePlus imp, int channel) {
+		List<Object> key = StageCache.key(frame, channel, blur_bead);
+		ImagePlus output = cache.get("bead_blur", key);
+		if (output != null)
+			return output;
+		output = new ChannelView(imp, channel, frame).copy();
+		//IJ.run(output, "Gaussian Blur...", "sigma=" + blur_bead + " scaled");
+		new GaussianBlur().blurGaussian(output.getProcessor() ,blur_bead ,blur_bead , 0.02); // scaled!
+		return cache.put("bead_blur", key, output);
+	}
+
 	/**
 	 * Find sprouts in a given channel of an ImagePlus with a bead mask.
 	 * 
+	 * Each step is memoized, so that changing e.g. min_sprout_area only
+	 * repeats the final size filter.
+	 * 
 	 * @param imp
 	 * @param channel
 	 * @param beads
+	 * @param beadKey stage key of the bead mask (see beadKey())
+	 * @param specified Use specified mask without processing
 	 */
-	private ImagePlus findSprouts(ImagePlus imp, int channel, ImagePlus beads, boolean specified) {
-		ImagePlus output = new Duplicator().run(imp, channel, channel, 1, 1, 1, 1);
-		if (!specified) {
-			//IJ.run(output, "Gaussian Blur...", "sigma=" + blur_sprout + " scaled");
-			gb.blurGaussian(output.getProcessor() ,blur_sprout ,blur_sprout , 0.02);
-			//IJ.setAutoThreshold(output, thr_sprout + " dark"); // Use combined threshold here??
-			output.getProcessor().setAutoThreshold(thr_sprout, true, 0);
-			// ResultsTable rt = new ResultsTable();
-			ParticleAnalyzer pa = new ParticleAnalyzer(ParticleAnalyzer.SHOW_MASKS + ParticleAnalyzer.IN_SITU_SHOW, 0, null, min_plexus_area, Double.POSITIVE_INFINITY);
-			pa.analyze(output);
-			IJ.showStatus("Finding sprouts...");
-			if (do_recover) {
-				/* Dilate and Erode with different radii */
-				IJ.run(output, "Maximum...", "radius=" + IJ.d2s(10 / pixel_size));
-				IJ.showStatus("Finding sprouts....");
-				IJ.run(output, "Minimum...", "radius=" + IJ.d2s(8 / pixel_size));
-				IJ.showStatus("Finding sprouts.....");
-			}
+	BitMask findSprouts(ImagePlus imp, int channel, BitMask beads, List<?> beadKey, boolean specified) {
+		if (specified)
+			return maskOf(new ChannelView(imp, channel, frame).copy().getProcessor());
+		List<Object> key = sproutKey(channel, beadKey, specified);
+		BitMask output = cache.getMask("sprouts", key);
+		if (output != null)
+			return output;
+		output = connectSproutsToBeads(imp, channel, beads, beadKey);
+		/* Discard sprouts smaller than min_sprout_area */
+		filterParticles(output, min_sprout_area, false);
+		return cache.putMask("sprouts", key, output);
+	}
 
-			/* Find regions connected do beads */
-			ImageCalculator ic = new ImageCalculator();
-			ic.run("OR", output, beads);
-			ResultsTable rt2 = new ResultsTable();
-			ParticleAnalyzer pa2 = new ParticleAnalyzer(ParticleAnalyzer.SHOW_NONE | ParticleAnalyzer.RECORD_STARTS, Measurements.CENTER_OF_MASS, rt2, 0, Double.POSITIVE_INFINITY);
-			pa2.analyze(beads);
-			int nResults = rt2.getCounter();
-			ImageProcessor ip = output.getProcessor();
-			ip.setValue(128);
-			FloodFiller filler = new FloodFiller(ip);
-			for (int i = 0; i < nResults; i++) {
-				filler.fill((int)rt2.getValue("XStart", i), (int)rt2.getValue("YStart", i));
-			}
-			IJ.setThreshold(output, 127, 129); // TODO: avoid that this gets recorded
-			//IJ.run(output, "Convert to Mask", "");
-			WindowManager.setTempCurrentImage(output);
-			thr.run("mask");
-			WindowManager.setTempCurrentImage(null);
-			ic.run("XOR", output, beads);
-			if (do_exclude_borders) {
-				// TODO: discard big area at the corners
-				ImagePlus artefact_mask = new Duplicator().run(output);
-				// maybe watershed first? what about wholes?
-				// analyze particles with exclude_edges
-				ParticleAnalyzer pa4 = new ParticleAnalyzer(ParticleAnalyzer.SHOW_MASKS + ParticleAnalyzer.EXCLUDE_EDGE_PARTICLES + ParticleAnalyzer.IN_SITU_SHOW, 0, null, 0, Double.POSITIVE_INFINITY);
-				pa4.analyze(artefact_mask);
-				// xor the result with output
-				ic.run("XOR", artefact_mask, output);
-				// select particles with minimum size = min_artefact_size
-				ParticleAnalyzer pa5 = new ParticleAnalyzer(ParticleAnalyzer.SHOW_MASKS + ParticleAnalyzer.IN_SITU_SHOW, 0, null, min_cluster_size, Double.POSITIVE_INFINITY);
-				pa5.analyze(artefact_mask);
-				// XOR(output, artefact_mask)
-				ic.run("XOR",output, artefact_mask);			
-			}
-			/* Discard sprouts smaller than min_sprout_area */
-			ParticleAnalyzer pa3 = new ParticleAnalyzer(ParticleAnalyzer.SHOW_MASKS + ParticleAnalyzer.IN_SITU_SHOW, 0, null, min_sprout_area, Double.POSITIVE_INFINITY);
-			pa3.analyze(output);
-		} else {
-			IJ.run(output, "Convert to Mask", ""); // (new Thresholder()).run("mask");
+	/**
+	 * Blur a given channel of an ImagePlus for sprout detection.
+	 * 
+	 * @param imp
+	 * @param channel
+	 */
+	private ImagePlus getBlurredSprouts(ImagePlus imp, int channel) {
+		List<Object> key = blurredSproutsKey(channel);
+		ImagePlus output = cache.get("sprout_blur", key);
+		if (output != null)
+			return output;
+		output = new ChannelView(imp, channel, frame).copy();
+		//IJ.run(output, "Gaussian Blur...", "sigma=" + blur_sprout + " scaled");
+		new GaussianBlur().blurGaussian(output.getProcessor() ,blur_sprout ,blur_sprout , 0.02);
+		return cache.put("sprout_blur", key, output);
+	}
+
+	/**
+	 * Threshold the blurred sprout channel and keep structures larger than min_plexus_area.
+	 * 
+	 * @param imp
+	 * @param channel
+	 */
+	private BitMask getPlexusMask(ImagePlus imp, int channel) {
+		List<Object> key = plexusKey(channel);
+		BitMask output = cache.getMask("sprout_plexus", key);
+		if (output != null)
+			return output;
+		ImagePlus blurred = getBlurredSprouts(imp, channel);
+		//IJ.setAutoThreshold(output, thr_sprout + " dark"); // Use combined threshold here??
+		setAutoThreshold(blurred.getProcessor(), thr_sprout, Stage.SPROUTS, StageCache.keyOf(blurred));
+		output = packThresholded(blurred.getProcessor());
+		filterParticles(output, min_plexus_area, false);
+		IJ.showStatus("Finding sprouts...");
+		if (do_recover) {
+			/* Dilate and Erode with different radii */
+			//IJ.run(output, "Maximum...", "radius=" + IJ.d2s(10 / pixel_size));
+			output = BinaryMorphology.dilate(output, 10 / pixel_size, MASK_TILE);
+			IJ.showStatus("Finding sprouts....");
+			//IJ.run(output, "Minimum...", "radius=" + IJ.d2s(8 / pixel_size));
+			output = BinaryMorphology.erode(output, 8 / pixel_size, MASK_TILE);
+			IJ.showStatus("Finding sprouts.....");
 		}
-	 	return output;
+		return cache.putMask("sprout_plexus", key, output);
 	}
 
+	/**
+	 * Keep the parts of the plexus mask that are connected to beads.
+	 * 
+	 * @param imp
+	 * @param channel
+	 * @param beads
+	 * @param beadKey stage key of the bead mask
+	 */
+	private BitMask connectSproutsToBeads(ImagePlus imp, int channel, BitMask beads, List<?> beadKey) {
+		List<Object> key = connectedKey(channel, beadKey);
+		BitMask output = cache.getMask("sprout_connected", key);
+		if (output != null)
+			return output;
+		output = getPlexusMask(imp, channel).or(beads);
+		/* Find regions connected do beads: 4-connected to the first pixel of a bead, like a flood fill from there */
+		TiledComponents bead_cc = new TiledComponents(beads, MASK_TILE, false, null);
+		BitMask starts = new BitMask(beads.getWidth(), beads.getHeight());
+		for (int start : firstPixels(bead_cc))
+			starts.set(start % beads.getWidth(), start / beads.getWidth());
+		TiledComponents connected_cc = new TiledComponents(output, MASK_TILE, true, starts);
+		connected_cc.retain(output, id -> connected_cc.isSeeded(id));
+		output.xor(beads);
+		if (do_exclude_borders) {
+			// TODO: discard big area at the corners
+			// maybe watershed first? what about wholes?
+			/* discard particles touching the edges with minimum size = min_artefact_size */
+			TiledComponents border_cc = new TiledComponents(output, MASK_TILE, false, null);
+			border_cc.retain(output, id -> !(border_cc.touchesEdge(id) && border_cc.getArea(id) >= min_cluster_size));
+		}
+		return cache.putMask("sprout_connected", key, output);
+	}
+
+	/*
+	 * Parameters that the intermediate masks depend on
+	 */
+	List<Object> beadKey(int channel, boolean specified) {
+		return StageCache.key(frame, channel, specified, thr_bead, blur_bead, bead_radius, bead_radius_multiplier, bead_downsampling);
+	}
+
+	private List<Object> blurredSproutsKey(int channel) {
+		return StageCache.key(frame, channel, blur_sprout);
+	}
+
+	private List<Object> plexusKey(int channel) {
+		return StageCache.key(blurredSproutsKey(channel), thr_sprout, min_plexus_area, do_recover);
+	}
+
+	private List<Object> connectedKey(int channel, List<?> beadKey) {
+		return beadKey == null ? null : StageCache.key(plexusKey(channel), beadKey, do_exclude_borders, min_cluster_size);
+	}
+
+	private List<Object> sproutKey(int channel, List<?> beadKey, boolean specified) {
+		List<Object> connectedKey = connectedKey(channel, beadKey);
+		return specified || connectedKey == null ? null : StageCache.key(connectedKey, min_sprout_area);
+	}
 
 	/**
 	 * Count the number of objects in a segmented binary image.
@@ -838,10 +1768,60 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	 * @param imp Segmented binary image
 	 */
 	private int count(ImagePlus imp) {
-		ResultsTable rt = new ResultsTable();
-		ParticleAnalyzer pa = new ParticleAnalyzer(ParticleAnalyzer.SHOW_NONE, 0, rt, 0, Double.POSITIVE_INFINITY);
-		pa.analyze(imp);
-		return rt.getCounter();
+		return ConnectedComponents.label(imp.getProcessor(), false).getCount();
+	}
+
+	/**
+	 * First pixel (y*width+x) of each labeled object.
+	 * 
+	 * @param cc
+	 */
+	static int[] firstPixels(ConnectedComponents cc) {
+		int[] starts = new int[cc.getCount()];
+		for (int i = 0; i < starts.length; i++)
+			starts[i] = cc.getFirstPixel(i + 1);
+		return starts;
+	}
+
+	/**
+	 * First pixel (y*width+x) of each labeled object, for images of less than 2^31 pixels.
+	 *
+	 * @param cc
+	 */
+	static int[] firstPixels(TiledComponents cc) {
+		int[] ids = cc.getComponents();
+		int[] starts = new int[ids.length];
+		for (int i = 0; i < starts.length; i++)
+			starts[i] = (int) cc.getFirstPixel(ids[i]);
+		return starts;
+	}
+
+	/**
+	 * Keep the particles of a packed mask that are large enough.
+	 *
+	 * @param mask
+	 * @param min_area minimum particle area (pixels)
+	 * @param exclude_edges discard particles touching the image border
+	 */
+	private void filterParticles(BitMask mask, double min_area, boolean exclude_edges) {
+		TiledComponents cc = new TiledComponents(mask, MASK_TILE, false, null);
+		cc.retain(mask, id -> cc.getArea(id) >= min_area && !(exclude_edges && cc.touchesEdge(id)));
+	}
+
+	/**
+	 * Keep the particles of a segmented image that are large enough, replacing it by a binary mask.
+	 * A thresholded image is converted to a mask first, otherwise all non-zero pixels are taken as foreground.
+	 * 
+	 * @param imp
+	 * @param min_area minimum particle area (pixels)
+	 * @param exclude_edges discard particles touching the image border
+	 */
+	private void filterParticles(ImagePlus imp, double min_area, boolean exclude_edges) {
+		if (imp.getProcessor().getMinThreshold() != ImageProcessor.NO_THRESHOLD)
+			convertToMask(imp);
+		ImageProcessor ip = imp.getProcessor();
+		ConnectedComponents cc = ConnectedComponents.label(ip, false);
+		cc.retain((byte[]) ip.getPixels(), label -> cc.getArea(label) >= min_area && !(exclude_edges && cc.touchesEdge(label)));
 	}
 
 	/**
@@ -858,81 +1838,93 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	/**
 	 * Skeletonize a given sprout image and removes unimportant branches.
 	 * 
-	 * @param sprouts binary image containing sprout segmentation, the image to be skeletonized
-	 * @param beads binary image containing bead segmentation
+	 * @param sprouts packed sprout segmentation, to be skeletonized
 	 */
-	private ImagePlus getCleanSkeleton(ImagePlus sprouts, ImagePlus beads) {
-		ImagePlus output = new Duplicator().run(sprouts);
-		IJ.run(output, "Skeletonize (2D/3D)", "");
+	BitMask getCleanSkeleton(BitMask sprouts) {
+		ByteProcessor output = sprouts.toByteProcessor();
+		//IJ.run(output, "Skeletonize (2D/3D)", "");
+		Thinning.skeletonize(output);
 		// TODO: remove "short" branches (pruning algorithm?)
-		return output;
+		return BitMask.of(output);
 	}
 
 	/**
 	 * Populate result variables with values from skeleton analysis.
 	 * 
-	 * @param skeleton
+	 * @param skeleton sprout skeleton, with the calibration of the analyzed image
 	 * @param beads
+	 * @param bead_starts first pixel of each bead (y*width+x)
 	 * 
 	 *  Determine the number of sprouts (num_sprouts) from the intersections
-	 *  of the skeleton with the bead frames.
+	 *  of the skeleton with the bead frames, following the boundary of each
+	 *  bead.
 	 *  Determine the average sprout length (avg_sprout_length) by summing up
 	 *  the lengths of all branches, and dividing by the determined number of
 	 *  sprouts.
+	 *  Determine the longest shortest path (longest_path) only if that
+	 *  metric is selected.
 	 *  
 	 *  Fill the following variables:
 	 *   int	num_sprouts
 	 *   double	avg_sprout_length
+	 *   double	longest_path
 	 */
-	private boolean analyzeSproutSkeleton(ImagePlus skeleton, ImagePlus beads) {
-		ImagePlus temp = new Duplicator().run(beads);
-		IJ.run(temp, "Dilate", "");
-		ImageCalculator ic = new ImageCalculator();
-		ic.run("XOR", temp, beads);
-		ic.run("AND", temp, skeleton);
-		/* Count the number of sprouts */
-		ResultsTable rt = new ResultsTable();
-		ParticleAnalyzer pa = new ParticleAnalyzer(ParticleAnalyzer.SHOW_NONE, 0, rt, 0, Double.POSITIVE_INFINITY);
-		pa.analyze(temp);
-		num_sprouts = rt.getCounter();
+	boolean analyzeSproutSkeleton(BitMask skeleton, BitMask beads, int[] bead_starts) {
+		/* Count the number of sprouts: skeleton parts on a one-pixel frame around the beads */
+		num_sprouts = BoundaryCrossings.count(beads, bead_starts, skeleton).getCount();
 
-		ImagePlus sprout_skel = new Duplicator().run(skeleton);
-		ic.run("Subtract", sprout_skel, beads);
 		/* determine average network length per sprout */
-		AnalyzeSkeleton_ skel = new AnalyzeSkeleton_();
-		AnalyzeSkeleton_.calculateShortestPath = true;
-		skel.setup("", sprout_skel);
-		SkeletonResult sr = skel.run(AnalyzeSkeleton_.NONE, false, true, null, true, false);
-		double[] branchLengths = sr.getAverageBranchLength();
-		int[] branchNumbers = sr.getBranches();
-		int[] junctionNumbers = sr.getJunctions();
-		totalLength = 0;
-		double totalJunctions = 0;
-		if (branchNumbers != null) {
-			for (int i = 0; i < branchNumbers.length; i++) {
-				totalLength += branchNumbers[i] * branchLengths[i];
-				totalJunctions += junctionNumbers[i];
-			}
-		}
-		/* maybe count the longest_shortest_paths here, instead of total network length */
+		SkeletonGraph graph = sproutGraph(skeleton, beads);
+		totalLength = graph.getTotalLength();
+		double totalJunctions = graph.getJunctionCount();
+		/* the path search is only needed for the optional metric */
+		longest_path = quantify[LONGEST_PATH] ? graph.getLongestShortestPath() : 0;
 		avg_sprout_length = totalLength / num_sprouts;
 		junctionsPerSprout = totalJunctions / num_sprouts;
 		return true; // TODO: some error capturing here -> return false
 	}
 
+	/**
+	 * Graph of the skeleton outside of the beads, with calibrated branch lengths.
+	 * 
+	 * @param skeleton
+	 * @param beads
+	 */
+	private SkeletonGraph sproutGraph(BitMask skeleton, BitMask beads) {
+		ByteProcessor sprout_skel = skeleton.copy().andNot(beads).toByteProcessor();
+		return SkeletonGraph.build((byte[]) sprout_skel.getPixels(), sprout_skel.getWidth(), sprout_skel.getHeight(), cal.pixelWidth, cal.pixelHeight);
+	}
+
 	/**
 	 * Simple Segmentation of Nuclei in the given image.
 	 * 
 	 * @param imp
 	 * @param sprouts
+	 * @param sproutKey stage key of the sprout mask, or null if unknown
 	 * @param channel
 	 */
-	private ImagePlus getNucleusMask(ImagePlus imp, ImagePlus sprouts, int channel) {
-	 	ImagePlus output = new Duplicator().run(imp, channel, channel, 1, 1, 1, 1);
-		IJ.run(output, "Subtract Background...", "rolling=50"); // TODO: avoid use of IJ.run during preview
-		IJ.run(output, "Gaussian Blur...", "sigma=" + blur_nuc + " scaled"); // scaling?
-		IJ.setAutoThreshold(output, thr_nuc + " dark");
+	ImagePlus getNucleusMask(ImagePlus imp, BitMask sprouts, List<?> sproutKey, int channel) {
+		ImagePlus output = getNuclei(imp, channel);
+		sprouts.clearOutside(output.getProcessor());
+		List<?> nucleiKey = StageCache.keyOf(output);
+		StageCache.tag(output, nucleiKey == null || sproutKey == null ? null : StageCache.key(nucleiKey, sproutKey));
+		return output;
+	}
+
+	/**
+	 * Segment all nuclei in the given channel, regardless of the sprout mask.
+	 * 
+	 * @param imp
+	 * @param channel
+	 */
+	private ImagePlus getNuclei(ImagePlus imp, int channel) {
+		List<Object> key = StageCache.key(frame, channel, bg_radius, blur_nuc, thr_nuc, max_tolerance, min_nuc_area);
+		ImagePlus output = cache.get("nuclei", key);
+		if (output != null)
+			return output;
+	 	output = getBlurredNuclei(imp, channel);
 		ImageProcessor ip = output.getProcessor();
+		setAutoThreshold(ip, thr_nuc, Stage.NUCLEI, StageCache.keyOf(output));
 		ip = (new MaximumFinder()).findMaxima(ip, max_tolerance, ip.getMinThreshold(), MaximumFinder.SEGMENTED, false, false);
 		if (null != ip) output.setProcessor(ip);// make sure this finds its way back to output
 		/*
@@ -940,13 +1932,59 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 		IJ.run(output, "Gaussian Blur...", "sigma=2");
 		IJ.setAutoThreshold(output, "Li dark"); // customize threshold
 		*/
-		// ResultsTable rt = new ResultsTable();		
-		ParticleAnalyzer pa = new ParticleAnalyzer(ParticleAnalyzer.SHOW_MASKS + ParticleAnalyzer.IN_SITU_SHOW, 0, null, min_nuc_area / (pixel_size * pixel_size), Double.POSITIVE_INFINITY);
-		pa.analyze(output);
+		filterParticles(output, min_nuc_area / (pixel_size * pixel_size), false);
 		//IJ.run(output, "Watershed", "");
-		ImageCalculator ic = new ImageCalculator();
-		ic.run("AND", output, sprouts);
-		return output;
+		return cache.put("nuclei", key, output);
+	}
+
+	/**
+	 * Background-subtracted and blurred nucleus channel, before the threshold of getNuclei().
+	 * 
+	 * @param imp
+	 * @param channel
+	 */
+	private ImagePlus getBlurredNuclei(ImagePlus imp, int channel) {
+		List<Object> key = StageCache.key(frame, channel, bg_radius, blur_nuc);
+		ImagePlus output = cache.get("nuclei_blur", key);
+		if (output != null)
+			return output;
+		output = getBackgroundSubtracted(imp, channel);
+		blur(output, blur_nuc / cal.pixelWidth, blur_nuc / cal.pixelHeight);
+		return cache.put("nuclei_blur", key, output);
+	}
+
+	/**
+	 * Copy of a channel with its background subtracted by a top-hat of radius bg_radius.
+	 * 
+	 * Within one analyze(), each channel is only subtracted once, whether or not
+	 * caching is enabled, so that the nucleus segmentation and the EC
+	 * classification share the work when the nuclei and the EC marker are in
+	 * the same channel. With caching enabled (see setCaching()), the result is
+	 * also kept like the output of the other stages, e.g. for repeated previews.
+	 * 
+	 * @param imp
+	 * @param channel
+	 */
+	private ImagePlus getBackgroundSubtracted(ImagePlus imp, int channel) {
+		List<Object> key = StageCache.key(frame, channel, bg_radius);
+		ImagePlus output = backgrounds.computeIfAbsent(key, k -> {
+			ImagePlus cached = cache.get("background", k);
+			if (cached != null)
+				return cached;
+			IJ.showStatus("Subtracting background...");
+			ImagePlus subtracted = new ChannelView(imp, channel, frame).copy();
+			TopHat.subtract(subtracted.getProcessor(), bg_radius);
+			backgroundCount++;
+			return cache.put("background", k, subtracted);
+		});
+		return output.duplicate(); // the stages blur their copy
+	}
+
+	/**
+	 * Number of background subtractions this analyzer has computed (see getBackgroundSubtracted()).
+	 */
+	int getBackgroundCount() {
+		return backgroundCount;
 	}
 
 	/**
@@ -956,25 +1994,38 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	 * @param nuclei
 	 * @param channel
 	 */
-	private ImagePlus classifyEC(ImagePlus imp, ImagePlus nuclei, int channel) {
+	ImagePlus classifyEC(ImagePlus imp, ImagePlus nuclei, int channel) {
 	 	/* Create EC-positive mask */
-	 	ImagePlus temp = new Duplicator().run(imp, channel, channel, 1, 1, 1, 1);
-	 	IJ.run(temp, "Subtract Background...", "rolling=50");
-		IJ.run(temp, "Gaussian Blur...", "sigma=2"); // TODO: make blur radius configurable
-		ImageCalculator ic = new ImageCalculator();
-		ImagePlus output = ic.run("Multiply create 32-bit", temp, nuclei);
-		IJ.setAutoThreshold(output, thr_ec + " dark"); // TODO: avoid IJ during preview
-		ParticleAnalyzer pa = new ParticleAnalyzer(ParticleAnalyzer.SHOW_MASKS + ParticleAnalyzer.IN_SITU_SHOW, 0, null, min_ec_area / (pixel_size * pixel_size), Double.POSITIVE_INFINITY);
-		pa.analyze(output);
+	 	ImagePlus temp = getBlurredEC(imp, channel);
+		ImagePlus output = new ImagePlus(temp.getTitle(), multiply(temp.getProcessor(), nuclei.getProcessor()));
+		output.setCalibration(cal);
+		List<?> markerKey = StageCache.keyOf(temp), nucleiKey = StageCache.keyOf(nuclei);
+		setAutoThreshold(output.getProcessor(), thr_ec, Stage.EC, markerKey == null || nucleiKey == null ? null : StageCache.key(markerKey, nucleiKey));
+		filterParticles(output, min_ec_area / (pixel_size * pixel_size), false);
 		// use BinaryReconstruct output > nuclei
-		BinaryReconstruct_ br = new BinaryReconstruct_();
-		ImagePlus ec_imp = (ImagePlus)br.exec(nuclei, output, null, false, true, false)[1];
+		ImagePlus ec_imp = (ImagePlus)new BinaryReconstruct_().exec(nuclei, output, null, false, true, false)[1]; // own work buffers, for concurrent stages
 		// XOR ec X nuclei -> non-EC
-		ImagePlus ec_neg = ic.run("XOR create", ec_imp, nuclei);
-		ec_imp.getStack().addSlice(ec_neg.getProcessor());
+		BitMask ec_neg = BitMask.of(ec_imp.getProcessor()).xor(BitMask.of(nuclei.getProcessor()));
+		ec_imp.getStack().addSlice(ec_neg.toByteProcessor());
 		return ec_imp;
 	}
 
+	/**
+	 * Background-subtracted and blurred EC marker channel, before its product with the nuclei in classifyEC().
+	 * 
+	 * @param imp
+	 * @param channel
+	 */
+	private ImagePlus getBlurredEC(ImagePlus imp, int channel) {
+		List<Object> key = StageCache.key(frame, channel, bg_radius);
+		ImagePlus output = cache.get("ec_blur", key);
+		if (output != null)
+			return output;
+		output = getBackgroundSubtracted(imp, channel);
+		blur(output, 2, 2); // TODO: make blur radius configurable
+		return cache.put("ec_blur", key, output);
+	}
+
 	/**
 	 * Quantifies the pericyte coverage (area fraction)
 	 * 
@@ -982,13 +2033,13 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	 * @param sprouts
 	 * @param channel
 	 */
-	public ImagePlus getPericyteArea(ImagePlus imp, ImagePlus sprouts, int channel) {
-		ImagePlus output = new Duplicator().run(imp, channel, channel, 1, 1, 1, 1);
-		IJ.setAutoThreshold(output, thr_peri + " dark"); // TODO: avoid IJ
-		IJ.run(output, "Convert to Mask", ""); // TODO: avoid IJ
+	public BitMask getPericyteArea(ImagePlus imp, BitMask sprouts, int channel) {
+		ImageProcessor ip = new ChannelView(imp, channel, frame).getProcessor(); // only read
+		setAutoThreshold(ip, thr_peri, Stage.PERICYTES, StageCache.key(frame, channel));
+		//IJ.run(output, "Convert to Mask", "");
+		BitMask output = packThresholded(ip);
 		// mask with sprouts
-		ImageCalculator ic = new ImageCalculator();
-		ic.run("AND", output, sprouts);
+		output.and(sprouts);
 		/* // this is just quantification, not needed during preview
 		ResultsTable rt = new ResultsTable();
 		IJ.setThreshold(output, 1, 255);
@@ -1000,21 +2051,143 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	}
 
 	/**
-	 * Measure area of a binary image
+	 * Measure the calibrated area of a packed mask
 	 * 
-	 * @param binaryImp The ImagePlus binary image to be measured
+	 * @param mask
+	 * @param cal
 	 */
-	private Double measureArea(ImagePlus binaryImp) {
-		ResultsTable rt = new ResultsTable();
-		IJ.setThreshold(binaryImp, 1, 255);
-		Analyzer an = new Analyzer(binaryImp, Measurements.AREA + Measurements.LIMIT, rt);  
-		an.measure();
-		return rt.getValueAsDouble(rt.getLastColumn(), rt.getCounter()-1);
-		
+	private double measureArea(BitMask mask, Calibration cal) {
+		return mask.cardinality() * cal.pixelWidth * cal.pixelHeight;
+	}
+
+	/**
+	 * Convert a thresholded image to a binary mask (255 = thresholded).
+	 *
+	 * Same result as Thresholder.run("mask"), but without going through
+	 * WindowManager, so it can run on several images in parallel.
+	 *
+	 * @param imp Image with a threshold set on its processor
+	 */
+	private void convertToMask(ImagePlus imp) {
+		ImageProcessor ip = imp.getProcessor();
+		ByteProcessor mask = threshold(ip, ip.getMinThreshold(), ip.getMaxThreshold());
+		mask.setThreshold(255, 255, ImageProcessor.NO_LUT_UPDATE);
+		imp.setProcessor(mask);
+	}
+
+	/**
+	 * Packed mask of the pixels within the threshold of an image, like
+	 * convertToMask() without the intermediate 8-bit image.
+	 *
+	 * @param ip Image with a threshold set
+	 */
+	private static BitMask packThresholded(ImageProcessor ip) {
+		float t1 = (float) ip.getMinThreshold();
+		float t2 = (float) ip.getMaxThreshold();
+		int width = ip.getWidth(), height = ip.getHeight();
+		BitMask mask = new BitMask(width, height);
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				float value = ip.getf(i);
+				if (value >= t1 && value <= t2)
+					mask.set(x, y);
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Automatic threshold (dark background) of the image of a stage, the same as
+	 * ip.setAutoThreshold(method, true, NO_LUT_UPDATE). The histogram is kept by
+	 * the cache, so that trying several methods on the same image computes it once.
+	 *
+	 * @param ip
+	 * @param method
+	 * @param stage stage the threshold belongs to
+	 * @param key key of the image, or null if unknown
+	 */
+	private void setAutoThreshold(ImageProcessor ip, String method, Stage stage, List<?> key) {
+		double[] t = cache.histogram(stage.name(), key, ip).getDarkBackgroundThreshold(method);
+		ip.setThreshold(t[0], t[1], ImageProcessor.NO_LUT_UPDATE);
+		levels.put(stage, t[0]);
+	}
+
+	/**
+	 * Lower threshold of a stage in the last analysis, or NaN if the stage did not compute one.
+	 *
+	 * @param stage
+	 */
+	double getThresholdLevel(Stage stage) {
+		Double level = levels.get(stage);
+		return level == null ? Double.NaN : level;
+	}
+
+	/**
+	 * Pack a channel that already is a mask, like "Convert to Mask" on an image
+	 * without threshold: the foreground is the bright side of the default
+	 * (IsoData) threshold.
+	 *
+	 * @param ip
+	 */
+	private BitMask maskOf(ImageProcessor ip) {
+		ip.setAutoThreshold("Default", true, ImageProcessor.NO_LUT_UPDATE);
+		return packThresholded(ip);
+	}
+
+	/**
+	 * Gaussian blur with the accuracy of the "Gaussian Blur..." command.
+	 *
+	 * @param imp
+	 * @param sigmaX (pixels)
+	 * @param sigmaY (pixels)
+	 */
+	private void blur(ImagePlus imp, double sigmaX, double sigmaY) {
+		ImageProcessor ip = imp.getProcessor();
+		double accuracy = (ip instanceof ByteProcessor || ip instanceof ColorProcessor) ? 0.002 : 0.0002;
+		new GaussianBlur().blurGaussian(ip, sigmaX, sigmaY, accuracy);
+	}
+
+	/**
+	 * 32-bit product of two images, like ImageCalculator's "Multiply create 32-bit".
+	 *
+	 * @param ip1
+	 * @param ip2
+	 */
+	private static FloatProcessor multiply(ImageProcessor ip1, ImageProcessor ip2) {
+		int size = ip1.getPixelCount();
+		FloatProcessor product = new FloatProcessor(ip1.getWidth(), ip1.getHeight());
+		float[] pixels = (float[]) product.getPixels();
+		for (int i = 0; i < size; i++)
+			pixels[i] = ip1.getf(i) * ip2.getf(i);
+		product.resetMinAndMax();
+		return product;
+	}
+
+	/**
+	 * Binary mask (255/0) of the pixels within a threshold range.
+	 *
+	 * @param ip
+	 * @param lower
+	 * @param upper
+	 */
+	private static ByteProcessor threshold(ImageProcessor ip, double lower, double upper) {
+		float t1 = (float) lower;
+		float t2 = (float) upper;
+		int size = ip.getPixelCount();
+		ByteProcessor mask = new ByteProcessor(ip.getWidth(), ip.getHeight());
+		byte[] pixels = (byte[]) mask.getPixels();
+		float value;
+		for (int i = 0; i < size; i++) {
+			value = ip.getf(i);
+			if (value >= t1 && value <= t2)
+				pixels[i] = (byte) 255;
+		}
+		return mask;
 	}
 
 	/**
-	 * Transform an ImageProcessor into an Overlay with a given color and opacity
+	 * Transform an ImageProcessor into an Overlay with a given color and opacity,
+	 * at the position of the analyzed part of the image (see ChannelView).
 	 *
 	 * @param ip The ImageProcessor that should serve as overlay
 	 * @param color The color to create the Overlay's LUT
@@ -1022,14 +2195,16 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	 */
 	private Overlay makeOverlay(ImageProcessor ip, Color color, Double opacity) {
 		ip.setLut(LUT.createLutFromColor(color));
-		ImageRoi roi = new ImageRoi(0, 0, ip);
+		Rectangle r = new ChannelView(imp, 1, frame).getBounds();
+		ImageRoi roi = new ImageRoi(r.x, r.y, ip);
 		roi.setZeroTransparent(false);
 		roi.setOpacity(opacity);
 		return new Overlay(roi);
 	}
 
 	/**
-	 * Transform an ImageProcessor into an Overlay with a given color and opacity
+	 * Transform an ImageProcessor into an Overlay with a given color and opacity,
+	 * at the position of the analyzed part of the image (see ChannelView).
 	 *
 	 * @param ip1 The ImageProcessor that should serve as first overlay
 	 * @param ip2 The ImageProcessor that should serve as second overlay
@@ -1040,8 +2215,9 @@ public class Sprout_Analyzer implements ExtendedPlugInFilter, DialogListener {
 	private Overlay makeDoubleOverlay(ImageProcessor ip1, ImageProcessor ip2, Color color1, Color color2, Double opacity) {
 		ip1.setLut(LUT.createLutFromColor(color1));
 		ip2.setLut(LUT.createLutFromColor(color2));
-		ImageRoi roi1 = new ImageRoi(0, 0, ip1);
-		ImageRoi roi2 = new ImageRoi(0, 0, ip2);
+		Rectangle r = new ChannelView(imp, 1, frame).getBounds();
+		ImageRoi roi1 = new ImageRoi(r.x, r.y, ip1);
+		ImageRoi roi2 = new ImageRoi(r.x, r.y, ip2);
 		roi1.setZeroTransparent(true);
 		roi2.setZeroTransparent(false);
 		roi1.setOpacity(opacity);
@@ -0,0 +1,247 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.GenericDialog;
+import ij.measure.ResultsTable;
+import ij.plugin.PlugIn;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Batch mode of the Sprout Morphology plugin
+ *
+ * Analyzes all images of a folder on several threads, using the parameters
+ * of the last interactive Sprout Morphology run (stored in the ImageJ Prefs).
+ * Each image gets its own Sprout_Analyzer instance, so no intermediate image
+ * is shared between threads. One row per image is added to the Results table,
+ * in the order of the file names.
+ *
+ * With a tile size, images are not opened but read tile by tile from
+ * uncompressed TIFF files (see Sprout_Analyzer.analyzeTiled()), so that
+ * images larger than the available memory can be analyzed. Cell numbers are
+ * not available then.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class Sprout_Batch_Analyzer implements PlugIn {
+	private static final String PREF_KEY = "sprout_analyzer.batch.";
+
+	/* Parameters */
+	private String directory, suffix;
+	private int nThreads, maxImages, tileSize;
+
+	/**
+	 * run
+	 */
+	@Override
+	public void run(String arg) {
+		if (!showDialog())
+			return;
+		if (tileSize > 0) {
+			Sprout_Analyzer parameters = new Sprout_Analyzer();
+			parameters.readPrefs(1);
+			if (parameters.measuresCells()) {
+				IJ.error("Sprout Analyzer", "Cell numbers are not available with a tile size.\nDeselect them in Sprout Morphology, or use tile size 0.");
+				return;
+			}
+		}
+		File[] files = listFiles(new File(directory), suffix);
+		if (files.length == 0) {
+			IJ.error("Sprout Analyzer", "No " + suffix + " files found in\n" + directory);
+			return;
+		}
+		boolean userHasBlackBackground = Prefs.blackBackground;
+		Prefs.blackBackground = true; // same setting as the interactive plugin, for all threads
+		try {
+			analyze(files, ResultsTable.getResultsTable());
+		} finally {
+			Prefs.blackBackground = userHasBlackBackground;
+		}
+	}
+
+	/**
+	 * Ask for the input folder and the degree of parallelism.
+	 */
+	private boolean showDialog() {
+		directory = Prefs.get(PREF_KEY + "directory", "");
+		suffix = Prefs.get(PREF_KEY + "suffix", ".tif");
+		nThreads = (int) Prefs.get(PREF_KEY + "threads", Prefs.getThreads());
+		maxImages = (int) Prefs.get(PREF_KEY + "images_in_memory", Prefs.getThreads());
+		tileSize = (int) Prefs.get(PREF_KEY + "tile_size", 0);
+
+		GenericDialog gd = new GenericDialog("Sprout Analyzer - Batch");
+		gd.addStringField("Input_folder", directory, 40);
+		gd.addStringField("File_suffix", suffix);
+		gd.addNumericField("Threads", nThreads, 0);
+		gd.addNumericField("Maximum_images_in_memory", maxImages, 0);
+		gd.addNumericField("Tile_size", tileSize, 0, 6, "pixels (0 = whole images)");
+		gd.addMessage("Images are analyzed with the parameters\nof the last Sprout Morphology run.");
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return false;
+		directory = gd.getNextString();
+		suffix = gd.getNextString();
+		nThreads = Math.max(1, (int) gd.getNextNumber());
+		maxImages = Math.max(1, (int) gd.getNextNumber());
+		tileSize = Math.max(0, (int) gd.getNextNumber());
+
+		Prefs.set(PREF_KEY + "directory", directory);
+		Prefs.set(PREF_KEY + "suffix", suffix);
+		Prefs.set(PREF_KEY + "threads", nThreads);
+		Prefs.set(PREF_KEY + "images_in_memory", maxImages);
+		Prefs.set(PREF_KEY + "tile_size", tileSize);
+		return true;
+	}
+
+	/**
+	 * List the files of a folder with the given suffix, sorted by name.
+	 *
+	 * @param dir
+	 * @param suffix
+	 */
+	private File[] listFiles(File dir, final String suffix) {
+		File[] files = dir.listFiles(f -> f.isFile() && !f.isHidden() && f.getName().endsWith(suffix));
+		if (files == null)
+			return new File[0];
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Analyze the given files in parallel and append one row per image to a ResultsTable.
+	 *
+	 * At most nThreads images are processed at the same time, and at most maxImages
+	 * images are held in memory.
+	 *
+	 * @param files
+	 * @param result
+	 */
+	void analyze(File[] files, ResultsTable result) {
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		final Semaphore inMemory = new Semaphore(maxImages);
+		List<Future<ResultsTable>> futures = new ArrayList<Future<ResultsTable>>();
+		for (final File file : files) {
+			futures.add(executor.submit(() -> {
+				inMemory.acquire();
+				try {
+					return analyzeFile(file);
+				} finally {
+					inMemory.release();
+				}
+			}));
+		}
+		executor.shutdown();
+
+		try {
+			for (int i = 0; i < files.length; i++) {
+				IJ.showProgress(i, files.length);
+				try {
+					ResultsTable row = futures.get(i).get();
+					if (row != null)
+						appendRow(result, row);
+				} catch (ExecutionException e) {
+					IJ.log("Sprout Analyzer: could not analyze " + files[i].getName() + " (" + e.getCause() + ")");
+				}
+				result.show("Results");
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		IJ.showProgress(1.0);
+		IJ.showStatus("Analyzed " + files.length + " images");
+	}
+
+	/**
+	 * Open and analyze a single image, returning its measurements as a one-row ResultsTable.
+	 *
+	 * @param file
+	 */
+	private ResultsTable analyzeFile(File file) throws IOException {
+		if (tileSize > 0)
+			return analyzeTiled(file);
+		ImagePlus imp = IJ.openImage(file.getPath());
+		if (imp == null) {
+			IJ.log("Sprout Analyzer: could not open " + file.getName());
+			return null;
+		}
+		try {
+			Sprout_Analyzer analyzer = new Sprout_Analyzer();
+			analyzer.init(imp);
+			analyzer.readPrefs(imp.getNChannels());
+			analyzer.analyze(StageScheduler.CALLER); // the images are analyzed in parallel
+			ResultsTable row = new ResultsTable();
+			analyzer.addResults(row);
+			return row;
+		} finally {
+			imp.close();
+		}
+	}
+
+	/**
+	 * Analyze a single TIFF file tile by tile, returning its measurements as a one-row ResultsTable.
+	 *
+	 * @param file
+	 */
+	private ResultsTable analyzeTiled(File file) throws IOException {
+		TileSource source = TileSource.open(file);
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(source);
+		analyzer.readPrefs(source.getNChannels());
+		analyzer.analyzeTiled(source, tileSize);
+		ResultsTable row = new ResultsTable();
+		analyzer.addResults(row);
+		return row;
+	}
+
+	/**
+	 * Append the single row of one table to another table.
+	 *
+	 * @param result
+	 * @param row
+	 */
+	static void appendRow(ResultsTable result, ResultsTable row) {
+		result.incrementCounter();
+		result.setPrecision(5);
+		result.addLabel(row.getLabel(0));
+		for (int col = 0; col <= row.getLastColumn(); col++) {
+			if (row.columnExists(col))
+				result.addValue(row.getColumnHeading(col), row.getValueAsDouble(col, 0));
+		}
+	}
+}
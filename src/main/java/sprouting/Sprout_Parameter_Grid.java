@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.GenericDialog;
+import ij.measure.ResultsTable;
+import ij.plugin.PlugIn;
+import ij.util.Tools;
+import java.util.List;
+
+/**
+ * Parameter grid mode of the Sprout Morphology plugin
+ *
+ * Analyzes the current frame of the current image for every combination of
+ * the given values of the sprout blur, minimum plexus area, minimum sprout
+ * area and minimum bead radius, with the other parameters of the last
+ * interactive Sprout Morphology run. Each grid point adds one row to the
+ * "Parameter Grid" table (see ParameterGrid).
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class Sprout_Parameter_Grid implements PlugIn {
+	private static final String PREF_KEY = "sprout_analyzer.grid.";
+
+	/* Parameters */
+	private String sproutBlur, minPlexusArea, minSproutArea, beadRadius;
+	private int nThreads;
+
+	/**
+	 * run
+	 */
+	@Override
+	public void run(String arg) {
+		ImagePlus imp = IJ.getImage();
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.readPrefs(imp.getNChannels());
+		SproutParameters parameters = analyzer.getParameters();
+		if (!showDialog(parameters))
+			return;
+		ParameterGrid grid;
+		try {
+			grid = new ParameterGrid(parameters)
+					.sproutBlur(values(sproutBlur))
+					.minPlexusArea(values(minPlexusArea))
+					.minSproutArea(values(minSproutArea))
+					.beadRadius(values(beadRadius));
+		} catch (IllegalArgumentException e) {
+			IJ.error("Sprout Analyzer", e.getMessage());
+			return;
+		}
+		IJ.showStatus("Analyzing " + grid.size() + " grid points...");
+		try {
+			List<SproutResults> results = grid.run(imp, imp.getFrame(), nThreads);
+			ResultsTable table = new ResultsTable();
+			ParameterGrid.addTo(results, table);
+			table.show("Parameter Grid");
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			IJ.log("Sprout Analyzer: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		IJ.showStatus("");
+	}
+
+	/**
+	 * Ask for the values of the grid, by default the current parameters.
+	 *
+	 * @param parameters
+	 */
+	private boolean showDialog(SproutParameters parameters) {
+		sproutBlur = Prefs.get(PREF_KEY + "sprout_blur", IJ.d2s(parameters.getSproutBlur(), -3));
+		minPlexusArea = Prefs.get(PREF_KEY + "minimum_plexus_area", IJ.d2s(parameters.getMinPlexusArea(), -3));
+		minSproutArea = Prefs.get(PREF_KEY + "minimum_sprout_area", IJ.d2s(parameters.getMinSproutArea(), -3));
+		beadRadius = Prefs.get(PREF_KEY + "minimum_bead_radius", IJ.d2s(parameters.getBeadRadius(), -3));
+		nThreads = (int) Prefs.get(PREF_KEY + "threads", Prefs.getThreads());
+
+		GenericDialog gd = new GenericDialog("Sprout Analyzer - Parameter Grid");
+		gd.addStringField("Blur_radius_for_sprout", sproutBlur, 20);
+		gd.addStringField("Minimum_plexus_area", minPlexusArea, 20);
+		gd.addStringField("Minimum_sprout_area", minSproutArea, 20);
+		gd.addStringField("Minimum_bead_radius", beadRadius, 20);
+		gd.addNumericField("Threads", nThreads, 0);
+		gd.addMessage("Values are separated by commas or spaces. The other parameters\nare those of the last Sprout Morphology run.");
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return false;
+		sproutBlur = gd.getNextString();
+		minPlexusArea = gd.getNextString();
+		minSproutArea = gd.getNextString();
+		beadRadius = gd.getNextString();
+		nThreads = Math.max(1, (int) gd.getNextNumber());
+
+		Prefs.set(PREF_KEY + "sprout_blur", sproutBlur);
+		Prefs.set(PREF_KEY + "minimum_plexus_area", minPlexusArea);
+		Prefs.set(PREF_KEY + "minimum_sprout_area", minSproutArea);
+		Prefs.set(PREF_KEY + "minimum_bead_radius", beadRadius);
+		Prefs.set(PREF_KEY + "threads", nThreads);
+		return true;
+	}
+
+	/**
+	 * Parse a list of numbers separated by commas or spaces.
+	 *
+	 * @param list
+	 */
+	private static double[] values(String list) {
+		String[] items = Tools.split(list, ", \t");
+		double[] values = new double[items.length];
+		for (int i = 0; i < items.length; i++) {
+			values[i] = Tools.parseDouble(items[i]);
+			if (Double.isNaN(values[i]))
+				throw new IllegalArgumentException("Not a number: " + items[i]);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.GenericDialog;
+import ij.measure.ResultsTable;
+import ij.plugin.PlugIn;
+import sprouting.ThresholdSweep.Threshold;
+
+/**
+ * Threshold sweep mode of the Sprout Morphology plugin
+ *
+ * Analyzes the current frame of the current image with every automatic
+ * threshold method for the bead, sprout, nucleus, EC or pericyte threshold
+ * (or all of them, one after the other), with the other parameters of the
+ * last interactive Sprout Morphology run. Each method adds one row to the
+ * "Threshold Sweep" table (see ThresholdSweep).
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class Sprout_Threshold_Sweep implements PlugIn {
+	private static final String PREF_KEY = "sprout_analyzer.sweep.";
+	private static final String ALL = "All";
+
+	/* Parameters */
+	private String threshold;
+
+	/**
+	 * run
+	 */
+	@Override
+	public void run(String arg) {
+		ImagePlus imp = IJ.getImage();
+		if (!showDialog())
+			return;
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.readPrefs(imp.getNChannels());
+		SproutParameters parameters = analyzer.getParameters();
+		ResultsTable table = new ResultsTable();
+		for (Threshold t : Threshold.values()) {
+			if (!threshold.equals(ALL) && !threshold.equals(t.getLabel()))
+				continue;
+			IJ.showStatus("Sweeping the " + t.getLabel().toLowerCase() + " threshold...");
+			try {
+				ThresholdSweep.sweep(imp, imp.getFrame(), parameters, t, table);
+			} catch (IllegalArgumentException e) {
+				IJ.log("Sprout Analyzer: " + e.getMessage());
+			}
+			table.show("Threshold Sweep");
+		}
+		IJ.showStatus("");
+	}
+
+	/**
+	 * Ask for the threshold to sweep.
+	 */
+	private boolean showDialog() {
+		String[] choices = new String[Threshold.values().length + 1];
+		for (Threshold t : Threshold.values())
+			choices[t.ordinal()] = t.getLabel();
+		choices[choices.length - 1] = ALL;
+		threshold = Prefs.get(PREF_KEY + "threshold", Threshold.SPROUTS.getLabel());
+
+		GenericDialog gd = new GenericDialog("Sprout Analyzer - Threshold Sweep");
+		gd.addChoice("Threshold", choices, threshold);
+		gd.addMessage("Every threshold method is tried with the other parameters\nof the last Sprout Morphology run.");
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return false;
+		threshold = gd.getNextChoice();
+
+		Prefs.set(PREF_KEY + "threshold", threshold);
+		return true;
+	}
+}
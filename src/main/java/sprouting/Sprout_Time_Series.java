@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.GenericDialog;
+import ij.measure.ResultsTable;
+import ij.plugin.PlugIn;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import morphology.BitMask;
+
+/**
+ * Time-lapse mode of the Sprout Morphology plugin
+ *
+ * Analyzes every frame of the current image with the parameters of the last
+ * interactive Sprout Morphology run, and adds one row per frame to the Results
+ * table. Beads do not move between frames, so the bead mask (whose filtering
+ * is the most expensive part of the bead detection) is computed once and
+ * reused. Only the thresholded bead channel is computed for every frame, and
+ * when its overlap with the one the bead mask was computed from drops below a
+ * minimum (the beads have drifted), the bead mask is computed again from the
+ * thresholded channel of that frame.
+ *
+ * The bead masks are determined frame by frame, then the sprout, skeleton and
+ * nucleus stages of all frames run in parallel.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class Sprout_Time_Series implements PlugIn {
+	private static final String PREF_KEY = "sprout_analyzer.timeseries.";
+
+	/* Parameters */
+	private int nThreads;
+	private double minOverlap;
+
+	/**
+	 * run
+	 */
+	@Override
+	public void run(String arg) {
+		ImagePlus imp = IJ.getImage();
+		if (imp.getNFrames() < 2) {
+			IJ.error("Sprout Analyzer", "Time series required (image with several frames)");
+			return;
+		}
+		if (!showDialog())
+			return;
+		boolean userHasBlackBackground = Prefs.blackBackground;
+		Prefs.blackBackground = true; // same setting as the interactive plugin, for all threads
+		try {
+			analyze(imp, ResultsTable.getResultsTable());
+		} finally {
+			Prefs.blackBackground = userHasBlackBackground;
+		}
+	}
+
+	/**
+	 * Ask for the degree of parallelism and the drift detection criterion.
+	 */
+	private boolean showDialog() {
+		nThreads = (int) Prefs.get(PREF_KEY + "threads", Prefs.getThreads());
+		minOverlap = Prefs.get(PREF_KEY + "min_overlap", 0.9);
+
+		GenericDialog gd = new GenericDialog("Sprout Analyzer - Time Series");
+		gd.addNumericField("Threads", nThreads, 0);
+		gd.addSlider("Minimum_bead_overlap", 0, 1, minOverlap);
+		gd.addMessage("Frames are analyzed with the parameters\nof the last Sprout Morphology run.\n"
+				+ "The bead mask is recomputed when the thresholded beads\noverlap less than this with the ones it was computed from.");
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return false;
+		nThreads = Math.max(1, (int) gd.getNextNumber());
+		minOverlap = gd.getNextNumber();
+
+		Prefs.set(PREF_KEY + "threads", nThreads);
+		Prefs.set(PREF_KEY + "min_overlap", minOverlap);
+		return true;
+	}
+
+	/**
+	 * Analyze all frames of an image and append one row per frame to a ResultsTable.
+	 *
+	 * @param imp
+	 * @param result
+	 */
+	void analyze(final ImagePlus imp, ResultsTable result) {
+		final int nFrames = imp.getNFrames();
+		final BitMask[] beads = findBeadMasks(imp);
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<ResultsTable>> futures = new ArrayList<Future<ResultsTable>>();
+		for (int t = 1; t <= nFrames; t++) {
+			final int frame = t;
+			futures.add(executor.submit(() -> {
+				Sprout_Analyzer analyzer = newAnalyzer(imp, frame);
+				analyzer.setBeadMask(beads[frame - 1]);
+				analyzer.analyze(StageScheduler.CALLER); // the frames are analyzed in parallel
+				ResultsTable row = new ResultsTable();
+				analyzer.addResults(row);
+				return row;
+			}));
+		}
+		executor.shutdown();
+
+		try {
+			for (int t = 1; t <= nFrames; t++) {
+				IJ.showProgress(t - 1, nFrames);
+				try {
+					Sprout_Batch_Analyzer.appendRow(result, futures.get(t - 1).get());
+				} catch (ExecutionException e) {
+					IJ.log("Sprout Analyzer: could not analyze frame " + t + " (" + e.getCause() + ")");
+				}
+				result.show("Results");
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		IJ.showProgress(1.0);
+		IJ.showStatus("Analyzed " + nFrames + " frames");
+	}
+
+	/**
+	 * Bead mask of every frame: the mask of the last frame where the beads were
+	 * found, as long as the thresholded beads did not drift away from it.
+	 *
+	 * @param imp
+	 */
+	private BitMask[] findBeadMasks(ImagePlus imp) {
+		BitMask[] masks = new BitMask[imp.getNFrames()];
+		BitMask reference = null;
+		int recomputed = 0;
+		for (int t = 1; t <= masks.length; t++) {
+			IJ.showStatus("Finding beads in frame " + t + "...");
+			Sprout_Analyzer analyzer = newAnalyzer(imp, t);
+			BitMask candidates = analyzer.findBeadCandidates();
+			if (reference == null || overlap(reference, candidates) < minOverlap) {
+				reference = candidates;
+				masks[t - 1] = analyzer.findBeadMask(candidates);
+				recomputed++;
+			} else {
+				masks[t - 1] = masks[t - 2];
+			}
+		}
+		if (recomputed > 1)
+			IJ.log(imp.getTitle() + ": bead mask recomputed in " + recomputed + " of " + masks.length + " frames (drift)");
+		return masks;
+	}
+
+	private static Sprout_Analyzer newAnalyzer(ImagePlus imp, int frame) {
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.readPrefs(imp.getNChannels());
+		analyzer.setFrame(frame);
+		return analyzer;
+	}
+
+	/**
+	 * Overlap of two masks: area of their intersection divided by the area of their union.
+	 */
+	private static double overlap(BitMask a, BitMask b) {
+		long union = a.copy().or(b).cardinality();
+		return union == 0 ? 1.0 : (double) a.copy().and(b).cardinality() / union;
+	}
+}
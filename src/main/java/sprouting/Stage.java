@@ -0,0 +1,91 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import java.util.EnumSet;
+
+/**
+ * Stages of the analysis pipeline, each with the stages it needs as input.
+ *
+ * The stages are declared in an order in which they can be run, i.e. every
+ * stage comes after its prerequisites.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+enum Stage {
+	/** Bead mask and bead count */
+	BEADS("Beads"),
+	/** Sprout mask and sprout area */
+	SPROUTS("Sprouts", BEADS),
+	/** Skeleton of beads and sprouts, with sprout count, lengths and branching */
+	SKELETON("Skeleton", SPROUTS),
+	/** Nucleus mask within the sprouts */
+	NUCLEI("Nuclei", SPROUTS),
+	/** Classification of the nuclei into ECs and pericytes */
+	EC("EC", NUCLEI),
+	/** Pericyte marker area within the sprouts */
+	PERICYTES("Pericytes", SPROUTS);
+
+	private final String label;
+	private final Stage[] inputs;
+
+	private Stage(String label, Stage... inputs) {
+		this.label = label;
+		this.inputs = inputs;
+	}
+
+	/**
+	 * Name of the stage for the results, e.g. "Beads".
+	 */
+	String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Stages this stage reads directly.
+	 */
+	Stage[] getInputs() {
+		return inputs.clone();
+	}
+
+	/**
+	 * The given stages together with everything they need, directly or indirectly.
+	 *
+	 * @param stages
+	 */
+	static EnumSet<Stage> closure(EnumSet<Stage> stages) {
+		EnumSet<Stage> closure = EnumSet.copyOf(stages);
+		/* inputs are declared before the stages that read them, so one reverse pass suffices */
+		Stage[] all = values();
+		for (int i = all.length - 1; i >= 0; i--) {
+			if (closure.contains(all[i])) {
+				for (Stage input : all[i].inputs)
+					closure.add(input);
+			}
+		}
+		return closure;
+	}
+}
@@ -0,0 +1,227 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import morphology.BitMask;
+
+/**
+ * Memoizes the output image or packed mask of each pipeline stage.
+ *
+ * Every stage keeps only its latest result, together with the list of
+ * parameters it was computed from (its key). A stage is recomputed only
+ * when its key changes. Keys of upstream stages are part of the keys of
+ * downstream stages, and every image handed out by the cache carries its
+ * key as a property, so that a downstream stage can build its own key from
+ * the images it receives. Masks have no properties; the key of a mask is
+ * passed along with it.
+ *
+ * The histograms from which the stages compute their automatic thresholds
+ * are kept the same way, keyed by the image they were computed from, so that
+ * trying another threshold method does not recompute them.
+ *
+ * Images and masks are copied on the way out, because most stages modify their input
+ * in place. The cache is disabled by default; it only pays off when the same
+ * image is analyzed repeatedly, e.g. during the preview of the dialogs.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+class StageCache {
+	private static final String KEY_PROPERTY = "sprout_analyzer.stage_key";
+
+	private final Map<String, List<?>> keys = new HashMap<String, List<?>>();
+	private final Map<String, ImagePlus> images = new HashMap<String, ImagePlus>();
+	private final Map<String, BitMask> masks = new HashMap<String, BitMask>();
+	private final Map<String, List<?>> histogramKeys = new HashMap<String, List<?>>();
+	private final Map<String, HistogramThreshold> histograms = new HashMap<String, HistogramThreshold>();
+	private final Map<String, Integer> computed = new HashMap<String, Integer>();
+	private boolean enabled = false;
+
+	/**
+	 * Build a stage key from the values a stage depends on.
+	 *
+	 * @param values
+	 */
+	static List<Object> key(Object... values) {
+		return Arrays.asList(values);
+	}
+
+	/**
+	 * Key of the stage that produced the given image, or null if unknown.
+	 *
+	 * @param imp
+	 */
+	static List<?> keyOf(ImagePlus imp) {
+		Object key = imp.getProperty(KEY_PROPERTY);
+		return (key instanceof List) ? (List<?>) key : null;
+	}
+
+	/**
+	 * Tag an image with the key of the stage that produced it (null to remove the tag).
+	 *
+	 * @param imp
+	 * @param key
+	 */
+	static void tag(ImagePlus imp, List<?> key) {
+		imp.setProperty(KEY_PROPERTY, key);
+	}
+
+	/**
+	 * Enable or disable caching. Disabling releases all cached images.
+	 *
+	 * @param enabled
+	 */
+	synchronized void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled)
+			clear();
+	}
+
+	/**
+	 * Get a copy of the cached output of a stage, or null if it was computed
+	 * from a different key.
+	 *
+	 * @param stage
+	 * @param key
+	 */
+	synchronized ImagePlus get(String stage, List<?> key) {
+		ImagePlus cached = images.get(stage);
+		if (!enabled || cached == null || key == null || !key.equals(keys.get(stage)))
+			return null;
+		return copy(cached, key);
+	}
+
+	/**
+	 * Store the output of a stage and return a copy for further processing.
+	 * If the cache is disabled, the image itself is returned.
+	 *
+	 * @param stage
+	 * @param key
+	 * @param imp
+	 */
+	synchronized ImagePlus put(String stage, List<?> key, ImagePlus imp) {
+		computed.merge(stage, 1, Integer::sum);
+		if (!enabled || key == null)
+			return imp;
+		keys.put(stage, key);
+		images.put(stage, imp);
+		return copy(imp, key);
+	}
+
+	/**
+	 * Get a copy of the cached mask of a stage, or null if it was computed
+	 * from a different key.
+	 *
+	 * @param stage
+	 * @param key
+	 */
+	synchronized BitMask getMask(String stage, List<?> key) {
+		BitMask cached = masks.get(stage);
+		if (!enabled || cached == null || key == null || !key.equals(keys.get(stage)))
+			return null;
+		return cached.copy();
+	}
+
+	/**
+	 * Store the mask of a stage and return a copy for further processing.
+	 * If the cache is disabled, the mask itself is returned.
+	 *
+	 * @param stage
+	 * @param key
+	 * @param mask
+	 */
+	synchronized BitMask putMask(String stage, List<?> key, BitMask mask) {
+		computed.merge(stage, 1, Integer::sum);
+		if (!enabled || key == null)
+			return mask;
+		keys.put(stage, key);
+		masks.put(stage, mask);
+		return mask.copy();
+	}
+
+	/**
+	 * Histogram of the image a stage thresholds, computed only if the cached
+	 * one was computed from a different key. The histogram is computed outside
+	 * the lock of the cache, so that stages running in parallel do not wait
+	 * for each other's histograms (a histogram is not modified once computed).
+	 *
+	 * @param stage
+	 * @param key key of the image, or null if unknown
+	 * @param ip the image
+	 */
+	HistogramThreshold histogram(String stage, List<?> key, ImageProcessor ip) {
+		synchronized (this) {
+			if (enabled && key != null && key.equals(histogramKeys.get(stage)))
+				return histograms.get(stage);
+		}
+		HistogramThreshold histogram = HistogramThreshold.of(ip);
+		synchronized (this) {
+			if (enabled && key != null) {
+				histogramKeys.put(stage, key);
+				histograms.put(stage, histogram);
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Number of times the output of a stage was computed (i.e. stored), whether
+	 * the cache is enabled or not.
+	 *
+	 * @param stage
+	 */
+	synchronized int getComputedCount(String stage) {
+		return computed.getOrDefault(stage, 0);
+	}
+
+	/**
+	 * Release all cached images, masks and histograms.
+	 */
+	synchronized void clear() {
+		keys.clear();
+		images.clear();
+		masks.clear();
+		histogramKeys.clear();
+		histograms.clear();
+	}
+
+	/**
+	 * Duplicate an image, including the threshold of a binary mask, and tag it with its key.
+	 */
+	private static ImagePlus copy(ImagePlus imp, List<?> key) {
+		ImagePlus output = imp.duplicate();
+		ImageProcessor ip = imp.getProcessor();
+		if (ip.getMinThreshold() != ImageProcessor.NO_THRESHOLD)
+			output.getProcessor().setThreshold(ip.getMinThreshold(), ip.getMaxThreshold(), ImageProcessor.NO_LUT_UPDATE);
+		output.setProperty(KEY_PROPERTY, key);
+		return output;
+	}
+}
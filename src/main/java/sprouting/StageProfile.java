@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.measure.ResultsTable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Wall time, CPU time, allocated memory and processed pixels of each
+ * pipeline stage of one image.
+ *
+ * A stage is measured on the thread that runs it, with the per-thread
+ * counters of the JVM, so stages running concurrently do not disturb each
+ * other's numbers. Work a stage hands to other threads is only included in
+ * its wall time. Reading the counters costs about a microsecond per stage,
+ * so the profile can stay enabled for large batches.
+ *
+ * CPU time and allocated memory are NaN if the JVM does not support them.
+ * Allocated memory needs the com.sun.management extension of the JVM, which
+ * is only referenced by the nested AllocatedBytes class, so that the profile also
+ * loads on JVMs without it.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+class StageProfile {
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean HAS_CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+	private static final boolean HAS_ALLOCATED_BYTES = hasAllocatedBytes();
+
+	/* Measurements, indexed by stage */
+	private final boolean[] measured = new boolean[Stage.values().length];
+	private final long[] wallTime = new long[measured.length];
+	private final long[] cpuTime = new long[measured.length];
+	private final long[] allocated = new long[measured.length];
+	private final long[] pixels = new long[measured.length];
+
+	/**
+	 * Counters of the current thread at the start of a stage, to be passed to stop().
+	 */
+	static long[] start() {
+		return new long[] { System.nanoTime(), cpuTime(), allocatedBytes() };
+	}
+
+	/**
+	 * Record a stage that was started on the current thread.
+	 * A stage that is recorded several times (e.g. once per tile) adds up.
+	 *
+	 * @param stage
+	 * @param start counters returned by start()
+	 * @param pixelCount number of pixels the stage read, including the halos of tiles
+	 */
+	synchronized void stop(Stage stage, long[] start, long pixelCount) {
+		int i = stage.ordinal();
+		measured[i] = true;
+		wallTime[i] += System.nanoTime() - start[0];
+		cpuTime[i] += cpuTime() - start[1];
+		allocated[i] += allocatedBytes() - start[2];
+		pixels[i] += pixelCount;
+	}
+
+	/**
+	 * Wrap the task of a stage so that it is recorded when run.
+	 *
+	 * @param stage
+	 * @param pixelCount number of pixels the stage reads
+	 * @param task
+	 */
+	Runnable wrap(Stage stage, long pixelCount, Runnable task) {
+		return () -> {
+			long[] start = start();
+			task.run();
+			stop(stage, start, pixelCount);
+		};
+	}
+
+	/**
+	 * Add the measurements of each recorded stage to the current row of a ResultsTable.
+	 *
+	 * @param result
+	 */
+	synchronized void addResults(ResultsTable result) {
+		for (Stage stage : Stage.values()) {
+			int i = stage.ordinal();
+			if (!measured[i])
+				continue;
+			String label = stage.getLabel();
+			result.addValue(label + " time (ms)", wallTime[i] / 1e6);
+			result.addValue(label + " CPU time (ms)", HAS_CPU_TIME ? cpuTime[i] / 1e6 : Double.NaN);
+			result.addValue(label + " allocated (MB)", HAS_ALLOCATED_BYTES ? allocated[i] / 1048576.0 : Double.NaN);
+			result.addValue(label + " pixels", pixels[i]);
+		}
+	}
+
+	private static long cpuTime() {
+		return HAS_CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	private static long allocatedBytes() {
+		return HAS_ALLOCATED_BYTES ? AllocatedBytes.ofCurrentThread() : 0;
+	}
+
+	private static boolean hasAllocatedBytes() {
+		try {
+			return AllocatedBytes.isAvailable();
+		} catch (LinkageError e) { // no com.sun.management
+			return false;
+		}
+	}
+
+	/**
+	 * Access to the allocation counters of com.sun.management. The class is
+	 * only loaded by hasAllocatedBytes(), which catches the linkage error if
+	 * the JVM does not have the extension, and is not used otherwise.
+	 */
+	private static class AllocatedBytes {
+		static boolean isAvailable() {
+			return THREADS instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+					&& ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+		}
+
+		static long ofCurrentThread() {
+			return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the tasks of pipeline stages concurrently, each as soon as the tasks
+ * of its inputs (see Stage.getInputs()) have completed.
+ *
+ * Inputs without a task are considered done. If a task fails, the stages
+ * that depend on it are not run, and the failure is rethrown by run() after
+ * the remaining tasks have completed.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+class StageScheduler {
+
+	/**
+	 * Runs every task on the thread that calls run() (or completes the last
+	 * input of the task), i.e. the stages one after the other, for callers that
+	 * run several analyses in parallel themselves.
+	 */
+	static final Executor CALLER = Runnable::run;
+
+	private StageScheduler() {
+	}
+
+	/**
+	 * Run the tasks of the given stages and wait for all of them.
+	 *
+	 * @param tasks task of each stage to be run
+	 * @param executor e.g. a ForkJoinPool, or CALLER; the calling thread waits for the
+	 *        tasks, so this must not be a bounded pool whose threads all wait in run()
+	 */
+	static void run(Map<Stage, Runnable> tasks, Executor executor) {
+		Map<Stage, CompletableFuture<Void>> futures = new EnumMap<Stage, CompletableFuture<Void>>(Stage.class);
+		/* stages are declared after their inputs, so the futures of the inputs already exist */
+		for (Stage stage : Stage.values()) {
+			Runnable task = tasks.get(stage);
+			if (task == null)
+				continue;
+			List<CompletableFuture<Void>> inputs = new ArrayList<CompletableFuture<Void>>();
+			for (Stage input : stage.getInputs()) {
+				if (futures.containsKey(input))
+					inputs.add(futures.get(input));
+			}
+			futures.put(stage, CompletableFuture.allOf(inputs.toArray(new CompletableFuture<?>[0])).thenRunAsync(task, executor));
+		}
+		try {
+			CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import ij.process.AutoThresholder;
+import java.util.Collections;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * Tries every AutoThresholder method for one of the thresholds of the analysis.
+ *
+ * All methods are evaluated on the same analyzer, whose stage cache is
+ * enabled: the stages upstream of the threshold (e.g. the blurred channel)
+ * are computed once, and so is the histogram the threshold is computed from
+ * (see StageCache.histogram()). Only the threshold and the stages downstream
+ * of it are repeated for each method.
+ *
+ * Each method gives one row with its threshold level, the sprout area, count
+ * and network length, the measurement of the swept stage itself, and the
+ * other measurements selected in the parameters.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public final class ThresholdSweep {
+
+	/**
+	 * The thresholds that can be swept.
+	 */
+	public enum Threshold {
+		BEADS(Stage.BEADS, Measurement.BEAD_COUNT),
+		SPROUTS(Stage.SPROUTS, Measurement.TOTAL_SPROUT_AREA),
+		NUCLEI(Stage.NUCLEI, Measurement.CELL_COUNT),
+		EC(Stage.EC, Measurement.EC_COUNT),
+		PERICYTES(Stage.PERICYTES, Measurement.PERICYTE_COVERAGE);
+
+		private final Stage stage;
+		private final Measurement measurement;
+
+		private Threshold(Stage stage, Measurement measurement) {
+			this.stage = stage;
+			this.measurement = measurement;
+		}
+
+		/**
+		 * Name of the threshold for the results, e.g. "Beads".
+		 */
+		public String getLabel() {
+			return stage.getLabel();
+		}
+
+		/**
+		 * The parameters with another method for this threshold.
+		 */
+		SproutParameters with(SproutParameters p, String method) {
+			SproutParameters.Builder b = p.toBuilder();
+			switch (this) {
+				case BEADS:
+					return b.beads(method, p.getBeadBlur(), p.getBeadRadius(), p.getBeadDilation()).build();
+				case SPROUTS:
+					return b.sprouts(method, p.getSproutBlur(), p.getMinPlexusArea(), p.getMinSproutArea()).build();
+				case NUCLEI:
+					return b.nuclei(method, p.getNucleusBlur(), p.getNucleusTolerance(), p.getMinNucleusArea()).build();
+				case EC:
+					return b.ec(method, p.getMinEcArea(), p.isCellNumbers(), p.isCellFraction()).build();
+				default:
+					return b.pericytes(method, p.isPericyteArea(), p.isPericyteFraction()).build();
+			}
+		}
+	}
+
+	private ThresholdSweep() {
+	}
+
+	/**
+	 * Analyze one frame of an image with every AutoThresholder method for one
+	 * threshold, and add one row per method to a ResultsTable.
+	 *
+	 * @param imp
+	 * @param frame (1-based)
+	 * @param parameters the other parameters
+	 * @param threshold the threshold to sweep
+	 * @param table
+	 * @throws IllegalArgumentException if a channel or the frame is not in the
+	 *             image, or if the swept stage uses a predefined mask
+	 */
+	public static void sweep(ImagePlus imp, int frame, SproutParameters parameters, Threshold threshold, ResultsTable table) {
+		SproutAnalysis.check(imp, frame, parameters);
+		if ((threshold == Threshold.BEADS && parameters.isBeadMask()) || (threshold == Threshold.SPROUTS && parameters.isSproutMask()))
+			throw new IllegalArgumentException("The " + threshold.getLabel().toLowerCase() + " of " + imp.getTitle() + " are given as a mask");
+		SproutParameters base = parameters.toBuilder()
+				.measure(Measurement.TOTAL_SPROUT_AREA, true)
+				.measure(Measurement.SPROUT_COUNT, true)
+				.measure(Measurement.NETWORK_LENGTH, true)
+				.measure(threshold.measurement, true)
+				.perBead(false)
+				.stageTimings(false)
+				.build();
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.setFrame(frame);
+		analyzer.setCaching(true);
+		try {
+			for (String method : AutoThresholder.getMethods()) {
+				analyzer.setParameters(threshold.with(base, method));
+				analyzer.analyze();
+				ResultsTable row = new ResultsTable();
+				analyzer.getResults(Collections.<SproutResults>emptyList()).addTo(row);
+				table.incrementCounter();
+				table.setPrecision(5);
+				table.addLabel(row.getLabel(0));
+				table.addValue("Threshold", threshold.getLabel());
+				table.addValue("Method", method);
+				table.addValue("Level", analyzer.getThresholdLevel(threshold.stage));
+				for (int col = 0; col <= row.getLastColumn(); col++) {
+					if (row.columnExists(col))
+						table.addValue(row.getColumnHeading(col), row.getValueAsDouble(col, 0));
+				}
+			}
+		} finally {
+			analyzer.setCaching(false); // release cached images
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.io.FileOpener;
+import ij.io.Opener;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+
+/**
+ * Random access to rectangles of the channels of an image, for the tiled
+ * analysis of images that do not fit into memory.
+ *
+ * Sources can be an open image, or an uncompressed 8-bit or 16-bit TIFF file,
+ * of which only the rows of the requested rectangle are read. The channels of
+ * a TIFF file are its first planes (hyperstacks are stored channel first).
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+abstract class TileSource {
+
+	abstract String getTitle();
+
+	abstract int getWidth();
+
+	abstract int getHeight();
+
+	abstract int getNChannels();
+
+	abstract int getBitDepth();
+
+	abstract Calibration getCalibration();
+
+	/**
+	 * Read a rectangle of a channel into a new processor.
+	 *
+	 * @param channel channel number (1-based)
+	 * @param r rectangle within the image
+	 */
+	abstract ImageProcessor read(int channel, Rectangle r) throws IOException;
+
+	/**
+	 * Rectangle grown by a halo on each side, clipped to the image.
+	 *
+	 * @param r
+	 * @param halo
+	 */
+	Rectangle withHalo(Rectangle r, int halo) {
+		Rectangle region = new Rectangle(r);
+		region.grow(halo, halo);
+		return region.intersection(new Rectangle(getWidth(), getHeight()));
+	}
+
+	/**
+	 * Source on the channels of an open image.
+	 *
+	 * @param imp
+	 */
+	static TileSource of(final ImagePlus imp) {
+		return new TileSource() {
+			@Override
+			String getTitle() {
+				return imp.getTitle();
+			}
+
+			@Override
+			int getWidth() {
+				return imp.getWidth();
+			}
+
+			@Override
+			int getHeight() {
+				return imp.getHeight();
+			}
+
+			@Override
+			int getNChannels() {
+				return imp.getNChannels();
+			}
+
+			@Override
+			int getBitDepth() {
+				return imp.getBitDepth();
+			}
+
+			@Override
+			Calibration getCalibration() {
+				return imp.getCalibration();
+			}
+
+			@Override
+			ImageProcessor read(int channel, Rectangle r) {
+				ImageProcessor ip = new ChannelView(imp, channel).getProcessor();
+				ip.setRoi(r);
+				return ip.crop();
+			}
+		};
+	}
+
+	/**
+	 * Source on an uncompressed 8-bit or 16-bit TIFF file.
+	 *
+	 * @param file
+	 * @throws IOException if the file is not a TIFF file of a supported type
+	 */
+	static TileSource open(File file) throws IOException {
+		FileInfo[] info = Opener.getTiffFileInfo(file.getPath());
+		if (info == null || info.length == 0)
+			throw new IOException("Not a TIFF file: " + file.getName());
+		FileInfo fi = info[0];
+		if (fi.compression != FileInfo.COMPRESSION_NONE && fi.compression != FileInfo.COMPRESSION_UNKNOWN)
+			throw new IOException("Compressed TIFF files cannot be read by tiles: " + file.getName());
+		if (fi.fileType != FileInfo.GRAY8 && fi.fileType != FileInfo.GRAY16_UNSIGNED)
+			throw new IOException("8-bit or 16-bit TIFF file required: " + file.getName());
+		if (fi.stripOffsets != null) {
+			for (int i = 1; i < fi.stripOffsets.length; i++)
+				if (fi.stripOffsets[i] != fi.stripOffsets[i - 1] + fi.stripLengths[i - 1])
+					throw new IOException("TIFF files with scattered strips cannot be read by tiles: " + file.getName());
+		}
+		return new TiffSource(file, info);
+	}
+
+	private static class TiffSource extends TileSource {
+		private final File file;
+		private final FileInfo[] info;
+		private final int bytesPerPixel, nChannels;
+
+		TiffSource(File file, FileInfo[] info) {
+			this.file = file;
+			this.info = info;
+			FileInfo fi = info[0];
+			bytesPerPixel = fi.fileType == FileInfo.GRAY8 ? 1 : 2;
+			Properties props = new FileOpener(fi).decodeDescriptionString(fi); // also sets the unit of fi
+			nChannels = props == null ? 1 : Integer.parseInt(props.getProperty("channels", "1"));
+		}
+
+		@Override
+		String getTitle() {
+			return file.getName();
+		}
+
+		@Override
+		int getWidth() {
+			return info[0].width;
+		}
+
+		@Override
+		int getHeight() {
+			return info[0].height;
+		}
+
+		@Override
+		int getNChannels() {
+			return nChannels;
+		}
+
+		@Override
+		int getBitDepth() {
+			return 8 * bytesPerPixel;
+		}
+
+		@Override
+		Calibration getCalibration() {
+			FileInfo fi = info[0];
+			Calibration cal = new Calibration();
+			if (fi.unit != null) {
+				cal.pixelWidth = fi.pixelWidth;
+				cal.pixelHeight = fi.pixelHeight;
+				cal.setUnit(fi.unit);
+			}
+			return cal;
+		}
+
+		/**
+		 * File offset of a plane (0-based): one IFD per plane, or contiguous planes after the first one.
+		 */
+		private long getOffset(int plane) {
+			if (info.length > 1)
+				return info[plane].getOffset();
+			FileInfo fi = info[0];
+			long planeBytes = (long) fi.width * fi.height * bytesPerPixel;
+			return fi.getOffset() + plane * (planeBytes + fi.gapBetweenImages);
+		}
+
+		@Override
+		ImageProcessor read(int channel, Rectangle r) throws IOException {
+			FileInfo fi = info[0];
+			long offset = getOffset(channel - 1);
+			byte[] row = new byte[r.width * bytesPerPixel];
+			ImageProcessor ip = bytesPerPixel == 1 ? new ByteProcessor(r.width, r.height) : new ShortProcessor(r.width, r.height);
+			try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+				for (int y = 0; y < r.height; y++) {
+					in.seek(offset + ((long) (r.y + y) * fi.width + r.x) * bytesPerPixel);
+					in.readFully(row);
+					if (bytesPerPixel == 1) {
+						System.arraycopy(row, 0, (byte[]) ip.getPixels(), y * r.width, r.width);
+						continue;
+					}
+					short[] pixels = (short[]) ip.getPixels();
+					for (int x = 0, i = y * r.width; x < r.width; x++, i++) {
+						int b1 = row[2 * x] & 0xff, b2 = row[2 * x + 1] & 0xff;
+						pixels[i] = (short) (fi.intelByteOrder ? (b2 << 8) | b1 : (b1 << 8) | b2);
+					}
+				}
+			}
+			return ip;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import ij.plugin.filter.RankFilters;
+import ij.process.ByteProcessor;
+import org.junit.Test;
+
+/**
+ * Erosion and dilation against RankFilters MIN and MAX, which they replace.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class BinaryMorphologyTest {
+	/* including the radii that RankFilters rounds up (1.5 to 1.75, 2.5 to 2.85) */
+	private static final double[] RADII = { 0.5, 1, 1.4, 1.5, 1.6, 2, 2.5, 2.7, 2.85, 3, 4.2, 7, 12.5 };
+
+	/**
+	 * Blobs and lines, with a frame of foreground and a few objects cut by the
+	 * image edges.
+	 */
+	private static ByteProcessor image(long seed) {
+		ByteProcessor ip = Fixtures.blobs(90, 70, 30, seed);
+		ip.setColor(255);
+		ip.fillOval(-6, -6, 15, 15);
+		ip.fillOval(80, 30, 20, 12);
+		ip.drawLine(20, 69, 60, 69);
+		ip.drawLine(0, 20, 0, 40);
+		return ip;
+	}
+
+	private static ByteProcessor rank(ByteProcessor ip, double radius, int type) {
+		ByteProcessor expected = (ByteProcessor) ip.duplicate();
+		new RankFilters().rank(expected, radius, type);
+		return expected;
+	}
+
+	@Test
+	public void sameAsRankFilters() {
+		for (long seed = 1; seed <= 4; seed++) {
+			for (ByteProcessor ip : new ByteProcessor[] { image(seed), Fixtures.noise(50, 40, 0.7, seed) }) {
+				for (double radius : RADII) {
+					String message = "seed " + seed + ", radius " + radius;
+					ByteProcessor eroded = (ByteProcessor) ip.duplicate();
+					BinaryMorphology.erode(eroded, radius);
+					assertArrayEquals("erode " + message, (byte[]) rank(ip, radius, RankFilters.MIN).getPixels(), (byte[]) eroded.getPixels());
+					ByteProcessor dilated = (ByteProcessor) ip.duplicate();
+					BinaryMorphology.dilate(dilated, radius);
+					assertArrayEquals("dilate " + message, (byte[]) rank(ip, radius, RankFilters.MAX).getPixels(), (byte[]) dilated.getPixels());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void packedMasksTileByTile() {
+		for (long seed = 1; seed <= 2; seed++) {
+			ByteProcessor ip = image(seed);
+			BitMask mask = BitMask.of(ip);
+			for (double radius : RADII) {
+				for (int tileSize : new int[] { 16, 33, 1000 }) {
+					String message = "seed " + seed + ", radius " + radius + ", tiles " + tileSize;
+					assertArrayEquals("erode " + message, (byte[]) rank(ip, radius, RankFilters.MIN).getPixels(),
+							(byte[]) BinaryMorphology.erode(mask, radius, tileSize).toByteProcessor().getPixels());
+					assertArrayEquals("dilate " + message, (byte[]) rank(ip, radius, RankFilters.MAX).getPixels(),
+							(byte[]) BinaryMorphology.dilate(mask, radius, tileSize).toByteProcessor().getPixels());
+				}
+			}
+		}
+	}
+}
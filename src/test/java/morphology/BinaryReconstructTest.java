@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+
+/**
+ * The queue-based and the parallel reconstruction against a plain iterated
+ * geodesic dilation.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class BinaryReconstructTest {
+
+	@Test
+	public void serialMatchesGeodesicDilation() {
+		for (long seed = 1; seed <= 20; seed++) {
+			for (boolean connect4 : new boolean[] { false, true }) {
+				byte[] mask = pixels(Fixtures.noise(61, 47, 0.55, seed));
+				byte[] seeds = pixels(Fixtures.noise(61, 47, 0.02, seed + 100));
+				byte[] expected = geodesicDilation(mask, seeds, 61, 47, connect4);
+				BinaryReconstruct_.reconstruct(mask, seeds, 61, 47, true, connect4, new int[61 * 47]);
+				assertArrayEquals("seed " + seed + (connect4 ? ", 4-connected" : ", 8-connected"), expected, seeds);
+			}
+		}
+	}
+
+	@Test
+	public void parallelMatchesGeodesicDilation() {
+		for (long seed = 1; seed <= 20; seed++) {
+			for (boolean connect4 : new boolean[] { false, true }) {
+				for (int nThreads : new int[] { 1, 2, 3, 7, 47, 64 }) {
+					byte[] mask = pixels(Fixtures.noise(61, 47, 0.55, seed));
+					byte[] seeds = pixels(Fixtures.noise(61, 47, 0.02, seed + 100));
+					byte[] expected = geodesicDilation(mask, seeds, 61, 47, connect4);
+					BinaryReconstruct_.reconstruct(mask, seeds, 61, 47, true, connect4, new AtomicIntegerArray(61 * 47), nThreads);
+					assertArrayEquals("seed " + seed + ", " + nThreads + " threads" + (connect4 ? ", 4-connected" : ", 8-connected"), expected, seeds);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void blackParticles() {
+		ByteProcessor mask = Fixtures.blobs(80, 60, 30, 3);
+		ByteProcessor seeds = Fixtures.noise(80, 60, 0.01, 4);
+		byte[] expected = geodesicDilation(pixels(mask), pixels(seeds), 80, 60, false);
+		mask.invert();
+		seeds.invert();
+		byte[] serial = pixels(seeds), parallel = pixels(seeds);
+		BinaryReconstruct_.reconstruct(pixels(mask), serial, 80, 60, false, false, new int[80 * 60]);
+		BinaryReconstruct_.reconstruct(pixels(mask), parallel, 80, 60, false, false, new AtomicIntegerArray(80 * 60), 4);
+		for (int i = 0; i < expected.length; i++)
+			expected[i] = (byte) ~expected[i];
+		assertArrayEquals(expected, serial);
+		assertArrayEquals(expected, parallel);
+	}
+
+	@Test
+	public void execReconstructsEverySliceOfAStack() {
+		ByteProcessor mask = Fixtures.blobs(80, 60, 30, 5);
+		ImageStack seeds = new ImageStack(80, 60);
+		for (int n = 0; n < 3; n++)
+			seeds.addSlice(Fixtures.noise(80, 60, 0.005, 10 + n));
+		ImagePlus result = (ImagePlus) new BinaryReconstruct_().exec(new ImagePlus("mask", mask), new ImagePlus("seeds", seeds), null, true, true, false)[1];
+		for (int n = 1; n <= 3; n++)
+			assertArrayEquals("slice " + n, geodesicDilation(pixels(mask), (byte[]) seeds.getPixels(n), 80, 60, false), (byte[]) result.getStack().getPixels(n));
+	}
+
+	/**
+	 * Reference: the seeds within the mask, dilated within the mask until nothing changes.
+	 */
+	private static byte[] geodesicDilation(byte[] mask, byte[] seeds, int width, int height, boolean connect4) {
+		byte[] out = new byte[mask.length];
+		for (int i = 0; i < out.length; i++)
+			out[i] = mask[i] != 0 && seeds[i] != 0 ? (byte) 255 : 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			byte[] previous = out.clone();
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (mask[y * width + x] == 0 || previous[y * width + x] != 0)
+						continue;
+					for (int dy = -1; dy <= 1; dy++) {
+						for (int dx = -1; dx <= 1; dx++) {
+							int xx = x + dx, yy = y + dy;
+							if ((connect4 && dx != 0 && dy != 0) || xx < 0 || xx >= width || yy < 0 || yy >= height)
+								continue;
+							if (previous[yy * width + xx] != 0) {
+								out[y * width + x] = (byte) 255;
+								changed = true;
+							}
+						}
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	private static byte[] pixels(ByteProcessor ip) {
+		return ((byte[]) ip.getPixels()).clone();
+	}
+}
@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import ij.plugin.filter.ParticleAnalyzer;
+import ij.plugin.filter.RankFilters;
+import ij.process.Blitter;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Sprout counts against the method that BoundaryCrossings replaces: dilate
+ * the beads, XOR with the beads, AND with the skeleton and count the particles.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class BoundaryCrossingsTest {
+
+	@Test
+	public void sameAsFrameParticles() {
+		for (long seed = 1; seed <= 8; seed++) {
+			Random random = new Random(seed);
+			List<ByteProcessor> beads = discs(160, 120, 7, random);
+			ByteProcessor all = new ByteProcessor(160, 120);
+			for (ByteProcessor bead : beads)
+				all.copyBits(bead, 0, 0, Blitter.OR);
+			ByteProcessor lines = seed % 2 == 0 ? Fixtures.noise(160, 120, 0.15, seed) : lines(160, 120, 25, random);
+			BoundaryCrossings crossings = count(all, lines);
+			String message = "seed " + seed;
+			assertEquals(message, frameParticles(all, lines), crossings.getCount());
+			/* the beads are apart, so each one has the crossings of its own frame */
+			int[] starts = firstPixels(all);
+			for (ByteProcessor bead : beads) {
+				int first = firstPixels(bead)[0];
+				int object = 0;
+				while (starts[object] != first)
+					object++;
+				assertEquals(message + ", bead at " + first, frameParticles(bead, lines), crossings.getCount(object));
+			}
+		}
+	}
+
+	@Test
+	public void diagonalTouches() {
+		ByteProcessor beads = Fixtures.drawing(
+				"..........",
+				"...###....",
+				"...###....",
+				"...###....",
+				"..........",
+				"..........");
+		ByteProcessor lines = Fixtures.drawing(
+				"..#.......",
+				".#........",
+				"#.........",
+				"..........",
+				"......#...",
+				".......#..");
+		assertEquals(2, frameParticles(beads, lines));
+		assertEquals(2, count(beads, lines).getCount());
+	}
+
+	@Test
+	public void beadsAtTheBorder() {
+		ByteProcessor beads = Fixtures.drawing(
+				"###.......",
+				"###.......",
+				"..........",
+				"..........",
+				".......###",
+				".......###");
+		ByteProcessor lines = Fixtures.drawing(
+				"...#######",
+				"..........",
+				"#.........",
+				"#.........",
+				"..........",
+				"......#...");
+		assertEquals(3, frameParticles(beads, lines));
+		BoundaryCrossings crossings = count(beads, lines);
+		assertEquals(2, crossings.getCount(0));
+		assertEquals(1, crossings.getCount(1));
+	}
+
+	@Test
+	public void multipleCrossings() {
+		ByteProcessor beads = Fixtures.drawing(
+				"...........",
+				"...........",
+				"....###....",
+				"....###....",
+				"....###....",
+				"...........",
+				"...........");
+		/* a skeleton through the bead, leaving it on both sides, and a branch touching a corner of the frame */
+		ByteProcessor lines = Fixtures.drawing(
+				".....#.....",
+				".....#.....",
+				".....#.....",
+				".....#.....",
+				"#....#.....",
+				".#.#.#.....",
+				"..#..#.....");
+		assertEquals(3, frameParticles(beads, lines));
+		assertEquals(3, count(beads, lines).getCount());
+	}
+
+	private static BoundaryCrossings count(ByteProcessor beads, ByteProcessor lines) {
+		return BoundaryCrossings.count(BitMask.of(beads), firstPixels(beads), BitMask.of(lines));
+	}
+
+	/**
+	 * Number of crossings the old way: the 8-connected particles of the
+	 * skeleton on the one-pixel frame around the beads.
+	 */
+	private static int frameParticles(ByteProcessor beads, ByteProcessor lines) {
+		ByteProcessor frame = (ByteProcessor) beads.duplicate();
+		new RankFilters().rank(frame, 1, RankFilters.MAX);
+		frame.copyBits(beads, 0, 0, Blitter.XOR);
+		frame.copyBits(lines, 0, 0, Blitter.AND);
+		frame.setThreshold(255, 255, ImageProcessor.NO_LUT_UPDATE);
+		ResultsTable rt = new ResultsTable();
+		ParticleAnalyzer pa = new ParticleAnalyzer(0, 0, rt, 0, Double.POSITIVE_INFINITY);
+		pa.setHideOutputImage(true);
+		pa.analyze(new ImagePlus("frame", frame), frame);
+		return rt.size();
+	}
+
+	private static int[] firstPixels(ByteProcessor ip) {
+		ConnectedComponents cc = ConnectedComponents.label(ip, false);
+		int[] starts = new int[cc.getCount()];
+		for (int label = 1; label <= starts.length; label++)
+			starts[label - 1] = cc.getFirstPixel(label);
+		return starts;
+	}
+
+	/**
+	 * Discs, some of them cut by the image border, at least 4 pixels apart
+	 * so that their frames do not touch.
+	 */
+	private static List<ByteProcessor> discs(int width, int height, int n, Random random) {
+		List<int[]> placed = new ArrayList<>();
+		List<ByteProcessor> discs = new ArrayList<>();
+		while (discs.size() < n) {
+			int x = random.nextInt(width), y = random.nextInt(height), r = 3 + random.nextInt(12);
+			boolean apart = true;
+			for (int[] other : placed)
+				apart &= Math.hypot(x - other[0], y - other[1]) > r + other[2] + 6;
+			if (!apart)
+				continue;
+			placed.add(new int[] { x, y, r });
+			ByteProcessor disc = new ByteProcessor(width, height);
+			disc.setColor(255);
+			disc.fillOval(x - r, y - r, 2 * r + 1, 2 * r + 1);
+			discs.add(disc);
+		}
+		return discs;
+	}
+
+	/**
+	 * One-pixel lines in all directions, as in a skeleton.
+	 */
+	private static ByteProcessor lines(int width, int height, int n, Random random) {
+		ByteProcessor ip = new ByteProcessor(width, height);
+		ip.setColor(255);
+		for (int k = 0; k < n; k++) {
+			int x = random.nextInt(width), y = random.nextInt(height);
+			ip.drawLine(x, y, x + random.nextInt(81) - 40, y + random.nextInt(81) - 40);
+		}
+		return ip;
+	}
+}
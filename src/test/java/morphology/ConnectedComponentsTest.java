@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.ImagePlus;
+import ij.measure.Measurements;
+import ij.measure.ResultsTable;
+import ij.plugin.filter.ParticleAnalyzer;
+import ij.process.Blitter;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import org.junit.Test;
+
+/**
+ * Labels, statistics and size filtering against the ParticleAnalyzer that
+ * ConnectedComponents replaces.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class ConnectedComponentsTest {
+
+	@Test
+	public void sameParticlesAsParticleAnalyzer() {
+		for (long seed = 1; seed <= 5; seed++) {
+			ByteProcessor ip = Fixtures.blobs(120, 90, 40, seed);
+			ConnectedComponents cc = ConnectedComponents.label(ip, false);
+			ResultsTable rt = analyzeParticles(ip, 0, 0, null);
+			String message = "seed " + seed;
+			assertEquals(message, rt.size(), cc.getCount());
+			for (int row = 0, label = 1; row < rt.size(); row++, label++) {
+				assertEquals(message, (int) rt.getValue("XStart", row) + 120 * (int) rt.getValue("YStart", row), cc.getFirstPixel(label));
+				assertEquals(message, (int) rt.getValue("Area", row), cc.getArea(label));
+				assertArrayEquals(message, new int[] { (int) rt.getValue("BX", row), (int) rt.getValue("BY", row), (int) rt.getValue("Width", row), (int) rt.getValue("Height", row) }, cc.getBounds(label));
+			}
+		}
+	}
+
+	@Test
+	public void sizeFilterMatchesParticleAnalyzerMask() {
+		for (long seed = 1; seed <= 5; seed++) {
+			ByteProcessor ip = Fixtures.blobs(120, 90, 40, seed);
+			ConnectedComponents cc = ConnectedComponents.label(ip, false);
+			ByteProcessor expected = new ByteProcessor(120, 90);
+			analyzeParticles(ip, 0, 30, expected);
+			ByteProcessor filtered = new ByteProcessor(120, 90);
+			cc.retain((byte[]) filtered.getPixels(), label -> cc.getArea(label) >= 30);
+			assertArrayEquals("seed " + seed, (byte[]) expected.getPixels(), (byte[]) filtered.getPixels());
+		}
+	}
+
+	@Test
+	public void edgeFilterMatchesParticleAnalyzerMask() {
+		for (long seed = 1; seed <= 5; seed++) {
+			ByteProcessor ip = Fixtures.blobs(120, 90, 40, seed);
+			ConnectedComponents cc = ConnectedComponents.label(ip, false);
+			ByteProcessor expected = new ByteProcessor(120, 90);
+			analyzeParticles(ip, ParticleAnalyzer.EXCLUDE_EDGE_PARTICLES, 0, expected);
+			ByteProcessor filtered = new ByteProcessor(120, 90);
+			cc.retain((byte[]) filtered.getPixels(), label -> !cc.touchesEdge(label));
+			assertArrayEquals("seed " + seed, (byte[]) expected.getPixels(), (byte[]) filtered.getPixels());
+		}
+	}
+
+	@Test
+	public void diagonalNeighbours() {
+		ByteProcessor ip = new ByteProcessor(4, 4);
+		ip.set(0, 0, 255);
+		ip.set(1, 1, 255);
+		ip.set(3, 3, 255);
+		assertEquals(2, ConnectedComponents.label(ip, false).getCount());
+		assertEquals(3, ConnectedComponents.label(ip, true).getCount());
+	}
+
+	@Test
+	public void tiledComponentsAgree() {
+		for (long seed = 1; seed <= 5; seed++) {
+			ByteProcessor ip = Fixtures.noise(150, 110, 0.5, seed);
+			for (boolean connect4 : new boolean[] { false, true }) {
+				ConnectedComponents cc = ConnectedComponents.label(ip, connect4);
+				for (int tileSize : new int[] { 7, 32, 64, 1000 }) {
+					TiledComponents tc = new TiledComponents(BitMask.of(ip), tileSize, connect4, null);
+					String message = "seed " + seed + ", tile " + tileSize + (connect4 ? ", 4-connected" : ", 8-connected");
+					assertEquals(message, cc.getCount(), tc.getCount());
+					int[] ids = tc.getComponents();
+					for (int n = 0; n < ids.length; n++) {
+						int first = (int) tc.getFirstPixel(ids[n]);
+						int label = cc.getLabels()[first];
+						assertEquals(message, cc.getFirstPixel(label), first);
+						assertEquals(message, cc.getArea(label), tc.getArea(ids[n]));
+						assertEquals(message, cc.touchesEdge(label), tc.touchesEdge(ids[n]));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 8-connected particles (255) in raster order of their first pixel, with
+	 * area, bounds and start, as the analyzer used to find them.
+	 *
+	 * @param options additional ParticleAnalyzer options
+	 * @param mask output mask of the particles of at least minSize pixels, or null
+	 */
+	private static ResultsTable analyzeParticles(ByteProcessor ip, int options, int minSize, ByteProcessor mask) {
+		ImageProcessor copy = ip.duplicate();
+		copy.setThreshold(255, 255, ImageProcessor.NO_LUT_UPDATE);
+		ResultsTable rt = new ResultsTable();
+		options |= ParticleAnalyzer.RECORD_STARTS;
+		if (mask != null)
+			options |= ParticleAnalyzer.SHOW_MASKS;
+		ParticleAnalyzer pa = new ParticleAnalyzer(options, Measurements.AREA | Measurements.RECT, rt, minSize, Double.POSITIVE_INFINITY);
+		pa.setHideOutputImage(true);
+		pa.analyze(new ImagePlus("fixture", copy), copy);
+		if (mask != null) {
+			ImageProcessor out = pa.getOutputImage().getProcessor();
+			if (!out.isInvertedLut())
+				out.invert();
+			else
+				out.invertLut();
+			mask.copyBits(out, 0, 0, Blitter.COPY);
+		}
+		return rt;
+	}
+}
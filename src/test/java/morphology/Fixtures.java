@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import ij.process.ByteProcessor;
+import java.util.Random;
+
+/**
+ * Small binary fixture images for the tests, the same for the same seed.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Filled discs and thick line segments (255) on background (0), with
+	 * touching and overlapping objects, objects at the image border and
+	 * objects that only touch diagonally.
+	 *
+	 * @param width
+	 * @param height
+	 * @param n number of objects
+	 * @param seed
+	 */
+	static ByteProcessor blobs(int width, int height, int n, long seed) {
+		Random random = new Random(seed);
+		ByteProcessor ip = new ByteProcessor(width, height);
+		ip.setColor(255);
+		for (int k = 0; k < n; k++) {
+			int x = random.nextInt(width), y = random.nextInt(height);
+			if (random.nextBoolean()) {
+				int r = 1 + random.nextInt(6);
+				ip.fillOval(x - r, y - r, 2 * r + 1, 2 * r + 1);
+			} else {
+				ip.setLineWidth(1 + random.nextInt(3));
+				ip.drawLine(x, y, x + random.nextInt(41) - 20, y + random.nextInt(41) - 20);
+			}
+		}
+		/* two pixels that only touch diagonally */
+		ip.set(0, height - 1, 255);
+		ip.set(1, height - 2, 255);
+		return ip;
+	}
+
+	/**
+	 * Random pixels (255) with the given density, i.e. many small objects of every shape.
+	 *
+	 * @param width
+	 * @param height
+	 * @param density fraction of foreground pixels
+	 * @param seed
+	 */
+	static ByteProcessor noise(int width, int height, double density, long seed) {
+		Random random = new Random(seed);
+		ByteProcessor ip = new ByteProcessor(width, height);
+		byte[] pixels = (byte[]) ip.getPixels();
+		for (int i = 0; i < pixels.length; i++)
+			if (random.nextDouble() < density)
+				pixels[i] = (byte) 255;
+		return ip;
+	}
+
+	/**
+	 * Binary image drawn as text: '#' is foreground (255), anything else background.
+	 *
+	 * @param rows rows of the image, all of the same length
+	 */
+	static ByteProcessor drawing(String... rows) {
+		ByteProcessor ip = new ByteProcessor(rows[0].length(), rows.length);
+		for (int y = 0; y < rows.length; y++)
+			for (int x = 0; x < rows[y].length(); x++)
+				if (rows[y].charAt(x) == '#')
+					ip.set(x, y, 255);
+		return ip;
+	}
+}
@@ -0,0 +1,285 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ij.process.ByteProcessor;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * SkeletonGraph on small skeletons with known nodes, branches and lengths.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class SkeletonGraphTest {
+	private static final double EPS = 1e-9, SQRT2 = Math.sqrt(2);
+
+	private static SkeletonGraph graph(String... rows) {
+		return graph(1, 1, rows);
+	}
+
+	private static SkeletonGraph graph(double pixelWidth, double pixelHeight, String... rows) {
+		ByteProcessor ip = Fixtures.drawing(rows);
+		return SkeletonGraph.build((byte[]) ip.getPixels(), ip.getWidth(), ip.getHeight(), pixelWidth, pixelHeight);
+	}
+
+	private static void assertGraph(SkeletonGraph graph, int junctions, int endPoints, int branches, double totalLength) {
+		assertEquals("junctions", junctions, graph.getJunctionCount());
+		assertEquals("end points", endPoints, graph.getEndPointCount());
+		assertEquals("branches", branches, graph.getBranchCount());
+		assertEquals("total length", totalLength, graph.getTotalLength(), EPS);
+	}
+
+	@Test
+	public void isolatedPixel() {
+		SkeletonGraph graph = graph("...", ".#.", "...");
+		assertGraph(graph, 0, 1, 0, 0);
+		assertEquals(0, graph.getLongestShortestPath(), EPS);
+	}
+
+	@Test
+	public void lines() {
+		SkeletonGraph graph = graph(".....", "#####", ".....");
+		assertGraph(graph, 0, 2, 1, 4);
+		assertEquals(4, graph.getLongestShortestPath(), EPS);
+		assertGraph(graph(2, 3, "#####"), 0, 2, 1, 8);
+		assertGraph(graph(2, 3, "#", "#", "#"), 0, 2, 1, 6);
+		graph = graph("#...", ".#..", "..#.", "...#");
+		assertGraph(graph, 0, 2, 1, 3 * SQRT2);
+		assertEquals(3 * SQRT2, graph.getLongestShortestPath(), EPS);
+		assertGraph(graph(3, 4, "#.", ".#"), 0, 2, 1, 5);
+	}
+
+	@Test
+	public void bentLine() {
+		/* a knight's-move bend is a slab pixel with one straight and one diagonal step */
+		assertGraph(graph("###...", "...###"), 0, 2, 1, 4 + SQRT2);
+	}
+
+	/** A 2x2 block has three neighbors per pixel, and is one junction. */
+	@Test
+	public void block() {
+		SkeletonGraph graph = graph(
+				"#....#",
+				".#..#.",
+				"..##..",
+				"..##..",
+				".#..#.",
+				"#....#");
+		assertGraph(graph, 1, 4, 4, 8 * SQRT2);
+		assertEquals(4 * SQRT2, graph.getLongestShortestPath(), EPS);
+		assertGraph(graph("##", "##"), 1, 0, 0, 0);
+		assertGraph(graph("###", "##."), 1, 0, 0, 0);
+	}
+
+	@Test
+	public void cross() {
+		/* the center and the four pixels next to it are one junction */
+		SkeletonGraph graph = graph(
+				"...#...",
+				"...#...",
+				"...#...",
+				"#######",
+				"...#...",
+				"...#...",
+				"...#...");
+		assertGraph(graph, 1, 4, 4, 8);
+		assertEquals(4, graph.getLongestShortestPath(), EPS);
+	}
+
+	@Test
+	public void twoJunctions() {
+		SkeletonGraph graph = graph(
+				"#.....#",
+				".#...#.",
+				"..###..",
+				".#...#.",
+				"#.....#");
+		assertGraph(graph, 2, 4, 5, 8 * SQRT2 + 2);
+		assertEquals(4 * SQRT2 + 2, graph.getLongestShortestPath(), EPS);
+		for (int b = 0; b < graph.getBranchCount(); b++)
+			if (graph.getBranchStart(b) < graph.getJunctionCount() && graph.getBranchEnd(b) < graph.getJunctionCount())
+				assertEquals(2, graph.getBranchLength(b), EPS);
+	}
+
+	@Test
+	public void ring() {
+		SkeletonGraph graph = graph(
+				"...#...",
+				"..#.#..",
+				".#...#.",
+				"#.....#",
+				".#...#.",
+				"..#.#..",
+				"...#...");
+		assertGraph(graph, 0, 0, 1, 12 * SQRT2);
+		assertEquals(-1, graph.getBranchStart(0));
+		assertEquals(6 * SQRT2, graph.getLongestShortestPath(), EPS);
+	}
+
+	@Test
+	public void lasso() {
+		/* the ring is a loop from the junction back to itself */
+		SkeletonGraph graph = graph(
+				"...#......",
+				"..#.#.....",
+				".#...#....",
+				"#.....####",
+				".#...#....",
+				"..#.#.....",
+				"...#......");
+		assertGraph(graph, 1, 1, 2, 12 * SQRT2 + 3);
+		int loops = 0;
+		for (int b = 0; b < graph.getBranchCount(); b++)
+			if (graph.getBranchStart(b) == graph.getBranchEnd(b))
+				loops++;
+		assertEquals(1, loops);
+	}
+
+	@Test
+	public void endPointNextToJunction() {
+		/* a one-pixel spur: the end point and the junction are adjacent nodes */
+		SkeletonGraph graph = graph(
+				"#...#",
+				".#.#.",
+				"..#..",
+				"..#..");
+		assertGraph(graph, 1, 3, 3, 4 * SQRT2 + 1);
+		assertEquals(4 * SQRT2, graph.getLongestShortestPath(), EPS);
+	}
+
+	/** Chains never run into each other, whatever the pixels (thin or not). */
+	@Test
+	public void anyPixels() {
+		for (double density : new double[] { 0.1, 0.3, 0.5, 0.7, 0.9 }) {
+			ByteProcessor ip = Fixtures.noise(200, 150, density, 7);
+			SkeletonGraph.build((byte[]) ip.getPixels(), ip.getWidth(), ip.getHeight(), 1, 1);
+		}
+		ByteProcessor ip = Fixtures.blobs(300, 200, 80, 3);
+		Thinning.skeletonize(ip);
+		SkeletonGraph graph = SkeletonGraph.build((byte[]) ip.getPixels(), ip.getWidth(), ip.getHeight(), 1, 1);
+		assertEquals(graph.getEndPointCount() + graph.getJunctionCount(), graph.getNodeCount());
+	}
+
+	/**
+	 * Largest finite distance between two nodes, from all-pairs shortest paths (Floyd-Warshall).
+	 */
+	private static double allPairsLongest(SkeletonGraph graph) {
+		int n = graph.getNodeCount();
+		double[][] dist = new double[n][n];
+		for (int u = 0; u < n; u++) {
+			Arrays.fill(dist[u], Double.POSITIVE_INFINITY);
+			dist[u][u] = 0;
+		}
+		for (int b = 0; b < graph.getBranchCount(); b++) {
+			int u = graph.getBranchStart(b), v = graph.getBranchEnd(b);
+			dist[u][v] = dist[v][u] = Math.min(dist[u][v], graph.getBranchLength(b));
+		}
+		for (int k = 0; k < n; k++)
+			for (int u = 0; u < n; u++)
+				for (int v = 0; v < n; v++)
+					dist[u][v] = Math.min(dist[u][v], dist[u][k] + dist[k][v]);
+		double longest = 0;
+		for (int u = 0; u < n; u++)
+			for (int v = 0; v < n; v++)
+				if (dist[u][v] < Double.POSITIVE_INFINITY)
+					longest = Math.max(longest, dist[u][v]);
+		return longest;
+	}
+
+	/**
+	 * Random graph: every node but the first is joined to a random earlier
+	 * node (or starts a new tree), plus the given number of extra branches.
+	 */
+	private static SkeletonGraph randomGraph(Random random, int nNodes, int extra) {
+		int[] from = new int[nNodes - 1 + extra], to = new int[from.length];
+		double[] length = new double[from.length];
+		int nBranches = 0;
+		for (int v = 1; v < nNodes; v++) {
+			if (random.nextInt(10) == 0)
+				continue; // root of a new tree
+			from[nBranches] = random.nextInt(v);
+			to[nBranches] = v;
+			length[nBranches++] = 1 + 50 * random.nextDouble();
+		}
+		for (int k = 0; k < extra; k++) {
+			from[nBranches] = random.nextInt(nNodes);
+			to[nBranches] = random.nextInt(nNodes);
+			if (from[nBranches] != to[nBranches])
+				length[nBranches++] = 1 + 50 * random.nextDouble();
+		}
+		return SkeletonGraph.of(nNodes, Arrays.copyOf(from, nBranches), Arrays.copyOf(to, nBranches), Arrays.copyOf(length, nBranches));
+	}
+
+	@Test
+	public void forestsMatchAllPairs() {
+		Random random = new Random(1);
+		for (int k = 0; k < 200; k++) {
+			SkeletonGraph graph = randomGraph(random, 1 + random.nextInt(60), 0);
+			assertEquals("forest " + k, allPairsLongest(graph), graph.getLongestShortestPath(), EPS);
+		}
+	}
+
+	@Test
+	public void loopsWithinDocumentedBound() {
+		Random random = new Random(2);
+		for (int k = 0; k < 200; k++) {
+			SkeletonGraph graph = randomGraph(random, 2 + random.nextInt(60), 1 + random.nextInt(20));
+			double exact = allPairsLongest(graph), sweep = graph.getLongestShortestPath();
+			assertTrue("graph " + k + ": " + sweep + " > " + exact, sweep <= exact + EPS);
+			assertTrue("graph " + k + ": " + sweep + " < " + exact + " / 2", 2 * sweep >= exact - EPS);
+		}
+	}
+
+	/** A grid of loops, on which a label-correcting search revisits nodes very often */
+	@Test(timeout = 10000)
+	public void largeGrid() {
+		int n = 300;
+		int[] from = new int[2 * n * (n - 1)], to = new int[from.length];
+		double[] length = new double[from.length];
+		Random random = new Random(3);
+		int b = 0;
+		for (int y = 0; y < n; y++)
+			for (int x = 0; x < n; x++) {
+				if (x + 1 < n) {
+					from[b] = y * n + x;
+					to[b] = y * n + x + 1;
+					length[b++] = 1 + random.nextDouble();
+				}
+				if (y + 1 < n) {
+					from[b] = y * n + x;
+					to[b] = (y + 1) * n + x;
+					length[b++] = 1 + random.nextDouble();
+				}
+			}
+		double longest = SkeletonGraph.of(n * n, from, to, length).getLongestShortestPath();
+		assertTrue(longest >= 2 * (n - 1) && longest <= 4 * (n - 1));
+	}
+}
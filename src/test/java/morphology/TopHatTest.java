@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package morphology;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.plugin.filter.BackgroundSubtracter;
+import ij.process.AutoThresholder;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * The top-hat against the rolling ball of ImageJ's BackgroundSubtracter it replaces.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class TopHatTest {
+	private static final int SIZE = 384, NUCLEUS_RADIUS = 4, GRID = 24;
+
+	/**
+	 * Nuclei on a grid (with jitter), on a gradient with noise and a large bright
+	 * blob that is part of the background.
+	 */
+	private static ShortProcessor nuclei(long seed) {
+		Random random = new Random(seed);
+		ShortProcessor ip = new ShortProcessor(SIZE, SIZE);
+		for (int y = 0; y < SIZE; y++)
+			for (int x = 0; x < SIZE; x++) {
+				double blob = 600 * Math.exp(-((x - 250) * (x - 250) + (y - 120) * (y - 120)) / (2 * 60.0 * 60.0));
+				ip.set(x, y, (int) (300 + 1.5 * x + 0.8 * y + blob + random.nextInt(30)));
+			}
+		for (int gy = GRID / 2; gy < SIZE; gy += GRID)
+			for (int gx = GRID / 2; gx < SIZE; gx += GRID) {
+				int cx = gx + random.nextInt(7) - 3, cy = gy + random.nextInt(7) - 3;
+				for (int y = cy - NUCLEUS_RADIUS; y <= cy + NUCLEUS_RADIUS; y++)
+					for (int x = cx - NUCLEUS_RADIUS; x <= cx + NUCLEUS_RADIUS; x++)
+						if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= NUCLEUS_RADIUS * NUCLEUS_RADIUS)
+							ip.set(x, y, ip.get(x, y) + 700);
+			}
+		return ip;
+	}
+
+	private static int count(ImageProcessor ip) {
+		ip.setAutoThreshold(AutoThresholder.Method.Otsu, true, ImageProcessor.NO_LUT_UPDATE);
+		double lower = ip.getMinThreshold();
+		ByteProcessor mask = new ByteProcessor(ip.getWidth(), ip.getHeight());
+		for (int i = 0; i < ip.getPixelCount(); i++)
+			if (ip.getf(i) >= lower)
+				mask.set(i, 255);
+		return ConnectedComponents.label(mask, false).getCount();
+	}
+
+	@Test
+	public void sameNucleusCountsAsRollingBall() {
+		int expected = (SIZE / GRID) * (SIZE / GRID);
+		for (long seed = 1; seed <= 3; seed++) {
+			ShortProcessor topHat = nuclei(seed), rollingBall = nuclei(seed);
+			TopHat.subtract(topHat, 50);
+			new BackgroundSubtracter().rollingBallBackground(rollingBall, 50, false, false, false, true, true);
+			assertEquals("seed " + seed, expected, count(rollingBall));
+			assertEquals("seed " + seed, expected, count(topHat));
+		}
+	}
+
+	@Test
+	public void flatImageBecomesZero() {
+		ShortProcessor ip = new ShortProcessor(100, 80);
+		ip.setValue(1234);
+		ip.fill();
+		TopHat.subtract(ip, 20);
+		for (int i = 0; i < ip.getPixelCount(); i++)
+			assertEquals(0, ip.get(i));
+	}
+}
@@ -0,0 +1,64 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.ImagePlus;
+import org.junit.Test;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * The nucleus segmentation and the EC classification share the background
+ * subtraction of a channel, also without caching.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class BackgroundSubtractionTest {
+
+	private static Sprout_Analyzer analyzer(ImagePlus imp, int nuclei, int ec) {
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.setParameters(SproutParameters.DEFAULTS.toBuilder().channels(1, 2, nuclei, ec, 4)
+				.measureOnly(Measurement.CELL_COUNT, Measurement.EC_COUNT).build());
+		analyzer.setCaching(false);
+		return analyzer;
+	}
+
+	@Test
+	public void oneTopHatPerChannel() {
+		ImagePlus imp = SyntheticPlate.make(1000, 500, 4, 1).getImage();
+		Sprout_Analyzer shared = analyzer(imp, 3, 3);
+		shared.analyze(StageScheduler.CALLER);
+		assertEquals(1, shared.getBackgroundCount());
+		shared.analyze(StageScheduler.CALLER);
+		assertEquals(2, shared.getBackgroundCount()); // nothing kept between analyses without caching
+
+		Sprout_Analyzer separate = analyzer(imp, 1, 3);
+		separate.analyze(StageScheduler.CALLER);
+		assertEquals(2, separate.getBackgroundCount());
+	}
+}
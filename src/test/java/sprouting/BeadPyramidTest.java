@@ -0,0 +1,96 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import ij.ImagePlus;
+import ij.gui.OvalRoi;
+import ij.process.ByteProcessor;
+import morphology.BinaryMorphology;
+import org.junit.Test;
+
+/**
+ * Coarse-to-fine bead detection against the full-resolution one.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class BeadPyramidTest {
+
+	private static Sprout_Analyzer analyzer(ImagePlus imp, int factor) {
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.setParameters(SproutParameters.DEFAULTS.toBuilder().beadDownsampling(factor).build());
+		return analyzer;
+	}
+
+	private static byte[] beads(ImagePlus imp, int factor) {
+		return (byte[]) analyzer(imp, factor).findBeads(imp, 1, false).toByteProcessor().getPixels();
+	}
+
+	@Test
+	public void sameAsFullResolution() {
+		for (long seed = 1; seed <= 2; seed++) {
+			ImagePlus imp = SyntheticPlate.make(1024, 1024, 4, seed).getImage();
+			byte[] expected = beads(imp, 1);
+			for (int factor : new int[] { 2, 4, 8 })
+				assertArrayEquals("seed " + seed + ", factor " + factor, expected, beads(imp, factor));
+		}
+	}
+
+	@Test
+	public void thresholdLevelOfFullResolution() {
+		ImagePlus imp = SyntheticPlate.make(1024, 1024, 4, 1).getImage();
+		Sprout_Analyzer full = analyzer(imp, 1), coarse = analyzer(imp, 4);
+		full.findBeads(imp, 1, false);
+		coarse.findBeads(imp, 1, false);
+		assertFalse(Double.isNaN(coarse.getThresholdLevel(Stage.BEADS)));
+		assertEquals(full.getThresholdLevel(Stage.BEADS), coarse.getThresholdLevel(Stage.BEADS), 0);
+	}
+
+	/**
+	 * Discs that barely survive the erosion, at positions that do not align
+	 * with the blocks of the coarse scale.
+	 */
+	@Test
+	public void beadsBarelyLargerThanTheErosion() {
+		double erodeRadius = 20, dilateRadius = 24;
+		ByteProcessor ip = new ByteProcessor(400, 400);
+		ip.setValue(255);
+		for (int i = 0; i < 9; i++) {
+			double r = erodeRadius + 0.5 + 0.25 * i;
+			ip.fill(new OvalRoi(20 + (i % 3) * 130 + i, 20 + (i / 3) * 130 + 2 * i, 2 * r, 2 * r));
+		}
+		ByteProcessor expected = (ByteProcessor) ip.duplicate();
+		BinaryMorphology.erode(expected, erodeRadius);
+		BinaryMorphology.dilate(expected, dilateRadius);
+		for (int factor : new int[] { 2, 4, 8 })
+			assertArrayEquals("factor " + factor, (byte[]) expected.getPixels(),
+					(byte[]) BeadPyramid.findBeads(ip, 128, erodeRadius, dilateRadius, factor).getPixels());
+	}
+}
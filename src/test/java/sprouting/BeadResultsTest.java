@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import java.util.List;
+import org.junit.Test;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * Per-bead results: the counts of the beads add up to the ones of the whole
+ * image, also for sprouts and cells shared by two beads.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class BeadResultsTest {
+
+	private static SproutParameters parameters() {
+		SproutParameters.Builder parameters = SproutParameters.DEFAULTS.toBuilder().perBead(true);
+		for (Measurement m : Measurement.values())
+			parameters.measure(m, true);
+		return parameters.build();
+	}
+
+	private static void fill(ImageProcessor ip, int x0, int y0, int x1, int y1, int value) {
+		for (int y = y0; y <= y1; y++)
+			for (int x = x0; x <= x1; x++)
+				ip.set(x, y, value);
+	}
+
+	private static void assertBeadsAddUp(SproutResults image) {
+		List<SproutResults> beads = image.getBeadResults();
+		assertEquals(image.getBeadCount(), beads.size());
+		int sprouts = 0, cells = 0, pericytes = 0;
+		double area = 0;
+		for (SproutResults bead : beads) {
+			assertEquals(1, bead.getBeadCount());
+			sprouts += bead.getSproutCount();
+			cells += bead.getCellCount();
+			pericytes += bead.getPericyteCount();
+			area += bead.getSproutArea();
+		}
+		assertEquals("sprouts", image.getSproutCount(), sprouts);
+		assertEquals("cells", image.getCellCount(), cells);
+		assertEquals("pericytes", image.getPericyteCount(), pericytes);
+		assertEquals("sprout area", image.getSproutArea(), area, 1e-6 * area);
+	}
+
+	@Test
+	public void beadsAddUpToImage() {
+		for (long seed = 1; seed <= 2; seed++) {
+			SyntheticPlate plate = SyntheticPlate.make(1500, 1000, 4, seed);
+			SproutResults image = SproutAnalysis.analyze(plate.getImage(), parameters());
+			assertEquals(plate.getNucleusCount(), image.getCellCount());
+			assertBeadsAddUp(image);
+		}
+	}
+
+	/**
+	 * A sprout joining two beads, with nuclei straddling the border between
+	 * their regions, and nuclei on the image edge.
+	 */
+	@Test
+	public void sharedSproutsAndCells() {
+		ImagePlus imp = SyntheticPlate.make(1000, 500, 3, 4).getImage();
+		int mid = SyntheticPlate.SPACING; // between the beads at 250 and 750
+		ImageProcessor nuclei = imp.getStack().getProcessor(1), sprouts = imp.getStack().getProcessor(2), ec = imp.getStack().getProcessor(3);
+		fill(sprouts, 330, 246, 670, 253, 1500);
+		for (int x : new int[] { mid - 4, mid - 40 })
+			fill(nuclei, x, 247, x + 7, 252, 3000);
+		fill(ec, mid - 4, 247, mid + 3, 252, 2500);
+		/* a sprout to the top edge of the image, with a nucleus cut by the edge */
+		fill(sprouts, 246, 0, 253, 180, 1500);
+		fill(nuclei, 247, 0, 252, 3, 3000);
+		SproutResults image = SproutAnalysis.analyze(imp, parameters());
+		assertEquals(2, image.getBeadCount());
+		assertBeadsAddUp(image);
+	}
+
+	/**
+	 * A sprout of the first bead that reaches far into the region of the second
+	 * bead, and a third bead without sprouts.
+	 */
+	@Test
+	public void sproutIntoAnotherRegion() {
+		ImagePlus imp = SyntheticPlate.make(1500, 500, 0, 5).getImage();
+		ImageProcessor sprouts = imp.getStack().getProcessor(2);
+		/* beads at 250, 750 and 1250, the border between the first two regions at 500 */
+		fill(sprouts, 320, 246, 640, 253, 1500);
+		fill(sprouts, 746, 20, 753, 180, 1500);
+		SproutResults image = SproutAnalysis.analyze(imp, parameters());
+		assertEquals(3, image.getBeadCount());
+		assertBeadsAddUp(image);
+		List<SproutResults> beads = image.getBeadResults();
+		SproutResults first = beads.get(0), second = beads.get(1), third = beads.get(2);
+		assertEquals(1, first.getSproutCount());
+		assertEquals(1, second.getSproutCount());
+		assertEquals(0, third.getSproutCount());
+		/* the whole sprout is measured for the first bead, not only up to the border */
+		assertEquals(image.getNetworkLength(), first.getNetworkLength() + second.getNetworkLength(), 1e-6 * image.getNetworkLength());
+		assertTrue("first bead " + first.getNetworkLength(), first.getNetworkLength() > 500 - 250);
+		assertTrue("second bead " + second.getNetworkLength(), second.getNetworkLength() < 180);
+		assertEquals(first.getNetworkLength(), first.getAverageSproutLength(), 1e-9);
+		assertEquals(second.getNetworkLength(), second.getAverageSproutLength(), 1e-9);
+		assertEquals(0, third.getNetworkLength(), 0);
+		assertEquals(0, third.getAverageSproutLength(), 0);
+	}
+
+	@Test
+	public void centroids() {
+		SyntheticPlate plate = SyntheticPlate.make(1500, 1000, 4, 1);
+		List<SproutResults> beads = SproutAnalysis.analyze(plate.getImage(), parameters()).getBeadResults();
+		for (SproutResults bead : beads) {
+			double x = bead.getBeadX(), y = bead.getBeadY();
+			double cx = Math.floor(x / SyntheticPlate.SPACING) * SyntheticPlate.SPACING + SyntheticPlate.SPACING / 2;
+			double cy = Math.floor(y / SyntheticPlate.SPACING) * SyntheticPlate.SPACING + SyntheticPlate.SPACING / 2;
+			assertEquals(cx, x, 1.5);
+			assertEquals(cy, y, 1.5);
+		}
+	}
+}
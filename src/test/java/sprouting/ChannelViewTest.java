@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Line;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.plugin.Duplicator;
+import ij.process.ShortProcessor;
+import java.awt.Rectangle;
+import org.junit.Test;
+
+/**
+ * The channel view against the Duplicator it replaces.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class ChannelViewTest {
+
+	/**
+	 * Two channels and three frames of distinct ramps.
+	 */
+	private static ImagePlus image() {
+		ImageStack stack = new ImageStack(30, 20);
+		for (int n = 0; n < 6; n++) {
+			ShortProcessor ip = new ShortProcessor(30, 20);
+			for (int i = 0; i < 30 * 20; i++)
+				ip.set(i, 1000 * n + i);
+			stack.addSlice(ip);
+		}
+		ImagePlus imp = new ImagePlus("view", stack);
+		imp.setDimensions(2, 1, 3);
+		return imp;
+	}
+
+	private static void assertSameAsDuplicator(ImagePlus imp) {
+		for (int frame = 1; frame <= 3; frame++) {
+			for (int channel = 1; channel <= 2; channel++) {
+				ImagePlus expected = new Duplicator().run(imp, channel, channel, 1, 1, frame, frame);
+				ImagePlus copy = new ChannelView(imp, channel, frame).copy();
+				assertEquals(expected.getWidth(), copy.getWidth());
+				assertEquals(expected.getHeight(), copy.getHeight());
+				assertArrayEquals((short[]) expected.getProcessor().getPixels(), (short[]) copy.getProcessor().getPixels());
+				assertArrayEquals((short[]) expected.getProcessor().getPixels(), (short[]) new ChannelView(imp, channel, frame).getProcessor().getPixels());
+			}
+		}
+	}
+
+	@Test
+	public void wholeImageSharesThePixels() {
+		ImagePlus imp = image();
+		assertSameAsDuplicator(imp);
+		assertSame(imp.getStack().getPixels(imp.getStackIndex(2, 1, 3)), new ChannelView(imp, 2, 3).getProcessor().getPixels());
+		assertEquals(new Rectangle(30, 20), new ChannelView(imp, 1).getBounds());
+	}
+
+	@Test
+	public void areaSelectionCropsLikeDuplicator() {
+		ImagePlus imp = image();
+		imp.setRoi(new Roi(5, 4, 10, 7));
+		assertSameAsDuplicator(imp);
+		imp.setRoi(new OvalRoi(3, 2, 12, 9));
+		assertSameAsDuplicator(imp);
+		assertEquals(new Rectangle(3, 2, 12, 9), new ChannelView(imp, 1).getBounds());
+		imp.setRoi(new Roi(25, 15, 10, 10)); // partly outside
+		assertSameAsDuplicator(imp);
+	}
+
+	@Test
+	public void lineSelectionIsIgnored() {
+		ImagePlus imp = image();
+		imp.setRoi(new Line(1, 1, 20, 15));
+		assertSameAsDuplicator(imp);
+		assertEquals(new Rectangle(30, 20), new ChannelView(imp, 1).getBounds());
+	}
+}
@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.process.AutoThresholder;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * The threshold levels of HistogramThreshold against setAutoThreshold().
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class HistogramThresholdTest {
+
+	/**
+	 * Noisy background with a brighter foreground on a fifth of the pixels.
+	 */
+	private static ImageProcessor image(ImageProcessor ip, double background, double foreground, long seed) {
+		Random random = new Random(seed);
+		for (int i = 0; i < ip.getPixelCount(); i++) {
+			double mean = random.nextInt(5) == 0 ? foreground : background;
+			ip.setf(i, (float) Math.max(0, mean + mean / 4 * random.nextGaussian()));
+		}
+		return ip;
+	}
+
+	private static void assertSameLevels(String name, ImageProcessor ip, HistogramThreshold histogram) {
+		for (String method : AutoThresholder.getMethods()) {
+			ImageProcessor reference = ip.duplicate();
+			reference.setAutoThreshold(method, true, ImageProcessor.NO_LUT_UPDATE);
+			double[] t = histogram.getDarkBackgroundThreshold(method);
+			assertEquals(name + " " + method, reference.getMinThreshold(), t[0], 0);
+			assertEquals(name + " " + method, reference.getMaxThreshold(), t[1], 0);
+		}
+	}
+
+	@Test
+	public void levelsMatchForAllMethods() {
+		assertEquals(17, AutoThresholder.getMethods().length);
+		for (long seed = 1; seed <= 3; seed++) {
+			ImageProcessor bytes = image(new ByteProcessor(150, 100), 30, 120, seed);
+			ImageProcessor shorts = image(new ShortProcessor(150, 100), 300 * seed, 3000, seed);
+			ImageProcessor floats = image(new FloatProcessor(150, 100), 0.3, 2.5 * seed, seed);
+			assertSameLevels("8-bit", bytes, HistogramThreshold.of(bytes));
+			assertSameLevels("16-bit", shorts, HistogramThreshold.of(shorts));
+			assertSameLevels("32-bit", floats, HistogramThreshold.of(floats));
+		}
+	}
+
+	@Test
+	public void piecewiseHistograms() {
+		for (long seed = 1; seed <= 3; seed++) {
+			ImageProcessor bytes = image(new ByteProcessor(150, 100), 30, 120, seed);
+			ImageProcessor shorts = image(new ShortProcessor(150, 100), 300 * seed, 3000, seed);
+			for (ImageProcessor ip : new ImageProcessor[] { bytes, shorts }) {
+				HistogramThreshold histogram = new HistogramThreshold(ip.getBitDepth());
+				histogram.add(ip, 0, 0, 150, 37);
+				histogram.add(ip, 0, 37, 60, 63);
+				histogram.add(ip, 60, 37, 90, 63);
+				assertSameLevels(ip.getBitDepth() + "-bit pieces", ip, histogram);
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * The parameter grid against separate analyses of each grid point.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class ParameterGridTest {
+
+	@Test
+	public void identicalToSeparateRuns() throws InterruptedException {
+		ImagePlus imp = SyntheticPlate.make(1000, 500, 4, 2).getImage();
+		SproutParameters parameters = SproutParameters.DEFAULTS.toBuilder().measure(SproutParameters.Measurement.BRANCHING, true).build();
+		ParameterGrid grid = new ParameterGrid(parameters).sproutBlur(3, 4).minPlexusArea(2000, 5000).minSproutArea(50, 200).beadRadius(50, 60);
+		List<SproutResults> results = grid.run(imp, 1, 3);
+		assertEquals(grid.size(), results.size());
+		for (int i = 0; i < grid.size(); i++) {
+			assertEquals(grid.getParameters(i), results.get(i).getParameters());
+			ResultsTable expected = new ResultsTable(), actual = new ResultsTable();
+			SproutAnalysis.analyze(imp, grid.getParameters(i)).addTo(expected);
+			results.get(i).addTo(actual);
+			assertEquals(expected.getLabel(0), actual.getLabel(0));
+			for (int col = 0; col <= expected.getLastColumn(); col++) {
+				if (!expected.columnExists(col))
+					continue;
+				String heading = expected.getColumnHeading(col);
+				assertEquals("point " + i + " " + heading, expected.getValueAsDouble(col, 0), actual.getValue(heading, 0), 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import ij.IJ;
+import ij.ImagePlus;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Parsing of the job options of the analysis server.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class SproutDaemonTest {
+
+	private static void assertRejected(String options) {
+		try {
+			SproutDaemon.parse(options);
+			fail("accepted " + options);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void defaults() {
+		assertEquals(SproutParameters.DEFAULTS, SproutDaemon.parse(""));
+	}
+
+	@Test
+	public void options() {
+		SproutParameters p = SproutDaemon.parse("beads=2 sprouts=3 dilate_beads=1.5 sprout_threshold=[Otsu] number_of_sprouts=false tile_size=512 number_of_cells=false cell_density=false");
+		assertEquals(2, p.getBeadChannel());
+		assertEquals(3, p.getSproutChannel());
+		assertEquals(1.5, p.getBeadDilation(), 0);
+		assertEquals("Otsu", p.getSproutThreshold());
+		assertEquals(false, p.isMeasured(SproutParameters.Measurement.SPROUT_COUNT));
+	}
+
+	@Test
+	public void invalidChannels() {
+		assertRejected("beads=0");
+		assertRejected("sprouts=-1");
+		assertRejected("pericyte_marker=2.5");
+		assertRejected("nucleus_marker=one");
+	}
+
+	@Test
+	public void invalidThresholdMethods() {
+		assertRejected("bead_threshold=Nope");
+		assertRejected("sprout_threshold=li");
+		assertRejected("ec_threshold=[Default dark]");
+	}
+
+	@Test
+	public void invalidOptions() {
+		assertRejected("bead=1");
+		assertRejected("dilate_beads=-1");
+		assertRejected("results_per_bead=yes");
+		assertRejected("bead_downsampling=3");
+		assertRejected("tile_size=-512");
+		assertRejected("tile_size=512 results_per_bead=true number_of_cells=false cell_density=false");
+		assertRejected("tile_size=512"); // cell numbers are selected by default
+		assertRejected("tile_size=512 number_of_cells=false cell_density=false ec_number=true");
+	}
+
+	/**
+	 * More jobs than running and waiting slots on one connection: every job
+	 * gets its result lines and one done or error line, with its number.
+	 */
+	@Test(timeout = 120000)
+	public void connection() throws Exception {
+		SyntheticPlate plate = SyntheticPlate.make(1000, 500, 4, 1);
+		ImagePlus imp = plate.getImage();
+		File file = File.createTempFile("plate", ".tif");
+		File missing = new File(file.getPath() + ".missing");
+		SproutDaemon daemon = new SproutDaemon(1, 1);
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+			IJ.saveAsTiff(imp, file.getPath());
+			final Socket socket = server.accept();
+			Thread handler = new Thread(() -> daemon.handle(socket));
+			handler.start();
+
+			String[] jobs = { file.getPath(), missing.getPath(), file.getPath() + "\tresults_per_bead=true",
+					file.getPath() + "\tbead=1", file.getPath() + "\ttile_size=256 number_of_cells=false cell_density=false", file.getPath() + "\ttile_size=256 results_per_bead=true",
+					file.getPath() + "\tsprouts=9" };
+			boolean[] valid = { true, false, true, false, true, false, false };
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+			for (String job : jobs)
+				out.println(job);
+			out.flush();
+			client.shutdownOutput();
+
+			Map<Integer, List<String>> lines = new HashMap<Integer, List<String>>();
+			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+			for (String line; (line = in.readLine()) != null;) {
+				String[] items = line.split("\t", 4);
+				int job = Integer.parseInt(items[0]);
+				assertEquals(line, jobs[job - 1].split("\t")[0], items[1]);
+				lines.computeIfAbsent(job, k -> new ArrayList<String>()).add(items[2]);
+			}
+			handler.join();
+			assertEquals(jobs.length, lines.size());
+			for (int job = 1; job <= jobs.length; job++) {
+				List<String> kinds = lines.get(job);
+				String last = kinds.get(kinds.size() - 1);
+				assertEquals("job " + job + " " + kinds, valid[job - 1] ? "done" : "error", last);
+				for (String kind : kinds.subList(0, kinds.size() - 1))
+					assertEquals("job " + job + " " + kinds, "result", kind);
+				int results = !valid[job - 1] ? 0 : job == 3 ? 1 + plate.getBeadCount() : 1;
+				assertEquals("job " + job + " " + kinds, results, kinds.size() - 1);
+			}
+			assertTrue(plate.getBeadCount() > 1);
+		} finally {
+			daemon.shutdown();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import java.util.function.UnaryOperator;
+import org.junit.Test;
+
+/**
+ * Checks of the parameter builder and of the public API.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class SproutParametersTest {
+
+	private static void assertRejected(UnaryOperator<SproutParameters.Builder> change) {
+		try {
+			change.apply(SproutParameters.DEFAULTS.toBuilder()).build();
+			fail("accepted invalid parameters");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void defaultsAreValid() {
+		assertEquals(SproutParameters.DEFAULTS, SproutParameters.DEFAULTS.toBuilder().build());
+		SproutParameters.DEFAULTS.toBuilder().beads("Triangle", 0, 0, 0).sprouts("Li", 0, 0, 0).borderClusters(true, 0)
+				.nuclei("Minimum", 0, 0, 0).backgroundRadius(0).ec("Default", 0, true, true).build();
+	}
+
+	@Test
+	public void rejectsInvalidValues() {
+		assertRejected(b -> b.channels(0, 2, 1, 3, 4));
+		assertRejected(b -> b.beads("Nope", 2, 60, 1.2));
+		assertRejected(b -> b.beadDownsampling(3));
+		assertRejected(b -> b.beads("Triangle", -1, 60, 1.2));
+		assertRejected(b -> b.beads("Triangle", 2, -60, 1.2));
+		assertRejected(b -> b.beads("Triangle", 2, 60, -1.2));
+		assertRejected(b -> b.beads("Triangle", Double.NaN, 60, 1.2));
+		assertRejected(b -> b.sprouts("Li", -4, 5000, 100));
+		assertRejected(b -> b.sprouts("Li", 4, -5000, 100));
+		assertRejected(b -> b.sprouts("Li", 4, 5000, -100));
+		assertRejected(b -> b.borderClusters(true, -20000));
+		assertRejected(b -> b.nuclei("Minimum", -1, 5, 10));
+		assertRejected(b -> b.nuclei("Minimum", 1, -5, 10));
+		assertRejected(b -> b.nuclei("Minimum", 1, 5, -10));
+		assertRejected(b -> b.backgroundRadius(-50));
+		assertRejected(b -> b.ec("Default", -10, true, true));
+	}
+
+	@Test
+	public void rejectsChannelsNotInTheImage() {
+		ImagePlus imp = new ImagePlus("one channel", new ByteProcessor(20, 20));
+		SproutParameters valid = SproutParameters.DEFAULTS.toBuilder().channels(1, 1, 1, 1, 1).build();
+		SproutAnalysis.check(imp, 1, valid);
+		for (int frame : new int[] { 0, 2 }) {
+			try {
+				SproutAnalysis.check(imp, frame, valid);
+				fail("accepted frame " + frame);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			SproutAnalysis.check(imp, 1, SproutParameters.DEFAULTS);
+			fail("accepted channel 2 of a single channel image");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
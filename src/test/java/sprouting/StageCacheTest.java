@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.ResultsTable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import morphology.BitMask;
+import org.junit.Test;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * Analyses with caching, as in the preview of the dialogs, against fresh
+ * analyses without caching, after every single parameter change.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class StageCacheTest {
+	private static final String[] SPROUT_STAGES = { "bead_blur", "beads", "sprout_blur", "sprout_plexus", "sprout_connected", "sprouts" };
+
+	private static SproutParameters allMeasurements() {
+		SproutParameters.Builder parameters = SproutParameters.DEFAULTS.toBuilder();
+		for (Measurement m : Measurement.values())
+			parameters.measure(m, true);
+		return parameters.build();
+	}
+
+	private static Sprout_Analyzer analyzer(ImagePlus imp, SproutParameters parameters, boolean caching) {
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(imp);
+		analyzer.setParameters(parameters);
+		analyzer.setCaching(caching);
+		return analyzer;
+	}
+
+	/**
+	 * Changes of one parameter each, applied one after the other.
+	 */
+	private static Map<String, UnaryOperator<SproutParameters>> changes() {
+		Map<String, UnaryOperator<SproutParameters>> changes = new LinkedHashMap<String, UnaryOperator<SproutParameters>>();
+		changes.put("bead threshold", p -> p.toBuilder().beads("Otsu", p.getBeadBlur(), p.getBeadRadius(), p.getBeadDilation()).build());
+		changes.put("bead blur", p -> p.toBuilder().beads(p.getBeadThreshold(), 3, p.getBeadRadius(), p.getBeadDilation()).build());
+		changes.put("bead radius", p -> p.toBuilder().beads(p.getBeadThreshold(), p.getBeadBlur(), 50, p.getBeadDilation()).build());
+		changes.put("bead dilation", p -> p.toBuilder().beads(p.getBeadThreshold(), p.getBeadBlur(), p.getBeadRadius(), 1.4).build());
+		changes.put("bead downsampling", p -> p.toBuilder().beadDownsampling(p.getBeadDownsampling() > 1 ? 1 : 4).build());
+		changes.put("sprout threshold", p -> p.toBuilder().sprouts("Huang", p.getSproutBlur(), p.getMinPlexusArea(), p.getMinSproutArea()).build());
+		changes.put("sprout blur", p -> p.toBuilder().sprouts(p.getSproutThreshold(), 3, p.getMinPlexusArea(), p.getMinSproutArea()).build());
+		changes.put("min plexus area", p -> p.toBuilder().sprouts(p.getSproutThreshold(), p.getSproutBlur(), 2000, p.getMinSproutArea()).build());
+		changes.put("min sprout area", p -> p.toBuilder().sprouts(p.getSproutThreshold(), p.getSproutBlur(), p.getMinPlexusArea(), 2000).build());
+		changes.put("recover interrupted", p -> p.toBuilder().recoverInterrupted(!p.isRecoverInterrupted()).build());
+		changes.put("exclude border clusters", p -> p.toBuilder().borderClusters(!p.isExcludeBorderClusters(), p.getMinClusterSize()).build());
+		changes.put("min cluster size", p -> p.toBuilder().borderClusters(p.isExcludeBorderClusters(), 1000).build());
+		changes.put("nucleus threshold", p -> p.toBuilder().nuclei("Otsu", p.getNucleusBlur(), p.getNucleusTolerance(), p.getMinNucleusArea()).build());
+		changes.put("nucleus tolerance", p -> p.toBuilder().nuclei(p.getNucleusThreshold(), p.getNucleusBlur(), 50, p.getMinNucleusArea()).build());
+		changes.put("min nucleus area", p -> p.toBuilder().nuclei(p.getNucleusThreshold(), p.getNucleusBlur(), p.getNucleusTolerance(), 40).build());
+		changes.put("background radius", p -> p.toBuilder().backgroundRadius(p.getBackgroundRadius() + 10).build());
+		changes.put("EC threshold", p -> p.toBuilder().ec("Otsu", p.getMinEcArea(), p.isCellNumbers(), p.isCellFraction()).build());
+		changes.put("pericyte threshold", p -> p.toBuilder().pericytes("Otsu", p.isPericyteArea(), p.isPericyteFraction()).build());
+		changes.put("nucleus channel", p -> p.toBuilder().channels(p.getBeadChannel(), p.getSproutChannel(), 3, p.getEcChannel(), p.getPericyteChannel()).build());
+		changes.put("back to the defaults", p -> allMeasurements());
+		return changes;
+	}
+
+	private static void assertSameAnalysis(String message, Sprout_Analyzer expected, Sprout_Analyzer actual) {
+		ImageStack expectedMasks = expected.getResultStack(), masks = actual.getResultStack();
+		assertEquals(message, expectedMasks.getSize(), masks.getSize());
+		for (int slice = 1; slice <= masks.getSize(); slice++)
+			assertArrayEquals(message + ", mask " + slice, (byte[]) expectedMasks.getPixels(slice), (byte[]) masks.getPixels(slice));
+		ResultsTable expectedResults = new ResultsTable(), results = new ResultsTable();
+		expected.addResults(expectedResults);
+		actual.addResults(results);
+		for (int col = 0; col <= expectedResults.getLastColumn(); col++) {
+			if (!expectedResults.columnExists(col))
+				continue;
+			String heading = expectedResults.getColumnHeading(col);
+			assertEquals(message + ", " + heading, expectedResults.getValueAsDouble(col, 0), results.getValue(heading, 0), 0);
+		}
+	}
+
+	private static int[] computedCounts(Sprout_Analyzer analyzer) {
+		int[] counts = new int[SPROUT_STAGES.length];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = analyzer.getComputedCount(SPROUT_STAGES[i]);
+		return counts;
+	}
+
+	@Test
+	public void previewSameAsFreshAnalysis() {
+		ImagePlus imp = SyntheticPlate.make(1000, 500, 4, 3).getImage();
+		SproutParameters parameters = allMeasurements();
+		Sprout_Analyzer preview = analyzer(imp, parameters, true);
+		preview.analyze(StageScheduler.CALLER);
+		for (Map.Entry<String, UnaryOperator<SproutParameters>> change : changes().entrySet()) {
+			parameters = change.getValue().apply(parameters);
+			int[] before = computedCounts(preview);
+			preview.setParameters(parameters);
+			preview.analyze(StageScheduler.CALLER);
+			Sprout_Analyzer fresh = analyzer(imp, parameters, false);
+			fresh.analyze(StageScheduler.CALLER);
+			assertSameAnalysis(change.getKey(), fresh, preview);
+			if (change.getKey().equals("min sprout area")) {
+				/* only the final size filter is repeated */
+				int[] expected = before.clone();
+				expected[expected.length - 1]++;
+				assertEquals(Arrays.toString(expected), Arrays.toString(computedCounts(preview)));
+			}
+		}
+	}
+
+	/**
+	 * Bead masks given by setBeadMask() are recognized by their identity: a
+	 * different mask object, also with the same pixels, is a different key.
+	 */
+	@Test
+	public void givenBeadMasks() {
+		ImagePlus imp = SyntheticPlate.make(1000, 500, 4, 3).getImage();
+		SproutParameters parameters = allMeasurements();
+		BitMask beads = analyzer(imp, parameters, false).findBeadMask();
+		/* without the bead on the right */
+		BitMask half = new BitMask(beads.getWidth(), beads.getHeight());
+		for (int y = 0; y < half.getHeight(); y++)
+			for (int x = half.getWidth() / 2; x < half.getWidth(); x++)
+				half.set(x, y);
+		BitMask left = beads.copy().andNot(half);
+		Sprout_Analyzer preview = analyzer(imp, parameters, true);
+		List<BitMask> masks = Arrays.asList(beads, left, beads, beads.copy(), left);
+		for (int i = 0; i < masks.size(); i++) {
+			preview.setBeadMask(masks.get(i));
+			preview.analyze(StageScheduler.CALLER);
+			Sprout_Analyzer fresh = analyzer(imp, parameters, false);
+			fresh.setBeadMask(masks.get(i));
+			fresh.analyze(StageScheduler.CALLER);
+			assertSameAnalysis("mask " + i, fresh, preview);
+		}
+	}
+}
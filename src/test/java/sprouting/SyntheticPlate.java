@@ -0,0 +1,272 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Rectangle;
+import java.util.Random;
+
+/**
+ * Synthetic 16-bit bead assay image with known contents, for tests and benchmarks.
+ *
+ * Beads are placed on a regular grid, each with a number of straight sprouts
+ * at evenly spaced (jittered) angles, and nuclei along the sprouts. The
+ * channels follow the default channel settings of the Sprout Analyzer:
+ * <ol>
+ * <li>beads and nuclei</li>
+ * <li>sprouts (covering the beads)</li>
+ * <li>EC marker, on all nuclei of a sprout but every third one</li>
+ * <li>pericyte marker, along every other sprout</li>
+ * </ol>
+ * All channels have a noisy background. The image is calibrated at 1 micron
+ * per pixel, so the beads survive the default minimal bead radius.
+ *
+ * The pixels are computed on demand from the geometry, rectangle by
+ * rectangle, so a plate can also be used as a TileSource for images that
+ * are much larger than the memory.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+final class SyntheticPlate extends TileSource {
+	static final int BEAD_RADIUS = 80, SPACING = 500, SPROUT_WIDTH = 8, NUCLEUS_RADIUS = 4, NUCLEUS_SPACING = 30;
+	private static final int BACKGROUND = 100, NOISE = 20;
+	private static final int BEAD_INTENSITY = 2000, SPROUT_INTENSITY = 1500, NUCLEUS_INTENSITY = 3000, MARKER_INTENSITY = 2500;
+	/* sprouts of neighboring beads never touch */
+	private static final int MAX_SPROUT_LENGTH = SPACING / 2 - BEAD_RADIUS - 2 * SPROUT_WIDTH;
+	/* nuclei start well outside of the (dilated) bead mask */
+	private static final int FIRST_NUCLEUS = 2 * BEAD_RADIUS - BEAD_RADIUS / 2;
+
+	private final int width, height, columns, rows;
+	private final long seed;
+	private final double[][] angles; // direction of each sprout, per bead
+	private final int[][] lengths; // length of each sprout from the bead surface, per bead
+	private final Calibration cal = new Calibration();
+	private int sprouts, nuclei, pericytes;
+	private double networkLength;
+
+	private SyntheticPlate(int width, int height, int sproutsPerBead, long seed) {
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
+		columns = width / SPACING;
+		rows = height / SPACING;
+		angles = new double[columns * rows][sproutsPerBead];
+		lengths = new int[columns * rows][sproutsPerBead];
+		for (int b = 0; b < angles.length; b++) {
+			Random random = new Random(seed * 1000003 + b);
+			double offset = random.nextDouble() * 2 * Math.PI;
+			for (int s = 0; s < sproutsPerBead; s++) {
+				angles[b][s] = offset + (s + 0.4 * random.nextDouble()) * 2 * Math.PI / sproutsPerBead;
+				lengths[b][s] = MAX_SPROUT_LENGTH / 2 + random.nextInt(MAX_SPROUT_LENGTH / 2);
+				sprouts++;
+				networkLength += lengths[b][s];
+				int n = nucleusCount(lengths[b][s]);
+				nuclei += n;
+				pericytes += (n + 2) / 3;
+			}
+		}
+		cal.pixelWidth = 1;
+		cal.pixelHeight = 1;
+		cal.setUnit("micron");
+	}
+
+	/**
+	 * Define a plate. The same arguments always give the same image.
+	 *
+	 * @param width
+	 * @param height
+	 * @param sproutsPerBead
+	 * @param seed
+	 */
+	static SyntheticPlate make(int width, int height, int sproutsPerBead, long seed) {
+		return new SyntheticPlate(width, height, sproutsPerBead, seed);
+	}
+
+	/**
+	 * Render the whole plate as a 4-channel image.
+	 */
+	ImagePlus getImage() {
+		ImageStack stack = new ImageStack(width, height);
+		Rectangle all = new Rectangle(width, height);
+		for (int c = 1; c <= 4; c++)
+			stack.addSlice(read(c, all));
+		ImagePlus image = new ImagePlus(getTitle(), stack);
+		image.setDimensions(4, 1, 1);
+		image.setCalibration(cal);
+		return image;
+	}
+
+	int getBeadCount() {
+		return columns * rows;
+	}
+
+	int getSproutCount() {
+		return sprouts;
+	}
+
+	/**
+	 * Total centerline length of the sprouts outside of the beads (microns).
+	 */
+	double getNetworkLength() {
+		return networkLength;
+	}
+
+	/**
+	 * Number of nuclei, including pericytes.
+	 */
+	int getNucleusCount() {
+		return nuclei;
+	}
+
+	/**
+	 * Number of nuclei without EC marker.
+	 */
+	int getPericyteCount() {
+		return pericytes;
+	}
+
+	@Override
+	String getTitle() {
+		return "Synthetic plate " + seed;
+	}
+
+	@Override
+	int getWidth() {
+		return width;
+	}
+
+	@Override
+	int getHeight() {
+		return height;
+	}
+
+	@Override
+	int getNChannels() {
+		return 4;
+	}
+
+	@Override
+	int getBitDepth() {
+		return 16;
+	}
+
+	@Override
+	Calibration getCalibration() {
+		return cal;
+	}
+
+	@Override
+	ImageProcessor read(int channel, Rectangle r) {
+		ShortProcessor ip = new ShortProcessor(r.width, r.height);
+		short[] pixels = (short[]) ip.getPixels();
+		for (int y = 0, i = 0; y < r.height; y++)
+			for (int x = 0; x < r.width; x++, i++)
+				pixels[i] = (short) (BACKGROUND + noise(channel, r.x + x, r.y + y));
+		/* every bead with its sprouts stays within its grid cell */
+		int c0 = Math.max(0, r.x / SPACING), c1 = Math.min(columns - 1, (r.x + r.width - 1) / SPACING);
+		int r0 = Math.max(0, r.y / SPACING), r1 = Math.min(rows - 1, (r.y + r.height - 1) / SPACING);
+		for (int row = r0; row <= r1; row++)
+			for (int column = c0; column <= c1; column++)
+				drawBead(ip, r, channel, row * columns + column, SPACING / 2 + column * SPACING, SPACING / 2 + row * SPACING);
+		return ip;
+	}
+
+	private void drawBead(ShortProcessor ip, Rectangle r, int channel, int bead, int cx, int cy) {
+		for (int s = 0; s < angles[bead].length; s++) {
+			double dx = Math.cos(angles[bead][s]), dy = Math.sin(angles[bead][s]);
+			int length = lengths[bead][s];
+			double x2 = cx + dx * (BEAD_RADIUS + length), y2 = cy + dy * (BEAD_RADIUS + length);
+			if (channel == 2)
+				drawLine(ip, r, cx, cy, x2, y2, SPROUT_WIDTH, SPROUT_INTENSITY);
+			if (channel == 4 && s % 2 == 1)
+				drawLine(ip, r, cx + dx * BEAD_RADIUS, cy + dy * BEAD_RADIUS, x2, y2, SPROUT_WIDTH / 2, MARKER_INTENSITY);
+			if (channel == 1 || channel == 3) {
+				for (int n = 0; n < nucleusCount(length); n++) {
+					double d = FIRST_NUCLEUS + n * NUCLEUS_SPACING;
+					if (channel == 1)
+						drawDisc(ip, r, cx + dx * d, cy + dy * d, NUCLEUS_RADIUS, NUCLEUS_INTENSITY);
+					else if (n % 3 != 0) // every third nucleus is a pericyte
+						drawDisc(ip, r, cx + dx * d, cy + dy * d, NUCLEUS_RADIUS, MARKER_INTENSITY);
+				}
+			}
+		}
+		if (channel == 1)
+			drawDisc(ip, r, cx, cy, BEAD_RADIUS, BEAD_INTENSITY);
+		if (channel == 2)
+			drawDisc(ip, r, cx, cy, BEAD_RADIUS + 5, SPROUT_INTENSITY);
+	}
+
+	/**
+	 * Number of nuclei along a sprout of the given length.
+	 */
+	private static int nucleusCount(int length) {
+		int end = BEAD_RADIUS + length - NUCLEUS_RADIUS;
+		return end <= FIRST_NUCLEUS ? 0 : (end - FIRST_NUCLEUS + NUCLEUS_SPACING - 1) / NUCLEUS_SPACING;
+	}
+
+	/**
+	 * Set the pixels whose center is within a radius of a point (in plate coordinates).
+	 */
+	private static void drawDisc(ShortProcessor ip, Rectangle r, double cx, double cy, double radius, int value) {
+		int x0 = Math.max(r.x, (int) Math.floor(cx - radius)), x1 = Math.min(r.x + r.width - 1, (int) Math.ceil(cx + radius));
+		int y0 = Math.max(r.y, (int) Math.floor(cy - radius)), y1 = Math.min(r.y + r.height - 1, (int) Math.ceil(cy + radius));
+		for (int y = y0; y <= y1; y++)
+			for (int x = x0; x <= x1; x++)
+				if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= radius * radius)
+					ip.set(x - r.x, y - r.y, Math.max(ip.get(x - r.x, y - r.y), value));
+	}
+
+	/**
+	 * Set the pixels whose center is within half the width of a line segment (in plate coordinates).
+	 */
+	private static void drawLine(ShortProcessor ip, Rectangle r, double x1, double y1, double x2, double y2, double width, int value) {
+		double half = width / 2, lx = x2 - x1, ly = y2 - y1, length2 = lx * lx + ly * ly;
+		int x0 = Math.max(r.x, (int) Math.floor(Math.min(x1, x2) - half)), x3 = Math.min(r.x + r.width - 1, (int) Math.ceil(Math.max(x1, x2) + half));
+		int y0 = Math.max(r.y, (int) Math.floor(Math.min(y1, y2) - half)), y3 = Math.min(r.y + r.height - 1, (int) Math.ceil(Math.max(y1, y2) + half));
+		for (int y = y0; y <= y3; y++) {
+			for (int x = x0; x <= x3; x++) {
+				double t = Math.max(0, Math.min(1, ((x - x1) * lx + (y - y1) * ly) / length2));
+				double ex = x1 + t * lx - x, ey = y1 + t * ly - y;
+				if (ex * ex + ey * ey <= half * half)
+					ip.set(x - r.x, y - r.y, Math.max(ip.get(x - r.x, y - r.y), value));
+			}
+		}
+	}
+
+	/**
+	 * Background noise of a pixel, the same whatever rectangle it is read in.
+	 */
+	private int noise(int channel, int x, int y) {
+		long h = seed * 0x9E3779B97F4A7C15L + channel * 0xC2B2AE3D27D4EB4FL + (((long) y << 32) | x);
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return (int) (((h ^ (h >>> 33)) >>> 1) % NOISE);
+	}
+}
@@ -0,0 +1,55 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * The analysis finds the known contents of synthetic plates.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class SyntheticPlateTest {
+
+	@Test
+	public void defaultsRecoverPlate() {
+		SproutParameters.Builder parameters = SproutParameters.DEFAULTS.toBuilder();
+		for (Measurement m : Measurement.values())
+			parameters.measure(m, true);
+		for (long seed = 1; seed <= 3; seed++) {
+			SyntheticPlate plate = SyntheticPlate.make(1500, 1000, 4, seed);
+			SproutResults results = SproutAnalysis.analyze(plate.getImage(), parameters.build());
+			assertEquals("beads, seed " + seed, plate.getBeadCount(), results.getBeadCount());
+			assertEquals("sprouts, seed " + seed, plate.getSproutCount(), results.getSproutCount());
+			assertEquals("nuclei, seed " + seed, plate.getNucleusCount(), results.getCellCount());
+			assertEquals("pericytes, seed " + seed, plate.getPericyteCount(), results.getPericyteCount());
+			assertEquals("EC, seed " + seed, plate.getNucleusCount() - plate.getPericyteCount(), results.getEcCount());
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import ij.process.AutoThresholder;
+import org.junit.Test;
+import sprouting.SproutParameters.Measurement;
+import sprouting.ThresholdSweep.Threshold;
+
+/**
+ * The threshold sweep against separate analyses with each method.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class ThresholdSweepTest {
+
+	@Test
+	public void rowsIdenticalToSeparateRuns() {
+		ImagePlus imp = SyntheticPlate.make(1000, 500, 4, 1).getImage();
+		SproutParameters.Builder builder = SproutParameters.DEFAULTS.toBuilder();
+		for (Measurement measurement : Measurement.values())
+			builder.measure(measurement, true);
+		SproutParameters parameters = builder.build();
+		String[] methods = AutoThresholder.getMethods();
+		for (Threshold threshold : Threshold.values()) {
+			ResultsTable sweep = new ResultsTable();
+			ThresholdSweep.sweep(imp, 1, parameters, threshold, sweep);
+			assertEquals(methods.length, sweep.size());
+			for (int i = 0; i < methods.length; i++) {
+				ResultsTable row = new ResultsTable();
+				SproutAnalysis.analyze(imp, threshold.with(parameters, methods[i])).addTo(row);
+				for (int col = 0; col <= row.getLastColumn(); col++) {
+					if (!row.columnExists(col))
+						continue;
+					String heading = row.getColumnHeading(col);
+					assertEquals(threshold + " " + methods[i] + " " + heading, row.getValueAsDouble(col, 0), sweep.getValue(heading, i), 0);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * Sprout Morphology plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2021 Heinrich Heine University Düsseldorf
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+package sprouting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.ResultsTable;
+import ij.process.ShortProcessor;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+import sprouting.SproutParameters.Measurement;
+
+/**
+ * analyzeTiled() measures the same as analyze() and gives the same masks, for
+ * blurs with and without downscaling in GaussianBlur.
+ *
+ * @author Jan Eglinger (jan.eglinger at gmail.com)
+ */
+public class TiledAnalysisTest {
+
+	private static String row(Sprout_Analyzer analyzer) {
+		ResultsTable table = new ResultsTable();
+		analyzer.addResults(table);
+		return table.getRowAsString(0);
+	}
+
+	/**
+	 * Four channels of uniform noise, where the smoothed noise has long
+	 * contours at any threshold level.
+	 */
+	private static ImagePlus noise(int width, int height, long seed) {
+		Random random = new Random(seed);
+		ImageStack stack = new ImageStack(width, height);
+		for (int c = 0; c < 4; c++) {
+			ShortProcessor ip = new ShortProcessor(width, height);
+			for (int i = 0; i < width * height; i++)
+				ip.set(i, random.nextInt(4096));
+			stack.addSlice(ip);
+		}
+		ImagePlus imp = new ImagePlus("Noise", stack);
+		imp.setDimensions(4, 1, 1);
+		return imp;
+	}
+
+	private static void assertTiledEqualsUntiled(ImagePlus imp, double beadBlur, double sproutBlur) throws IOException {
+		SproutParameters defaults = SproutParameters.DEFAULTS;
+		SproutParameters parameters = defaults.toBuilder()
+				.beads(defaults.getBeadThreshold(), beadBlur, defaults.getBeadRadius(), defaults.getBeadDilation())
+				.sprouts(defaults.getSproutThreshold(), sproutBlur, defaults.getMinPlexusArea(), defaults.getMinSproutArea())
+				.measureOnly(Measurement.BEAD_COUNT, Measurement.SPROUT_COUNT, Measurement.TOTAL_SPROUT_AREA,
+						Measurement.NETWORK_LENGTH, Measurement.AVERAGE_SPROUT_LENGTH, Measurement.AVERAGE_SPROUT_WIDTH,
+						Measurement.BRANCHING, Measurement.LONGEST_PATH, Measurement.PERICYTE_COVERAGE)
+				.build();
+		TileSource source = TileSource.of(imp);
+		Sprout_Analyzer untiled = new Sprout_Analyzer();
+		untiled.init(imp);
+		untiled.setParameters(parameters);
+		untiled.analyze();
+		String expected = row(untiled);
+		ImageStack expectedMasks = untiled.getResultStack();
+		for (int tileSize : new int[] { 100, 256, 700 }) {
+			Sprout_Analyzer tiled = new Sprout_Analyzer();
+			tiled.init(source);
+			tiled.setParameters(parameters);
+			tiled.analyzeTiled(source, tileSize);
+			String message = "blur " + beadBlur + "/" + sproutBlur + ", tiles " + tileSize;
+			assertEquals(message, expected, row(tiled));
+			ImageStack masks = tiled.getResultStack();
+			assertEquals(message, expectedMasks.getSize(), masks.getSize());
+			for (int slice = 1; slice <= masks.getSize(); slice++)
+				assertArrayEquals(message + ", mask " + slice, (byte[]) expectedMasks.getPixels(slice), (byte[]) masks.getPixels(slice));
+		}
+	}
+
+	/**
+	 * Cell numbers need the nuclei, which are not segmented in tiled mode.
+	 */
+	@Test
+	public void noCellNumbers() throws IOException {
+		ImagePlus imp = SyntheticPlate.make(500, 500, 3, 1).getImage();
+		TileSource source = TileSource.of(imp);
+		Sprout_Analyzer analyzer = new Sprout_Analyzer();
+		analyzer.init(source);
+		analyzer.setParameters(SproutParameters.DEFAULTS);
+		try {
+			analyzer.analyzeTiled(source, 256);
+			fail("analyzed cell numbers tile by tile");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void smallBlurs() throws IOException {
+		assertTiledEqualsUntiled(SyntheticPlate.make(1200, 1000, 5, 3).getImage(), 2, 3);
+		assertTiledEqualsUntiled(noise(900, 700, 1), 2, 3);
+	}
+
+	@Test
+	public void downscaledBlurs() throws IOException {
+		assertTiledEqualsUntiled(SyntheticPlate.make(1200, 1000, 5, 3).getImage(), 8, 12);
+		assertTiledEqualsUntiled(noise(900, 700, 1), 12, 3);
+		assertTiledEqualsUntiled(noise(900, 700, 2), 2, 15);
+	}
+}